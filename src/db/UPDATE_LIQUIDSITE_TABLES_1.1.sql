@@ -0,0 +1,6 @@
+-- Updates Liquid Site Tables to version 1.1 (from 1.0.2)
+
+-- Add user search indices
+ALTER TABLE `LS_USER`
+    ADD INDEX `USER_IDX1` (`DOMAIN`, `REAL_NAME`),
+    ADD INDEX `USER_IDX2` (`DOMAIN`, `EMAIL`);
@@ -26,6 +26,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.liquidsite.app.admin.view.AdminView;
+import org.liquidsite.app.template.TemplateManager;
 import org.liquidsite.core.content.Content;
 import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentManager;
@@ -194,6 +195,7 @@ class PublishDialogHandler extends AdminDialogHandler {
             content.setOnlineDate(date);
             content.setOfflineDate(null);
             content.save(user);
+            TemplateManager.invalidate(content);
         }
         if (recursive) {
             children = manager.getContentChildren(user, content);
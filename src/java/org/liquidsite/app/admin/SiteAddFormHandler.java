@@ -257,16 +257,18 @@ class SiteAddFormHandler extends AdminFormHandler {
     private void handleAddDomain(Request request, Domain parent)
         throws ContentException, ContentSecurityException {
 
-        ContentManager  manager = AdminUtils.getContentManager();
-        Domain          domain;
-        Iterator        iter;
-        String          param;
-        String          name;
-        String          descr;
+        ContentManager       manager = AdminUtils.getContentManager();
+        SiteEditFormHandler  edit = SiteEditFormHandler.getInstance();
+        Domain               domain;
+        Iterator             iter;
+        String               param;
+        String               name;
+        String               descr;
 
         domain = new Domain(manager, request.getParameter("name"));
         domain.setDescription(request.getParameter("description"));
         domain.setMailFrom(request.getParameter("mailaddress"));
+        domain.setMailBatchSize(edit.getMailBatchSize(request));
         iter = request.getAllParameters().keySet().iterator();
         while (iter.hasNext()) {
             param = iter.next().toString();
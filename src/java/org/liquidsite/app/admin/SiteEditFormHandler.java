@@ -27,6 +27,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import org.liquidsite.app.admin.view.AdminView;
+import org.liquidsite.app.template.TemplateManager;
 import org.liquidsite.core.content.Content;
 import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentFile;
@@ -132,6 +133,13 @@ class SiteEditFormHandler extends AdminFormHandler {
                                                error);
         error = "No description specified";
         domainValidator.addRequiredConstraint("description", error);
+        error = "Mail batch size must be numeric, invalid character";
+        domainValidator.addCharacterConstraint("mailbatch",
+                                               "0123456789",
+                                               error);
+        error = "Mail batch size cannot be larger than " +
+                Domain.MAX_MAIL_BATCH_SIZE;
+        domainValidator.addLengthConstraint("mailbatch", 0, 3, error);
         error = "Host name must be lower-case, invalid character";
         domainValidator.addCharacterConstraint("host.0.name",
                                                Domain.HOST_NAME_CHARS,
@@ -289,6 +297,11 @@ class SiteEditFormHandler extends AdminFormHandler {
                 message = "No host name specified";
                 throw new FormValidationException("host.0.name", message);
             }
+            if (getMailBatchSize(request) > Domain.MAX_MAIL_BATCH_SIZE) {
+                message = "Mail batch size cannot be larger than " +
+                          Domain.MAX_MAIL_BATCH_SIZE;
+                throw new FormValidationException("mailbatch", message);
+            }
         } else if (category.equals("site")) {
             siteValidator.validate(request);
             // TODO: check parameters for conflicting sites & objects
@@ -337,6 +350,22 @@ class SiteEditFormHandler extends AdminFormHandler {
         fileValidator.validate(request);
     }
 
+    /**
+     * Returns the mail batch size from a domain form. The form
+     * request data must have been validated before calling this
+     * method.
+     *
+     * @param request        the request object
+     *
+     * @return the mail batch size, or
+     *         zero (0) if not specified
+     */
+    protected int getMailBatchSize(Request request) {
+        String  str = request.getParameter("mailbatch", "");
+
+        return (str.length() > 0) ? Integer.parseInt(str) : 0;
+    }
+
     /**
      * Handles a validated form for the specified workflow step. This
      * method returns the next workflow step, i.e. the step used when
@@ -405,6 +434,7 @@ class SiteEditFormHandler extends AdminFormHandler {
 
         domain.setDescription(request.getParameter("description"));
         domain.setMailFrom(request.getParameter("mailaddress"));
+        domain.setMailBatchSize(getMailBatchSize(request));
         domain.removeAllHosts();
         iter = request.getAllParameters().keySet().iterator();
         while (iter.hasNext()) {
@@ -537,6 +567,7 @@ class SiteEditFormHandler extends AdminFormHandler {
             page.setOfflineDate(null);
         }
         page.save(request.getUser());
+        TemplateManager.invalidate(page);
     }
 
     /**
@@ -684,5 +715,6 @@ class SiteEditFormHandler extends AdminFormHandler {
             template.setOfflineDate(null);
         }
         template.save(request.getUser());
+        TemplateManager.invalidate(template);
     }
 }
@@ -58,6 +58,7 @@ import org.liquidsite.core.content.PermissionList;
 import org.liquidsite.core.content.User;
 import org.liquidsite.core.web.Request;
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestStatistics;
 
 /**
  * The request processor for the system view in the administration
@@ -119,6 +120,11 @@ class SystemRequestProcessor {
             handleBackup(request);
         } else if (action.equals("restore")) {
             handleRestore(request);
+        } else if (action.equals("statistics")) {
+            AdminView.SYSTEM.viewStatistics(request);
+        } else if (action.equals("resetstatistics")) {
+            RequestStatistics.getInstance().reset();
+            AdminView.SYSTEM.viewSystem(request);
         } else {
             AdminView.SYSTEM.viewSystem(request);
         }
@@ -392,6 +398,10 @@ class SystemRequestProcessor {
             out.print("\" mailfrom=\"");
             out.print(AdminUtils.getXmlString(domain.getMailFrom()));
         }
+        if (domain.getMailBatchSize() > 0) {
+            out.print("\" mailbatch=\"");
+            out.print(domain.getMailBatchSize());
+        }
         out.println("\">");
         hosts = domain.getHosts();
         for (int i = 0; i < hosts.size(); i++) {
@@ -703,6 +713,9 @@ class SystemRequestProcessor {
                 restoreFile(zip, entry, (File) files.get(name));
             }
             AdminUtils.getContentManager().reset();
+            if (Request.getFileCache() != null) {
+                Request.getFileCache().clear();
+            }
             return handler.getLog();
         } catch (IOException e) {
             message = "IO error while reading " + file;
@@ -26,6 +26,7 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import org.liquidsite.app.admin.view.AdminView;
+import org.liquidsite.app.template.TemplateManager;
 import org.liquidsite.core.content.Content;
 import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentSecurityException;
@@ -145,6 +146,7 @@ class UnpublishDialogHandler extends AdminDialogHandler {
         }
         content.setComment(request.getParameter("comment"));
         content.save(user);
+        TemplateManager.invalidate(content);
         return 0;
     }
 }
@@ -213,6 +213,14 @@ class XmlRestoreHandler extends DefaultHandler {
                 currentDomainName = attrs.getValue("name");
                 currentDomain.setDescription(attrs.getValue("description"));
                 currentDomain.setMailFrom(attrs.getValue("mailfrom"));
+                str = attrs.getValue("mailbatch");
+                try {
+                    if (str != null) {
+                        currentDomain.setMailBatchSize(Integer.parseInt(str));
+                    }
+                } catch (NumberFormatException ignore) {
+                    // Do nothing, i.e. send individual mails
+                }
                 currentDomain.restore(managerUser);
             } else if (qName.equals("host")) {
                 try {
@@ -180,6 +180,7 @@ public class SiteView extends AdminView {
         String     description;
         ArrayList  hosts = new ArrayList();
         String     mailAddress;
+        String     mailBatch;
         ArrayList  list;
         DomainHost host;
         Iterator   iter;
@@ -206,11 +207,13 @@ public class SiteView extends AdminView {
             if (mailAddress == null) {
                 mailAddress = "";
             }
+            mailBatch = String.valueOf(domain.getMailBatchSize());
         } else {
             AdminUtils.setReference(request, parent);
             name = "";
             description = "";
             mailAddress = "";
+            mailBatch = "0";
         }
 
         // Adjust for incoming request
@@ -232,6 +235,7 @@ public class SiteView extends AdminView {
                 }
             }
             mailAddress = request.getParameter("mailAddress", "");
+            mailBatch = request.getParameter("mailbatch", "0");
         }
 
         // Set request parameters
@@ -239,6 +243,7 @@ public class SiteView extends AdminView {
         request.setAttribute("description", description);
         request.setAttribute("hosts", hosts);
         request.setAttribute("mailaddress", mailAddress);
+        request.setAttribute("mailbatch", mailBatch);
         AdminUtils.sendTemplate(request, "admin/edit-domain.ftl");
     }
 
@@ -24,13 +24,23 @@ package org.liquidsite.app.admin.view;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 
 import org.liquidsite.app.admin.AdminUtils;
+import org.liquidsite.app.servlet.DefaultRequestProcessor;
+import org.liquidsite.app.servlet.LoginThrottle;
+import org.liquidsite.app.template.TemplateCompiler;
+import org.liquidsite.app.template.TemplateManager;
 import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentManager;
 import org.liquidsite.core.content.Domain;
 import org.liquidsite.core.content.User;
+import org.liquidsite.core.web.FileCache;
 import org.liquidsite.core.web.Request;
+import org.liquidsite.util.mail.MailQueue;
+import org.liquidsite.util.stats.Histogram;
+import org.liquidsite.util.stats.RequestStatistics;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A helper class for the system view. This class contains methods
@@ -49,14 +59,153 @@ public class SystemView {
     }
 
     /**
-     * Shows the system page.
+     * Shows the system page. The request statistics for each site
+     * will be included in the page.
      *
      * @param request        the request object
      */
     public void viewSystem(Request request) {
+        RequestStatistics  stats = RequestStatistics.getInstance();
+        String[]           sites = stats.getSites();
+        ArrayList          list = new ArrayList();
+        ArrayList          phases;
+        HashMap            map;
+        Histogram          h;
+
+        for (int i = 0; i < sites.length; i++) {
+            phases = new ArrayList();
+            for (int j = 0; j < RequestTimer.PHASES.length; j++) {
+                h = stats.getTimeHistogram(sites[i], j);
+                phases.add(createStatistics(RequestTimer.PHASES[j], h));
+            }
+            h = stats.getQueryHistogram(sites[i]);
+            phases.add(createStatistics("queries (count)", h));
+            map = new HashMap();
+            map.put("name", sites[i]);
+            map.put("phases", phases);
+            list.add(map);
+        }
+        request.setAttribute("statistics", list);
+        request.setAttribute("compiler", createCompilerStatus());
+        request.setAttribute("mail", createMailStatus());
+        request.setAttribute("filecache", createFileCacheStatus());
+        request.setAttribute("login", createLoginStatus());
         AdminUtils.sendTemplate(request, "admin/system.ftl");
     }
 
+    /**
+     * Shows the request statistics in plain text format.
+     *
+     * @param request        the request object
+     */
+    public void viewStatistics(Request request) {
+        request.sendData("text/plain",
+                         RequestStatistics.getInstance().toText());
+    }
+
+    /**
+     * Creates a map with the background template compiler status.
+     *
+     * @return the map with template compiler status, or
+     *         an empty map if the compiler wasn't started
+     */
+    private HashMap createCompilerStatus() {
+        TemplateCompiler  compiler = TemplateManager.getCompiler();
+        HashMap           map = new HashMap();
+        long              time;
+
+        if (compiler == null) {
+            return map;
+        }
+        if (compiler.isRunning()) {
+            map.put("status", "running");
+            time = System.currentTimeMillis() - compiler.getStartTime();
+        } else {
+            map.put("status", "finished");
+            time = compiler.getEndTime() - compiler.getStartTime();
+        }
+        map.put("time", String.valueOf(time));
+        map.put("total", String.valueOf(compiler.getTotal()));
+        map.put("compiled", String.valueOf(compiler.getCompiled()));
+        map.put("skipped", String.valueOf(compiler.getSkipped()));
+        map.put("failed", String.valueOf(compiler.getFailed()));
+        map.put("errors", compiler.getErrors());
+        return map;
+    }
+
+    /**
+     * Creates a map with the mail queue status.
+     *
+     * @return the map with mail queue status
+     */
+    private HashMap createMailStatus() {
+        MailQueue  queue = MailQueue.getInstance();
+        HashMap    map = new HashMap();
+
+        map.put("persistent", Boolean.valueOf(queue.isPersistent()));
+        map.put("waiting", String.valueOf(queue.getWaitSize()));
+        map.put("processing", String.valueOf(queue.getProcessSize()));
+        map.put("sent", String.valueOf(queue.getSentCount()));
+        map.put("failed", String.valueOf(queue.getFailureCount()));
+        return map;
+    }
+
+    /**
+     * Creates a map with the file response cache status.
+     *
+     * @return the map with file cache status, or
+     *         an empty map if no file cache is used
+     */
+    private HashMap createFileCacheStatus() {
+        FileCache  cache = Request.getFileCache();
+        HashMap    map = new HashMap();
+
+        if (cache == null) {
+            return map;
+        }
+        map.put("count", String.valueOf(cache.getCount()));
+        map.put("size", String.valueOf(cache.getSize() / 1024));
+        map.put("hits", String.valueOf(cache.getHits()));
+        map.put("misses", String.valueOf(cache.getMisses()));
+        return map;
+    }
+
+    /**
+     * Creates a map with the failed login throttle status.
+     *
+     * @return the map with login throttle status
+     */
+    private HashMap createLoginStatus() {
+        LoginThrottle  throttle = DefaultRequestProcessor.getLoginThrottle();
+        HashMap        map = new HashMap();
+
+        map.put("failed", String.valueOf(throttle.getFailedCount()));
+        map.put("blocked", String.valueOf(throttle.getBlockedCount()));
+        map.put("tracked", String.valueOf(throttle.getSize()));
+        return map;
+    }
+
+    /**
+     * Creates a map with histogram statistics.
+     *
+     * @param name           the statistics name
+     * @param h              the histogram
+     *
+     * @return the map with histogram statistics
+     */
+    private HashMap createStatistics(String name, Histogram h) {
+        HashMap  map = new HashMap();
+
+        map.put("name", name);
+        map.put("count", String.valueOf(h.getCount()));
+        map.put("average", String.valueOf(Math.round(h.getAverage())));
+        map.put("p50", String.valueOf(h.getPercentile(50)));
+        map.put("p90", String.valueOf(h.getPercentile(90)));
+        map.put("p99", String.valueOf(h.getPercentile(99)));
+        map.put("max", String.valueOf(h.getMax()));
+        return map;
+    }
+
     /**
      * Shows the system backup form.
      *
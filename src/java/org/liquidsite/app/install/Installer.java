@@ -111,6 +111,9 @@ public class Installer {
                                          "UPDATE_LIQUIDSITE_TABLES_1.0.sql"));
         updaters.add(new DatabaseUpdater("1.0.0", "1.0.1"));
         updaters.add(new DatabaseUpdater("1.0.1", "1.0.2"));
+        updaters.add(new DatabaseUpdater("1.0.2",
+                                         "1.1.0",
+                                         "UPDATE_LIQUIDSITE_TABLES_1.1.sql"));
     }
 
     /**
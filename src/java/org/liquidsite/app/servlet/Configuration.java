@@ -121,12 +121,102 @@ public class Configuration {
     public static final String MAIL_FOOTER =
         "liquidsite.mail.footer";
 
+    /**
+     * The mail sender threads key. The value is the number of
+     * background threads used for sending mail, or zero (0) to send
+     * mail from the application monitor thread.
+     */
+    public static final String MAIL_SEND_THREADS =
+        "liquidsite.mail.send.threads";
+
+    /**
+     * The mail send rate key. The value is the maximum number of
+     * mails sent per second, or zero (0) for unlimited.
+     */
+    public static final String MAIL_SEND_RATE =
+        "liquidsite.mail.send.rate";
+
     /**
      * The file data directory key.
      */
     public static final String FILE_DIRECTORY =
         "liquidsite.file.dir";
 
+    /**
+     * The file offload mode key. The value should be one of "none",
+     * "x-sendfile" or "x-accel-redirect".
+     */
+    public static final String FILE_OFFLOAD_MODE =
+        "liquidsite.file.offload";
+
+    /**
+     * The file offload URI prefix key. This is the internal proxy
+     * location mapped to the file data directory, only used in the
+     * "x-accel-redirect" offload mode.
+     */
+    public static final String FILE_OFFLOAD_PREFIX =
+        "liquidsite.file.offload.prefix";
+
+    /**
+     * The file cache maximum size key. The value is the maximum
+     * total number of bytes in cached files, or zero (0) to disable
+     * the file cache.
+     */
+    public static final String FILE_CACHE_SIZE =
+        "liquidsite.file.cache.size";
+
+    /**
+     * The file cache maximum file size key. Files larger than this
+     * number of bytes will never be cached.
+     */
+    public static final String FILE_CACHE_MAX_FILE_SIZE =
+        "liquidsite.file.cache.maxfilesize";
+
+    /**
+     * The file cache validation interval key. The value is the
+     * number of milliseconds between checks for file modifications.
+     */
+    public static final String FILE_CACHE_INTERVAL =
+        "liquidsite.file.cache.interval";
+
+    /**
+     * The file cache direct buffer key. If set to "true", the cached
+     * files will be stored in direct (non-heap) memory.
+     */
+    public static final String FILE_CACHE_DIRECT =
+        "liquidsite.file.cache.direct";
+
+    /**
+     * The page template cache maximum size key. The value is the
+     * maximum total estimated number of bytes in compiled page
+     * templates.
+     */
+    public static final String TEMPLATE_CACHE_SIZE =
+        "liquidsite.template.cache.size";
+
+    /**
+     * The template fragment cache maximum size key. The value is the
+     * maximum total number of bytes in cached template fragments.
+     */
+    public static final String TEMPLATE_FRAGMENT_CACHE_SIZE =
+        "liquidsite.template.fragment.size";
+
+    /**
+     * The formatted text cache maximum size key. The value is the
+     * maximum total number of bytes in cached formatted document and
+     * forum post texts.
+     */
+    public static final String TEMPLATE_FORMAT_CACHE_SIZE =
+        "liquidsite.template.format.size";
+
+    /**
+     * The template compiler threads key. The value is the maximum
+     * number of background threads used for compiling all templates
+     * on startup, or zero (0) to disable background compilation.
+     */
+    public static final String TEMPLATE_COMPILE_THREADS =
+        "liquidsite.template.compile.threads";
+
     /**
      * The statistics data directory key.
      */
@@ -145,6 +235,15 @@ public class Configuration {
     public static final String UPLOAD_MAX_SIZE =
         "liquidsite.upload.maxsize";
 
+    /**
+     * The trusted reverse proxy addresses key. The value is a comma
+     * separated list of proxy IP addresses. Failed logins from these
+     * addresses are throttled by the client address in the
+     * X-Forwarded-For header instead.
+     */
+    public static final String LOGIN_PROXIES =
+        "liquidsite.login.proxies";
+
     /**
      * The configuration file. If this file is set to null, the
      * configuration is read-only.
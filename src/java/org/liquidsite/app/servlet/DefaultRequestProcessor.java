@@ -28,6 +28,7 @@ import org.liquidsite.core.content.ContentSite;
 import org.liquidsite.core.content.User;
 import org.liquidsite.core.web.Request;
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * The default request processor for normal requests.
@@ -43,9 +44,17 @@ public class DefaultRequestProcessor extends RequestProcessor {
     private static final Log LOG = new Log(DefaultRequestProcessor.class);
 
     /**
-     * The delay in milliseconds on a failed login attempt.
+     * The maximum number of addresses and accounts tracked by the
+     * failed login throttle.
      */
-    private static final int FAILED_LOGIN_DELAY = 5000;
+    private static final int LOGIN_THROTTLE_SIZE = 10000;
+
+    /**
+     * The failed login throttle. The throttle is shared by all
+     * instances, so that failed logins are remembered on restarts.
+     */
+    private static LoginThrottle throttle =
+        new LoginThrottle(LOGIN_THROTTLE_SIZE);
 
     /**
      * The admin request processor.
@@ -64,6 +73,8 @@ public class DefaultRequestProcessor extends RequestProcessor {
      */
     public DefaultRequestProcessor(Application app) {
         super(app.getContentManager(), app.getBaseDir());
+        throttle.setProxies(app.getConfig().get(Configuration.LOGIN_PROXIES,
+                                                ""));
         admin = new AdminRequestProcessor(app);
         forum = new ForumRequestProcessor(app);
     }
@@ -88,13 +99,19 @@ public class DefaultRequestProcessor extends RequestProcessor {
         String       path = request.getPath();
         User         user;
         ContentSite  site;
+        long         start;
 
         // Find domain & site
         try {
-            site = getContentManager().findSite(request.getProtocol(),
-                                                request.getHost(),
-                                                request.getPort(),
-                                                request.getPath());
+            start = RequestTimer.begin(RequestTimer.SITE);
+            try {
+                site = getContentManager().findSite(request.getProtocol(),
+                                                    request.getHost(),
+                                                    request.getPort(),
+                                                    request.getPath());
+            } finally {
+                RequestTimer.end(RequestTimer.SITE, start);
+            }
             if (site == null) {
                 LOG.warning("failed to locate site for request: " + request +
                             " (protocol: " + request.getProtocol() +
@@ -112,7 +129,12 @@ public class DefaultRequestProcessor extends RequestProcessor {
 
         // Process request action
         if (request.getParameter("liquidsite.action") != null) {
-            processAction(request);
+            start = RequestTimer.begin(RequestTimer.ACTION);
+            try {
+                processAction(request);
+            } finally {
+                RequestTimer.end(RequestTimer.ACTION, start);
+            }
             if (request.hasResponse()) {
                 return;
             }
@@ -175,12 +197,24 @@ public class DefaultRequestProcessor extends RequestProcessor {
         }
     }
 
+    /**
+     * Returns the failed login throttle.
+     *
+     * @return the failed login throttle
+     */
+    public static LoginThrottle getLoginThrottle() {
+        return throttle;
+    }
+
     /**
      * Processes a login request. This will set the request user if
      * successful, and send a redirect to the requested page. If
      * unsuccessful, a request error attribute is set. Note that the
      * request must be further processed in the case of an
      * unsuccessful login, as the login page must be displayed again.
+     * Repeated failed logins from the same address or for the same
+     * user will be rejected immediately for an increasing period of
+     * time.
      *
      * @param request        the request object
      *
@@ -193,11 +227,31 @@ public class DefaultRequestProcessor extends RequestProcessor {
         String       name;
         String       password;
         String       redirect;
+        String       account;
+        String       forwarded;
+        String       address;
         User         user;
+        long         delay;
 
         name = request.getParameter("liquidsite.login", "");
         password = request.getParameter("liquidsite.password", "");
         redirect = request.getParameter("liquidsite.redirect", "");
+        account = site.getDomainName() + ":" + name;
+        forwarded = request.getHeader("X-Forwarded-For");
+        address = throttle.getClientAddress(request.getRemoteAddr(),
+                                            forwarded);
+        delay = throttle.check(address, account);
+        if (delay > 0) {
+            LOG.warning("blocked login attempt by user " + name +
+                        " in domain " + site.getDomainName() +
+                        " from " + address);
+            request.setUser(null);
+            request.setAttribute("error",
+                                 "Too many failed login attempts, try " +
+                                 "again in " + ((delay + 999) / 1000) +
+                                 " seconds");
+            return;
+        }
         try {
             user = getContentManager().getUser(site.getDomain(), name);
             LOG.info("correct login by user " + name + " in domain " +
@@ -208,6 +262,7 @@ public class DefaultRequestProcessor extends RequestProcessor {
             throw RequestException.INTERNAL_ERROR;
         }
         if (user != null && user.verifyPassword(password)) {
+            throttle.success(account);
             request.setUser(user);
             if (redirect.length() > 0) {
                 request.sendRedirect(redirect);
@@ -215,11 +270,7 @@ public class DefaultRequestProcessor extends RequestProcessor {
                 request.sendRedirect(request.getPath());
             }
         } else {
-            try {
-                Thread.sleep(FAILED_LOGIN_DELAY);
-            } catch (InterruptedException ignore) {
-                // Do nothing
-            }
+            throttle.failure(address, account);
             request.setUser(null);
             request.setAttribute("error", "Invalid user name or password");
         }
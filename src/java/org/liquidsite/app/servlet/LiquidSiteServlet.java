@@ -34,12 +34,15 @@ import javax.servlet.http.HttpServletResponse;
 import org.liquidsite.app.install.InstallRequestProcessor;
 import org.liquidsite.app.plugin.PluginException;
 import org.liquidsite.app.plugin.PluginLoader;
+import org.liquidsite.app.template.GroupMailMessage;
 import org.liquidsite.app.template.TemplateException;
 import org.liquidsite.app.template.TemplateManager;
 import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.ContentSite;
 import org.liquidsite.core.data.DataObjectException;
 import org.liquidsite.core.data.DataSource;
 import org.liquidsite.core.data.LockPeer;
+import org.liquidsite.core.web.FileCache;
 import org.liquidsite.core.web.MultiPartRequest;
 import org.liquidsite.core.web.Request;
 import org.liquidsite.util.db.DatabaseConnectionException;
@@ -48,6 +51,8 @@ import org.liquidsite.util.db.MySQLDatabaseConnector;
 import org.liquidsite.util.log.Log;
 import org.liquidsite.util.mail.MailTransportException;
 import org.liquidsite.util.mail.MailQueue;
+import org.liquidsite.util.stats.RequestStatistics;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A front controller servlet. This class handles all incoming HTTP
@@ -151,6 +156,7 @@ public class LiquidSiteServlet extends HttpServlet
         String  password;
         String  str;
         int     size;
+        int     rate;
 
         // Initialize configuration
         dir = new File(getBaseDir(), "WEB-INF");
@@ -219,6 +225,16 @@ public class LiquidSiteServlet extends HttpServlet
         str = config.get(Configuration.FILE_DIRECTORY, null);
         dir = (str == null) ? null : new File(str);
         contentManager = new ContentManager(database, dir, false);
+        initializeFileOffload(dir);
+        initializeFileCache();
+        GroupMailMessage.setContentManager(contentManager);
+        try {
+            dir = new File(getBaseDir(), "WEB-INF");
+            MailQueue.getInstance().setSpoolDirectory(new File(dir, "mail"));
+        } catch (MailTransportException e) {
+            errors++;
+            LOG.error(e.getMessage());
+        }
         try {
             TemplateManager.initialize(getBaseDir(),
                                        getBuildVersion(),
@@ -227,6 +243,14 @@ public class LiquidSiteServlet extends HttpServlet
             errors++;
             LOG.error(e.getMessage());
         }
+        size = config.getInt(Configuration.TEMPLATE_CACHE_SIZE, 4000000);
+        TemplateManager.setCacheSize(size);
+        size = config.getInt(Configuration.TEMPLATE_FRAGMENT_CACHE_SIZE,
+                             2000000);
+        TemplateManager.setFragmentCacheSize(size);
+        size = config.getInt(Configuration.TEMPLATE_FORMAT_CACHE_SIZE,
+                             2000000);
+        TemplateManager.setFormatCacheSize(size);
 
         // Initialize plugin loader
         pluginLoader = new PluginLoader();
@@ -246,13 +270,83 @@ public class LiquidSiteServlet extends HttpServlet
 
         // Set the online status
         online = (errors == 0);
+
+        // Start background template compilation
+        size = config.getInt(Configuration.TEMPLATE_COMPILE_THREADS, 2);
+        if (online && config.isInitialized() && size > 0) {
+            TemplateManager.compileAll(contentManager, size);
+        }
+
+        // Start background mail sending
+        size = config.getInt(Configuration.MAIL_SEND_THREADS, 2);
+        rate = config.getInt(Configuration.MAIL_SEND_RATE, 10);
+        if (online && config.isInitialized() && size > 0) {
+            MailQueue.getInstance().start(size, rate);
+        }
+    }
+
+    /**
+     * Initializes the file response offloading. The offload mode is
+     * read from the configuration, and unknown modes will be logged
+     * and ignored.
+     *
+     * @param dir            the file data directory, or null
+     */
+    private void initializeFileOffload(File dir) {
+        String  mode;
+        String  prefix;
+
+        mode = config.get(Configuration.FILE_OFFLOAD_MODE, "none");
+        prefix = config.get(Configuration.FILE_OFFLOAD_PREFIX,
+                            "/liquidsite-files");
+        if (mode.equalsIgnoreCase("x-sendfile")) {
+            Request.setFileOffload(Request.OFFLOAD_SENDFILE, dir, prefix);
+        } else if (mode.equalsIgnoreCase("x-accel-redirect")) {
+            Request.setFileOffload(Request.OFFLOAD_ACCEL_REDIRECT,
+                                   dir,
+                                   prefix);
+        } else {
+            if (!mode.equalsIgnoreCase("none")) {
+                LOG.warning("unknown file offload mode: " + mode);
+            }
+            Request.setFileOffload(Request.OFFLOAD_NONE, null, null);
+        }
+    }
+
+    /**
+     * Initializes the file response cache. The cache limits are read
+     * from the configuration, and the cache is disabled if the
+     * maximum size is zero (0).
+     */
+    private void initializeFileCache() {
+        FileCache  cache = null;
+        int        size;
+        int        fileSize;
+        int        interval;
+        String     str;
+
+        size = config.getInt(Configuration.FILE_CACHE_SIZE, 4000000);
+        fileSize = config.getInt(Configuration.FILE_CACHE_MAX_FILE_SIZE,
+                                 100000);
+        interval = config.getInt(Configuration.FILE_CACHE_INTERVAL, 5000);
+        str = config.get(Configuration.FILE_CACHE_DIRECT, "false");
+        if (size > 0) {
+            cache = new FileCache(size,
+                                  fileSize,
+                                  interval,
+                                  str.equalsIgnoreCase("true"));
+        }
+        Request.setFileCache(cache);
     }
 
     /**
-     * Shuts down the application. This will deinitialize the request
+     * Shuts down the application. This will stop the mail sender
+     * and template compiler threads, and deinitialize the request
      * processor and the database connector.
      */
     public void shutdown() {
+        MailQueue.getInstance().stop();
+        TemplateManager.stopCompiler();
         processor.destroy();
         pluginLoader.shutdown();
         contentManager.reset();
@@ -331,7 +425,9 @@ public class LiquidSiteServlet extends HttpServlet
 
     /**
      * Handles an incoming HTTP request. The response can be sent
-     * either completely or solely with the response headers.
+     * either completely or solely with the response headers. The
+     * time spent in the various request processing phases will be
+     * recorded in the request statistics.
      *
      * @param request        the HTTP request object
      * @param response       the HTTP response object
@@ -347,9 +443,12 @@ public class LiquidSiteServlet extends HttpServlet
                          boolean content)
         throws ServletException, IOException {
 
-        Request  r;
-        int      size;
-        String   str;
+        RequestTimer  timer = RequestTimer.start();
+        Request       r;
+        int           size;
+        String        str;
+        ContentSite   site;
+        long          start;
 
         // Create request object
         str = request.getContentType();
@@ -384,6 +483,7 @@ public class LiquidSiteServlet extends HttpServlet
                      e.getMessage());
             processError(r, e);
         }
+        start = RequestTimer.begin(RequestTimer.COMMIT);
         try {
             if (r.hasResponse()) {
                 r.commit(getServletContext(), content);
@@ -394,8 +494,14 @@ public class LiquidSiteServlet extends HttpServlet
         } catch (IOException e) {
             LOG.info("IO error when processing request: " + r +
                      ", Message: " + e.getMessage());
+        } finally {
+            RequestTimer.end(RequestTimer.COMMIT, start);
         }
+        site = r.getEnvironment().getSite();
         r.dispose();
+        timer.stop();
+        str = (site == null) ? null : site.toString();
+        RequestStatistics.getInstance().record(str, timer);
     }
 
     /**
@@ -0,0 +1,312 @@
+/*
+ * LoginThrottle.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.servlet;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A failed login throttle. This class keeps track of failed login
+ * attempts per remote address and per user account, and computes
+ * an exponentially increasing delay during which further attempts
+ * should be rejected. No threads are blocked by the throttle, the
+ * caller is expected to reject the login attempt immediately. The
+ * number of tracked addresses and accounts is limited, so that the
+ * least recently used entries will be forgotten first. If the login
+ * requests pass through a reverse proxy, the proxy address must be
+ * registered as trusted, as it would otherwise be shared by all
+ * clients.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class LoginThrottle {
+
+    /**
+     * The number of failed login attempts allowed without delay.
+     */
+    private static final int FREE_ATTEMPTS = 3;
+
+    /**
+     * The delay in milliseconds after the first throttled failed
+     * login attempt. The delay is doubled for each subsequent failed
+     * attempt.
+     */
+    private static final long BASE_DELAY = 5000L;
+
+    /**
+     * The maximum delay in milliseconds after a failed login
+     * attempt.
+     */
+    private static final long MAX_DELAY = 300000L;
+
+    /**
+     * The time in milliseconds after which previous failed login
+     * attempts are forgotten.
+     */
+    private static final long EXPIRE_TIME = 900000L;
+
+    /**
+     * The maximum number of tracked addresses and accounts.
+     */
+    private int maxEntries;
+
+    /**
+     * The map with throttle entries. The entries are indexed by the
+     * address or account key, and ordered by their last access.
+     */
+    private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The set of trusted reverse proxy addresses.
+     */
+    private HashSet proxies = new HashSet();
+
+    /**
+     * The number of failed login attempts.
+     */
+    private long failedCount = 0;
+
+    /**
+     * The number of blocked login attempts.
+     */
+    private long blockedCount = 0;
+
+    /**
+     * Creates a new login throttle.
+     *
+     * @param maxEntries     the maximum number of tracked entries
+     */
+    public LoginThrottle(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the number of failed login attempts.
+     *
+     * @return the number of failed login attempts
+     */
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Returns the number of blocked login attempts.
+     *
+     * @return the number of blocked login attempts
+     */
+    public synchronized long getBlockedCount() {
+        return blockedCount;
+    }
+
+    /**
+     * Returns the number of tracked addresses and accounts.
+     *
+     * @return the number of tracked addresses and accounts
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Sets the trusted reverse proxy addresses. Any previously
+     * trusted addresses will be removed.
+     *
+     * @param list           the comma separated list of addresses
+     */
+    public synchronized void setProxies(String list) {
+        String[]  addresses = list.split(",");
+
+        proxies.clear();
+        for (int i = 0; i < addresses.length; i++) {
+            if (addresses[i].trim().length() > 0) {
+                proxies.add(addresses[i].trim());
+            }
+        }
+    }
+
+    /**
+     * Returns the client address for a login request. If the remote
+     * address is a trusted reverse proxy, the last address in the
+     * forwarded header will be used instead. That address was added
+     * by the proxy itself, and cannot be spoofed by the client.
+     *
+     * @param remote         the remote address
+     * @param forwarded      the X-Forwarded-For header, or null
+     *
+     * @return the client address, or
+     *         null if the client address is unknown
+     */
+    public synchronized String getClientAddress(String remote,
+                                                String forwarded) {
+
+        String  address;
+        int     pos;
+
+        if (!proxies.contains(remote)) {
+            return remote;
+        } else if (forwarded == null) {
+            return null;
+        }
+        pos = forwarded.lastIndexOf(',');
+        address = forwarded.substring(pos + 1).trim();
+        return (address.length() > 0) ? address : null;
+    }
+
+    /**
+     * Checks if a login attempt should be allowed. If either the
+     * remote address or the user account is currently throttled,
+     * the remaining delay will be returned and the attempt counted
+     * as blocked.
+     *
+     * @param address        the client address, or null if unknown
+     * @param account        the unique user account name
+     *
+     * @return the remaining delay in milliseconds, or
+     *         zero (0) if the login attempt is allowed
+     */
+    public synchronized long check(String address, String account) {
+        long  now = System.currentTimeMillis();
+        long  delay;
+
+        delay = getDelay("user:" + account, now);
+        if (address != null) {
+            delay = Math.max(delay, getDelay("ip:" + address, now));
+        }
+        if (delay > 0) {
+            blockedCount++;
+        }
+        return delay;
+    }
+
+    /**
+     * Registers a failed login attempt. This will increase the delay
+     * for both the remote address and the user account.
+     *
+     * @param address        the client address, or null if unknown
+     * @param account        the unique user account name
+     */
+    public synchronized void failure(String address, String account) {
+        long  now = System.currentTimeMillis();
+
+        failedCount++;
+        if (address != null) {
+            addFailure("ip:" + address, now);
+        }
+        addFailure("user:" + account, now);
+    }
+
+    /**
+     * Registers a successful login attempt. This will remove any
+     * delay for the user account, but not for the remote address.
+     *
+     * @param account        the unique user account name
+     */
+    public synchronized void success(String account) {
+        entries.remove("user:" + account);
+    }
+
+    /**
+     * Returns the remaining delay for an address or account key.
+     * Expired entries will be removed by this method.
+     *
+     * @param key            the address or account key
+     * @param now            the current system time
+     *
+     * @return the remaining delay in milliseconds, or
+     *         zero (0) if not delayed
+     */
+    private long getDelay(String key, long now) {
+        Entry  entry = (Entry) entries.get(key);
+
+        if (entry == null) {
+            return 0;
+        } else if (now > entry.lastFailure + EXPIRE_TIME) {
+            entries.remove(key);
+            return 0;
+        } else {
+            return Math.max(0, entry.blockedUntil - now);
+        }
+    }
+
+    /**
+     * Adds a failed login attempt for an address or account key. The
+     * least recently used entries will be removed if the maximum
+     * number of entries is exceeded.
+     *
+     * @param key            the address or account key
+     * @param now            the current system time
+     */
+    private void addFailure(String key, long now) {
+        Entry     entry = (Entry) entries.get(key);
+        Iterator  iter;
+        long      delay;
+
+        if (entry == null || now > entry.lastFailure + EXPIRE_TIME) {
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        entry.failures++;
+        entry.lastFailure = now;
+        if (entry.failures > FREE_ATTEMPTS) {
+            delay = BASE_DELAY;
+            for (int i = FREE_ATTEMPTS + 1; i < entry.failures; i++) {
+                delay *= 2;
+                if (delay >= MAX_DELAY) {
+                    break;
+                }
+            }
+            entry.blockedUntil = now + Math.min(delay, MAX_DELAY);
+        }
+        iter = entries.keySet().iterator();
+        while (entries.size() > maxEntries && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+
+    /**
+     * A throttle entry for a remote address or user account.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Entry {
+
+        /**
+         * The number of failed login attempts.
+         */
+        private int failures = 0;
+
+        /**
+         * The time of the last failed login attempt.
+         */
+        private long lastFailure = 0;
+
+        /**
+         * The time until which login attempts are blocked.
+         */
+        private long blockedUntil = 0;
+    }
+}
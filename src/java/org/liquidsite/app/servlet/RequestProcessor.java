@@ -43,6 +43,8 @@ import org.liquidsite.core.content.Domain;
 import org.liquidsite.core.content.User;
 import org.liquidsite.core.web.Request;
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestProfiler;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A request processor.
@@ -118,6 +120,8 @@ public abstract class RequestProcessor {
      * Processes a request for a normal resource in a content site.
      * If the preview flag is set a special "revision" request
      * parameter may be used to modify the content object to display.
+     * In preview mode, a "profile" request parameter may also be
+     * used to add a template profile report to the page.
      *
      * @param request        the request object
      * @param site           the content site object
@@ -132,11 +136,21 @@ public abstract class RequestProcessor {
                                  boolean preview)
         throws RequestException {
 
-        Content  content;
-        String   str;
+        RequestProfiler  profiler = null;
+        Content          content;
+        String           str;
+        long             start;
 
+        if (preview && request.getParameter("profile") != null) {
+            profiler = RequestProfiler.start();
+        }
         try {
-            content = locateContent(request, site, path);
+            start = RequestTimer.begin(RequestTimer.PATH);
+            try {
+                content = locateContent(request, site, path);
+            } finally {
+                RequestTimer.end(RequestTimer.PATH, start);
+            }
             if (preview) {
                 str = request.getParameter("revision");
                 if (content != null && str != null) {
@@ -168,6 +182,10 @@ public abstract class RequestProcessor {
                 LOG.error(e.getMessage());
                 throw RequestException.INTERNAL_ERROR;
             }
+        } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
         }
     }
 
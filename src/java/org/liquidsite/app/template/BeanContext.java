@@ -46,6 +46,7 @@ import org.liquidsite.util.mail.MailMessage;
 import org.liquidsite.util.mail.MailMessageException;
 import org.liquidsite.util.mail.MailQueue;
 import org.liquidsite.util.mail.SimpleMailMessage;
+import org.liquidsite.util.stats.RequestProfiler;
 
 /**
  * A template bean context. This class holds contains references to
@@ -87,6 +88,13 @@ public class BeanContext {
      */
     private HashMap usersCache = new HashMap();
 
+    /**
+     * The cache of named content children. Each child is indexed by
+     * the parent identifier (or domain name) and the child name. The
+     * value null is stored for children not found.
+     */
+    private HashMap childCache = new HashMap();
+
     /**
      * The output content MIME type.
      */
@@ -138,6 +146,15 @@ public class BeanContext {
         return request;
     }
 
+    /**
+     * Returns the content manager.
+     *
+     * @return the content manager
+     */
+    public ContentManager getContentManager() {
+        return manager;
+    }
+
     /**
      * Returns the relative path to the site root directory. The path
      * is relative to the request URL and may be empty if the request
@@ -227,7 +244,13 @@ public class BeanContext {
     public int countContent(ContentSelector selector)
         throws ContentException {
 
-        return manager.getContentCount(selector);
+        Object  sample = RequestProfiler.begin("countContent", null);
+
+        try {
+            return manager.getContentCount(selector);
+        } finally {
+            RequestProfiler.end(sample);
+        }
     }
 
     /**
@@ -266,7 +289,9 @@ public class BeanContext {
      */
     public int countDocuments(ContentSection section) {
         ContentSelector   selector;
+        Object            sample;
 
+        sample = RequestProfiler.begin("countDocuments", section.getName());
         try {
             selector = new ContentSelector(section.getDomain());
             selector.requireCategory(Content.DOCUMENT_CATEGORY);
@@ -274,6 +299,8 @@ public class BeanContext {
             return countContent(selector);
         } catch (ContentException e) {
             LOG.error(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return 0;
     }
@@ -352,9 +379,14 @@ public class BeanContext {
         throws ContentException, ContentSecurityException {
 
         Domain   domain;
+        Object   sample = RequestProfiler.begin("findContent", path);
 
-        domain = request.getEnvironment().getDomain();
-        return findContent(domain, path);
+        try {
+            domain = request.getEnvironment().getDomain();
+            return findContent(domain, path);
+        } finally {
+            RequestProfiler.end(sample);
+        }
     }
 
     /**
@@ -409,7 +441,8 @@ public class BeanContext {
      * Finds a named child object. The parent may be either a domain
      * or a content section. The child returned can be either a
      * content section or some content object present directly in the
-     * section.
+     * section. All children found will be added to an internal cache,
+     * making repeated path lookups during a request efficient.
      *
      * @param parent         the parent domain or section
      * @param name           the child name
@@ -425,24 +458,63 @@ public class BeanContext {
     private Content findContentChild(Object parent, String name)
         throws ContentException, ContentSecurityException {
 
-        Content[]  children;
+        Content  content;
+        String   key;
 
         if (manager == null) {
             return null;
         } else if (parent instanceof Domain) {
-            // TODO: implement this more efficiently
-            children = manager.getContentChildren(request.getUser(),
-                                                  (Domain) parent,
-                                                  Content.SECTION_CATEGORY);
-            for (int i = 0; i < children.length; i++) {
-                if (children[i].getName().equals(name)) {
-                    return children[i];
-                }
-            }
+            key = ((Domain) parent).getName() + ":" + name;
+        } else {
+            key = ((Content) parent).getId() + ":" + name;
+        }
+        if (childCache.containsKey(key)) {
+            return (Content) childCache.get(key);
+        }
+        if (parent instanceof Domain) {
+            content = findRootSection((Domain) parent, name);
         } else {
-            return manager.getContentChild(request.getUser(),
-                                           (Content) parent,
-                                           name);
+            content = manager.getContentChild(request.getUser(),
+                                              (Content) parent,
+                                              name);
+        }
+        childCache.put(key, content);
+        return content;
+    }
+
+    /**
+     * Finds a named root section in a domain. The section is looked
+     * up by name, and the root sections are only scanned if the
+     * name matched some other root content object.
+     *
+     * @param domain         the parent domain
+     * @param name           the section name
+     *
+     * @return the content section found, or
+     *         null if not found
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     * @throws ContentSecurityException if the section couldn't be
+     *             read by the current user
+     */
+    private Content findRootSection(Domain domain, String name)
+        throws ContentException, ContentSecurityException {
+
+        Content    content;
+        Content[]  children;
+
+        content = manager.getContentChild(request.getUser(), domain, name);
+        if (content == null || content instanceof ContentSection) {
+            return content;
+        }
+        children = manager.getContentChildren(request.getUser(),
+                                              domain,
+                                              Content.SECTION_CATEGORY);
+        for (int i = 0; i < children.length; i++) {
+            if (children[i].getName().equals(name)) {
+                return children[i];
+            }
         }
         return null;
     }
@@ -460,7 +532,13 @@ public class BeanContext {
     public Content[] findContent(ContentSelector selector)
         throws ContentException {
 
-        return manager.getContentObjects(request.getUser(), selector);
+        Object  sample = RequestProfiler.begin("findContent", null);
+
+        try {
+            return manager.getContentObjects(request.getUser(), selector);
+        } finally {
+            RequestProfiler.end(sample);
+        }
     }
 
     /**
@@ -489,6 +567,7 @@ public class BeanContext {
      */
     public DocumentBean findDocument(Object parent, String path) {
         Content  content;
+        Object   sample = RequestProfiler.begin("findDocument", path);
 
         try {
             content = findContent(parent, path);
@@ -501,6 +580,8 @@ public class BeanContext {
             LOG.error(e.getMessage());
         } catch (ContentSecurityException e) {
             LOG.warning(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return new DocumentBean();
     }
@@ -562,7 +643,9 @@ public class BeanContext {
         ContentSelector  selector;
         Content[]        children;
         DocumentBean     doc;
+        Object           sample;
 
+        sample = RequestProfiler.begin("findDocuments", section.getName());
         try {
             selector = new ContentSelector(section.getDomain());
             selector.requireCategory(Content.DOCUMENT_CATEGORY);
@@ -578,6 +661,8 @@ public class BeanContext {
             }
         } catch (ContentException e) {
             LOG.error(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return results;
     }
@@ -592,20 +677,30 @@ public class BeanContext {
      *         an empty forum if not found
      */
     public ForumBean findForum(ContentSection section, String name) {
-        Content[]  content;
+        Content    content;
+        Content[]  children;
+        Object     sample = RequestProfiler.begin("findForum", name);
 
         try {
-            // TODO: implement this more efficiently
-            content = manager.getContentChildren(request.getUser(),
-                                                 section,
-                                                 Content.FORUM_CATEGORY);
-            for (int i = 0; i < content.length; i++) {
-                if (content[i].getName().equals(name)) {
-                    return (ForumBean) createContentBean(content[i]);
+            content = findContentChild(section, name);
+            if (content instanceof ContentForum) {
+                return (ForumBean) createContentBean(content);
+            } else if (content != null) {
+                children = manager.getContentChildren(request.getUser(),
+                                                      section,
+                                                      Content.FORUM_CATEGORY);
+                for (int i = 0; i < children.length; i++) {
+                    if (children[i].getName().equals(name)) {
+                        return (ForumBean) createContentBean(children[i]);
+                    }
                 }
             }
         } catch (ContentException e) {
             LOG.error(e.getMessage());
+        } catch (ContentSecurityException e) {
+            LOG.warning(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return new ForumBean();
     }
@@ -636,6 +731,7 @@ public class BeanContext {
      */
     public SectionBean findSection(Object parent, String path) {
         Content  content;
+        Object   sample = RequestProfiler.begin("findSection", path);
 
         try {
             content = findContent(parent, path);
@@ -648,6 +744,8 @@ public class BeanContext {
             LOG.error(e.getMessage());
         } catch (ContentSecurityException e) {
             LOG.warning(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return new SectionBean();
     }
@@ -718,12 +816,15 @@ public class BeanContext {
     public Group findGroup(String name) {
         Domain  domain;
         Group   group = null;
+        Object  sample = RequestProfiler.begin("findGroup", name);
 
         try {
             domain = request.getEnvironment().getDomain();
             group = manager.getGroup(domain, name);
         } catch (ContentException e) {
             LOG.error(e.getMessage());
+        } finally {
+            RequestProfiler.end(sample);
         }
         return group;
     }
@@ -794,6 +895,7 @@ public class BeanContext {
             domain = request.getEnvironment().getDomain();
             msg.setFrom(domain.getMailFrom());
             msg.setRecipient(receiver);
+            msg.setBatchSize(domain.getMailBatchSize());
             msg.setSubject(subject);
             msg.setText(text);
             setMailAttributes(msg);
@@ -824,7 +926,9 @@ public class BeanContext {
 
     /**
      * Sets the selector parent requirement from the specified section
-     * and all its subsections.
+     * and all its readable subsections. The section tree is
+     * retrieved from the content manager, which caches it between
+     * requests.
      *
      * @param selector       the content selector
      * @param section        the content section
@@ -836,15 +940,8 @@ public class BeanContext {
                                     ContentSection section)
         throws ContentException {
 
-        Content[]  children;
-
-        selector.requireParent(section);
-        children = manager.getContentChildren(request.getUser(),
-                                              section,
-                                              Content.SECTION_CATEGORY);
-        for (int i = 0; i < children.length; i++) {
-            setSelectorParents(selector, (ContentSection) children[i]);
-        }
+        selector.requireParents(manager.getSectionTree(request.getUser(),
+                                                       section));
     }
 
     /**
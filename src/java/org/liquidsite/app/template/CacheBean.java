@@ -0,0 +1,416 @@
+/*
+ * CacheBean.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.liquidsite.core.content.Content;
+import org.liquidsite.core.content.ContentException;
+import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.ContentSecurityException;
+import org.liquidsite.core.content.ContentSite;
+import org.liquidsite.core.content.User;
+import org.liquidsite.util.log.Log;
+
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.TemplateNumberModel;
+import freemarker.template.TemplateScalarModel;
+import freemarker.template.TemplateTransformModel;
+import freemarker.template.TransformControl;
+
+/**
+ * The fragment cache bean. This class provides a template transform
+ * that caches the rendered output of the nested template block. The
+ * output is cached under a template-supplied key for a limited time,
+ * and optionally varies by user. Cached output will also be
+ * discarded when any content in the listed sections is modified.
+ * Caching is always disabled when previewing pages in the
+ * administration application.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class CacheBean extends TemplateBean
+    implements TemplateTransformModel {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(CacheBean.class);
+
+    /**
+     * The default fragment time-to-live (in seconds).
+     */
+    private static final int DEFAULT_TTL = 300;
+
+    /**
+     * Creates a new fragment cache bean.
+     *
+     * @param context        the bean context
+     */
+    CacheBean(BeanContext context) {
+        super(context);
+    }
+
+    /**
+     * Returns a writer for the nested template block. If the block
+     * output is present in the cache, the cached output will be
+     * written instead and the block skipped.
+     *
+     * @param out            the output writer
+     * @param args           the transform arguments
+     *
+     * @return the writer for the nested template block
+     *
+     * @throws TemplateModelException if the arguments were invalid
+     */
+    public Writer getWriter(Writer out, Map args)
+        throws TemplateModelException {
+
+        ContentManager  manager = getContext().getContentManager();
+        String          key;
+        String          vary;
+        String          sections;
+        int             ttl;
+
+        key = getString(args, "key", null);
+        if (key == null) {
+            throw new TemplateModelException("missing fragment cache key");
+        }
+        vary = getString(args, "vary", "none");
+        sections = getString(args, "sections", "");
+        ttl = getInt(args, "ttl", DEFAULT_TTL);
+        key = createKey(key, vary);
+        if (manager.isAdmin() || ttl <= 0) {
+            key = null;
+        }
+        return new FragmentWriter(getContext(), out, key, ttl, sections);
+    }
+
+    /**
+     * Creates the complete fragment cache key. The key will contain
+     * the site identifier and the user variation in addition to the
+     * template-supplied key.
+     *
+     * @param key            the template-supplied key
+     * @param vary           the user variation, "none", "user" or
+     *                       "anonymous"
+     *
+     * @return the complete fragment cache key
+     *
+     * @throws TemplateModelException if the user variation was
+     *             invalid
+     */
+    private String createKey(String key, String vary)
+        throws TemplateModelException {
+
+        ContentSite   site = getContextRequest().getEnvironment().getSite();
+        User          user = getContextRequest().getUser();
+        StringBuffer  buffer = new StringBuffer();
+
+        buffer.append((site == null) ? 0 : site.getId());
+        buffer.append(":");
+        if (vary.equals("user")) {
+            buffer.append((user == null) ? "" : user.getName());
+        } else if (vary.equals("anonymous")) {
+            buffer.append((user == null) ? "anonymous" : "user");
+        } else if (!vary.equals("none")) {
+            throw new TemplateModelException("invalid fragment cache " +
+                                             "variation: " + vary);
+        }
+        buffer.append(":");
+        buffer.append(key);
+        return buffer.toString();
+    }
+
+    /**
+     * Returns a string argument value.
+     *
+     * @param args           the transform arguments
+     * @param name           the argument name
+     * @param defaultValue   the default value
+     *
+     * @return the argument value, or
+     *         the default value if not set
+     *
+     * @throws TemplateModelException if the argument wasn't a string
+     */
+    private String getString(Map args, String name, String defaultValue)
+        throws TemplateModelException {
+
+        TemplateModel  model = (TemplateModel) args.get(name);
+
+        if (model == null) {
+            return defaultValue;
+        } else if (model instanceof TemplateScalarModel) {
+            return ((TemplateScalarModel) model).getAsString();
+        } else if (model instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) model).getAsNumber().toString();
+        } else {
+            throw new TemplateModelException("fragment cache argument " +
+                                             name + " must be a string");
+        }
+    }
+
+    /**
+     * Returns a number argument value.
+     *
+     * @param args           the transform arguments
+     * @param name           the argument name
+     * @param defaultValue   the default value
+     *
+     * @return the argument value, or
+     *         the default value if not set
+     *
+     * @throws TemplateModelException if the argument wasn't a number
+     */
+    private int getInt(Map args, String name, int defaultValue)
+        throws TemplateModelException {
+
+        TemplateModel  model = (TemplateModel) args.get(name);
+
+        if (model == null) {
+            return defaultValue;
+        } else if (model instanceof TemplateNumberModel) {
+            return ((TemplateNumberModel) model).getAsNumber().intValue();
+        }
+        try {
+            return Integer.parseInt(getString(args, name, null));
+        } catch (NumberFormatException e) {
+            throw new TemplateModelException("fragment cache argument " +
+                                             name + " must be a number");
+        }
+    }
+
+
+    /**
+     * A fragment writer. This class writes the nested template block
+     * output and also collects it for the fragment cache.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class FragmentWriter extends Writer
+        implements TransformControl {
+
+        /**
+         * The bean context.
+         */
+        private BeanContext context;
+
+        /**
+         * The output writer.
+         */
+        private Writer out;
+
+        /**
+         * The fragment cache key, or null for no caching.
+         */
+        private String key;
+
+        /**
+         * The fragment time-to-live (in seconds).
+         */
+        private int ttl;
+
+        /**
+         * The section paths, separated by commas.
+         */
+        private String sections;
+
+        /**
+         * The rendering start time (in milliseconds).
+         */
+        private long created = 0;
+
+        /**
+         * The collected fragment output, or null if not collecting.
+         */
+        private StringBuffer buffer = null;
+
+        /**
+         * Creates a new fragment writer.
+         *
+         * @param context        the bean context
+         * @param out            the output writer
+         * @param key            the fragment cache key, or null
+         * @param ttl            the fragment time-to-live (in seconds)
+         * @param sections       the section paths, separated by commas
+         */
+        public FragmentWriter(BeanContext context,
+                              Writer out,
+                              String key,
+                              int ttl,
+                              String sections) {
+
+            this.context = context;
+            this.out = out;
+            this.key = key;
+            this.ttl = ttl;
+            this.sections = sections;
+        }
+
+        /**
+         * Called before the nested block is processed. If a cached
+         * fragment is found, it will be written and the nested block
+         * skipped.
+         *
+         * @return the transform control flag
+         *
+         * @throws IOException if the output couldn't be written
+         */
+        public int onStart() throws IOException {
+            FragmentCache  cache = FragmentCache.getInstance();
+            String         data;
+
+            if (key == null) {
+                return EVALUATE_BODY;
+            }
+            data = cache.get(context.getContentManager(), key);
+            if (data != null) {
+                LOG.trace("fragment cache hit on " + key);
+                out.write(data);
+                return SKIP_BODY;
+            }
+            LOG.trace("fragment cache miss on " + key);
+            created = System.currentTimeMillis();
+            buffer = new StringBuffer();
+            return EVALUATE_BODY;
+        }
+
+        /**
+         * Called after the nested block has been processed. The
+         * collected output will be added to the fragment cache.
+         *
+         * @return the transform control flag
+         */
+        public int afterBody() {
+            ContentSite  site;
+            int[]        ids;
+
+            if (buffer != null) {
+                ids = findSections();
+                if (ids != null) {
+                    site = context.getRequest().getEnvironment().getSite();
+                    FragmentCache.getInstance().put(key,
+                                                    buffer.toString(),
+                                                    created,
+                                                    created + ttl * 1000L,
+                                                    site.getDomainName(),
+                                                    ids);
+                }
+                buffer = null;
+            }
+            return END_EVALUATION;
+        }
+
+        /**
+         * Called if an error occurred in the nested block. The
+         * collected output will be discarded.
+         *
+         * @param t              the error that occurred
+         *
+         * @throws Throwable the same error
+         */
+        public void onError(Throwable t) throws Throwable {
+            buffer = null;
+            throw t;
+        }
+
+        /**
+         * Finds the content identifiers of the listed sections.
+         *
+         * @return the section content identifiers, or
+         *         null if some section couldn't be found
+         */
+        private int[] findSections() {
+            StringTokenizer  tokens = new StringTokenizer(sections, ",");
+            ArrayList        list = new ArrayList();
+            Content          content;
+            String           path;
+            int[]            res;
+
+            try {
+                while (tokens.hasMoreTokens()) {
+                    path = tokens.nextToken().trim();
+                    content = context.findContent(path);
+                    if (content == null) {
+                        LOG.warning("fragment cache section not found: " +
+                                    path);
+                        return null;
+                    }
+                    list.add(content);
+                }
+            } catch (ContentException e) {
+                LOG.error(e.getMessage());
+                return null;
+            } catch (ContentSecurityException e) {
+                LOG.error(e.getMessage());
+                return null;
+            }
+            res = new int[list.size()];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = ((Content) list.get(i)).getId();
+            }
+            return res;
+        }
+
+        /**
+         * Writes a number of characters.
+         *
+         * @param cbuf           the character buffer
+         * @param off            the buffer offset
+         * @param len            the number of characters to write
+         *
+         * @throws IOException if the output couldn't be written
+         */
+        public void write(char[] cbuf, int off, int len)
+            throws IOException {
+
+            out.write(cbuf, off, len);
+            if (buffer != null) {
+                buffer.append(cbuf, off, len);
+            }
+        }
+
+        /**
+         * Flushes the output writer.
+         *
+         * @throws IOException if the output couldn't be flushed
+         */
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Closes this writer. The output writer is not closed.
+         */
+        public void close() {
+            // Nothing to do here
+        }
+    }
+}
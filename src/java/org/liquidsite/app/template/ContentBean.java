@@ -27,6 +27,7 @@ import java.util.Date;
 import org.liquidsite.core.content.Content;
 import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.User;
+import org.liquidsite.core.text.PlainFormatter;
 import org.liquidsite.util.log.Log;
 
 /**
@@ -102,6 +103,34 @@ public abstract class ContentBean extends TemplateBean {
         return content;
     }
 
+    /**
+     * Formats a plain text content property to HTML. The formatted
+     * text is cached, so that the same content revision needn't be
+     * formatted again on each request.
+     *
+     * @param name           the content property name
+     * @param text           the plain text to format
+     *
+     * @return the HTML formatted text
+     */
+    protected String formatPlain(String name, String text) {
+        FormatCache  cache = FormatCache.getInstance();
+        String       key;
+        String       str;
+
+        if (content == null) {
+            return PlainFormatter.formatHtml(text);
+        }
+        key = content.getId() + "." + content.getRevisionNumber() +
+              "/" + name + "/plain";
+        str = cache.get(key, text);
+        if (str == null) {
+            str = PlainFormatter.formatHtml(text);
+            cache.put(key, text, str);
+        }
+        return str;
+    }
+
     /**
      * Returns the content identifier.
      *
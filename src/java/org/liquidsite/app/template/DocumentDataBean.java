@@ -86,21 +86,33 @@ public class DocumentDataBean extends TemplateBean
      *         an empty scalar if the document property wasn't found
      */
     public TemplateModel get(String id) {
-        String  str;
-        int     type;
+        FormatCache  cache = FormatCache.getInstance();
+        String       source;
+        String       str;
+        String       key;
+        int          type;
 
         if (document == null) {
             return new SimpleScalar("");
         } else {
-            str = document.getProperty(id);
+            source = document.getProperty(id);
             type = document.getPropertyType(id);
             try {
-                if (type == DocumentProperty.TAGGED_TYPE) {
-                    str = TaggedFormatter.formatHtml(str, getDocContext());
-                } else if (type == DocumentProperty.HTML_TYPE) {
-                    str = HtmlFormatter.formatHtml(str, getDocContext());
+                if (type == DocumentProperty.TAGGED_TYPE
+                 || type == DocumentProperty.HTML_TYPE) {
+
+                    key = document.getId() + "." +
+                          document.getRevisionNumber() + "/" + id + "/" +
+                          type + "/" + getDocContext().getCacheKey();
                 } else {
-                    str = PlainFormatter.formatHtml(str);
+                    key = document.getId() + "." +
+                          document.getRevisionNumber() + "/" + id + "/" +
+                          type;
+                }
+                str = cache.get(key, source);
+                if (str == null) {
+                    str = format(source, type);
+                    cache.put(key, source, str);
                 }
                 return new SimpleScalar(str);
             } catch (Exception e) {
@@ -113,6 +125,24 @@ public class DocumentDataBean extends TemplateBean
         }
     }
 
+    /**
+     * Formats a document property text to HTML.
+     *
+     * @param str            the document property text
+     * @param type           the document property type
+     *
+     * @return the HTML formatted text
+     */
+    private String format(String str, int type) {
+        if (type == DocumentProperty.TAGGED_TYPE) {
+            return TaggedFormatter.formatHtml(str, getDocContext());
+        } else if (type == DocumentProperty.HTML_TYPE) {
+            return HtmlFormatter.formatHtml(str, getDocContext());
+        } else {
+            return PlainFormatter.formatHtml(str);
+        }
+    }
+
     /**
      * Returns the document formatting context. If no document
      * formatting context exists, a new one will be created.
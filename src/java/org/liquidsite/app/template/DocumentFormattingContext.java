@@ -133,6 +133,17 @@ class DocumentFormattingContext implements FormattingContext {
         return null;
     }
 
+    /**
+     * Returns the formatting cache key for this context. Text
+     * formatted in contexts with the same cache key will contain
+     * the same resolved links.
+     *
+     * @return the formatting cache key
+     */
+    public String getCacheKey() {
+        return context.getSitePath() + "|" + docPath;
+    }
+
     /**
      * Returns a relative link to an object. If the specified path
      * starts with '/' it is assumed to be relative to the site root
@@ -0,0 +1,201 @@
+/*
+ * FormatCache.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache for formatted content text. Each formatted text is stored
+ * together with the source text it was created from, and is only
+ * returned if the source text is unchanged. The cache keys should
+ * identify the content revision and property, the formatter and
+ * any link context used. The least recently used entries are
+ * removed when the total cache size limit is exceeded.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class FormatCache {
+
+    /**
+     * The one and only instance of this class.
+     */
+    private static final FormatCache INSTANCE = new FormatCache();
+
+    /**
+     * Returns the format cache instance.
+     *
+     * @return the format cache instance
+     */
+    public static FormatCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The maximum total size of the cached entries (in bytes).
+     */
+    private long maxSize = 2000000;
+
+    /**
+     * The map with cached entries. The entries are indexed by their
+     * cache key, and ordered by their last access.
+     */
+    private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The total size of the cached entries (in bytes).
+     */
+    private long size = 0;
+
+    /**
+     * Creates a new format cache.
+     */
+    private FormatCache() {
+        // No further initialization needed
+    }
+
+    /**
+     * Sets the maximum total size of the cached entries. Any entries
+     * exceeding the new limit will be removed.
+     *
+     * @param maxSize        the maximum total cache size (in bytes)
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        prune();
+    }
+
+    /**
+     * Returns a cached formatted text.
+     *
+     * @param key            the cache key
+     * @param source         the source text
+     *
+     * @return the cached formatted text, or
+     *         null if not found or created from another source text
+     */
+    public synchronized String get(String key, String source) {
+        Entry  entry = (Entry) entries.get(key);
+
+        if (entry != null && entry.source.equals(source)) {
+            return entry.data;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Adds a formatted text to the cache. Any previous entry with
+     * the same key will be replaced, and the least recently used
+     * entries will be removed until the cache size limit is
+     * satisfied.
+     *
+     * @param key            the cache key
+     * @param source         the source text
+     * @param data           the formatted text
+     */
+    public synchronized void put(String key, String source, String data) {
+        Entry  entry = new Entry(source, data);
+
+        if (entry.getSize() <= maxSize) {
+            remove(key);
+            entries.put(key, entry);
+            size += entry.getSize();
+            prune();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Removes an entry from the cache.
+     *
+     * @param key            the cache key
+     */
+    private void remove(String key) {
+        Entry  entry = (Entry) entries.remove(key);
+
+        if (entry != null) {
+            size -= entry.getSize();
+        }
+    }
+
+    /**
+     * Removes the least recently used entries until the cache size
+     * limit is satisfied.
+     */
+    private void prune() {
+        Iterator  iter = entries.values().iterator();
+
+        while (size > maxSize && iter.hasNext()) {
+            size -= ((Entry) iter.next()).getSize();
+            iter.remove();
+        }
+    }
+
+
+    /**
+     * A cached formatted text entry.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Entry {
+
+        /**
+         * The source text.
+         */
+        public String source;
+
+        /**
+         * The formatted text.
+         */
+        public String data;
+
+        /**
+         * Creates a new formatted text entry.
+         *
+         * @param source         the source text
+         * @param data           the formatted text
+         */
+        public Entry(String source, String data) {
+            this.source = source;
+            this.data = data;
+        }
+
+        /**
+         * Returns the estimated memory size of this entry.
+         *
+         * @return the estimated entry size (in bytes)
+         */
+        public int getSize() {
+            return (source.length() + data.length()) * 2 + 64;
+        }
+    }
+}
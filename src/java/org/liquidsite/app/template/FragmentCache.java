@@ -0,0 +1,274 @@
+/*
+ * FragmentCache.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.liquidsite.core.content.ContentManager;
+
+/**
+ * A cache for rendered template fragments. Each fragment is stored
+ * with an expiry time and the list of content objects it depends
+ * on. A cached fragment is only returned if it hasn't expired and
+ * none of the content objects (or their children) have been
+ * modified since the fragment was rendered. The least recently used
+ * fragments are removed when the total cache size limit is
+ * exceeded.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class FragmentCache {
+
+    /**
+     * The one and only instance of this class.
+     */
+    private static final FragmentCache INSTANCE = new FragmentCache();
+
+    /**
+     * Returns the fragment cache instance.
+     *
+     * @return the fragment cache instance
+     */
+    public static FragmentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The maximum total size of the cached fragments (in bytes).
+     */
+    private long maxSize = 2000000;
+
+    /**
+     * The map with cached fragments. The fragments are indexed by
+     * their cache key, and ordered by their last access.
+     */
+    private LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The total size of the cached fragments (in bytes).
+     */
+    private long size = 0;
+
+    /**
+     * Creates a new fragment cache.
+     */
+    private FragmentCache() {
+        // No further initialization needed
+    }
+
+    /**
+     * Sets the maximum total size of the cached fragments. Any
+     * fragments exceeding the new limit will be removed.
+     *
+     * @param maxSize        the maximum total cache size (in bytes)
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        prune();
+    }
+
+    /**
+     * Returns a cached fragment. If the fragment has expired or any
+     * of its content objects has been modified, it will be removed
+     * from the cache.
+     *
+     * @param manager        the content manager to use
+     * @param key            the fragment cache key
+     *
+     * @return the cached fragment text, or
+     *         null if not found or outdated
+     */
+    public String get(ContentManager manager, String key) {
+        Entry  entry;
+
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        } else if (entry.isValid(manager)) {
+            return entry.data;
+        } else {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    remove(key);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds a rendered fragment to the cache. Any previous fragment
+     * with the same key will be replaced, and the least recently
+     * used fragments will be removed until the cache size limit is
+     * satisfied.
+     *
+     * @param key            the fragment cache key
+     * @param data           the rendered fragment text
+     * @param created        the rendering start time
+     * @param expires        the fragment expiry time
+     * @param domain         the domain name of the content
+     * @param ids            the content identifiers depended upon
+     */
+    public synchronized void put(String key,
+                                 String data,
+                                 long created,
+                                 long expires,
+                                 String domain,
+                                 int[] ids) {
+
+        Entry  entry = new Entry(data, created, expires, domain, ids);
+
+        if (entry.getSize() <= maxSize) {
+            remove(key);
+            entries.put(key, entry);
+            size += entry.getSize();
+            prune();
+        }
+    }
+
+    /**
+     * Removes all fragments from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Removes a fragment from the cache.
+     *
+     * @param key            the fragment cache key
+     */
+    private void remove(String key) {
+        Entry  entry = (Entry) entries.remove(key);
+
+        if (entry != null) {
+            size -= entry.getSize();
+        }
+    }
+
+    /**
+     * Removes the least recently used fragments until the cache
+     * size limit is satisfied.
+     */
+    private void prune() {
+        Iterator  iter = entries.values().iterator();
+
+        while (size > maxSize && iter.hasNext()) {
+            size -= ((Entry) iter.next()).getSize();
+            iter.remove();
+        }
+    }
+
+
+    /**
+     * A cached fragment entry.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Entry {
+
+        /**
+         * The rendered fragment text.
+         */
+        public String data;
+
+        /**
+         * The rendering start time (in milliseconds).
+         */
+        public long created;
+
+        /**
+         * The fragment expiry time (in milliseconds).
+         */
+        public long expires;
+
+        /**
+         * The domain name of the content depended upon.
+         */
+        public String domain;
+
+        /**
+         * The content identifiers depended upon.
+         */
+        public int[] ids;
+
+        /**
+         * Creates a new cached fragment entry.
+         *
+         * @param data           the rendered fragment text
+         * @param created        the rendering start time
+         * @param expires        the fragment expiry time
+         * @param domain         the domain name of the content
+         * @param ids            the content identifiers depended upon
+         */
+        public Entry(String data,
+                     long created,
+                     long expires,
+                     String domain,
+                     int[] ids) {
+
+            this.data = data;
+            this.created = created;
+            this.expires = expires;
+            this.domain = domain;
+            this.ids = ids;
+        }
+
+        /**
+         * Returns the estimated memory size of this entry.
+         *
+         * @return the estimated entry size (in bytes)
+         */
+        public int getSize() {
+            return data.length() * 2 + ids.length * 4 + 64;
+        }
+
+        /**
+         * Checks if this entry is still valid. An entry is invalid
+         * if it has expired or if any of the content objects or
+         * their descendants has been modified after the rendering
+         * started.
+         *
+         * @param manager        the content manager to use
+         *
+         * @return true if the entry is still valid, or
+         *         false otherwise
+         */
+        public boolean isValid(ContentManager manager) {
+            if (System.currentTimeMillis() >= expires) {
+                return false;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                if (manager.getLastModified(domain, ids[i]) >= created) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
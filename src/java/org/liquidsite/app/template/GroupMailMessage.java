@@ -21,20 +21,29 @@
 
 package org.liquidsite.app.template;
 
+import java.util.ArrayList;
+import java.util.Properties;
+
 import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 
 import org.liquidsite.core.content.ContentException;
+import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.Domain;
 import org.liquidsite.core.content.Group;
+import org.liquidsite.core.content.GroupMemberIterator;
 import org.liquidsite.core.content.User;
+import org.liquidsite.util.log.Log;
 import org.liquidsite.util.mail.MailMessage;
 import org.liquidsite.util.mail.MailMessageException;
 
 /**
  * A group email message. This class is used for creating email
- * messages to all users in a group.
+ * messages to all users in a group. The group members are read in
+ * blocks, and the messages are either sent individually to each
+ * member or in batches of hidden (BCC) recipients.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
@@ -42,35 +51,65 @@ import org.liquidsite.util.mail.MailMessageException;
 public class GroupMailMessage extends MailMessage {
 
     /**
-     * The maximum number of users to retrieve at once.
+     * The class logger.
      */
-    private static final int MAX_USERS = 60;
+    private static final Log LOG = new Log(GroupMailMessage.class);
 
     /**
-     * The mail recipient group.
+     * The content manager used for restoring spooled messages.
      */
-    private Group recipient = null;
+    private static ContentManager manager = null;
 
     /**
-     * The current user offset in the group.
+     * The mail recipient group.
      */
-    private int offset = 0;
+    private Group recipient = null;
 
     /**
-     * The array of users read from the group.
+     * The maximum number of recipients in each message. If set to
+     * zero (0) or one (1), an individual message is sent to each
+     * group member.
      */
-    private User[] users = null;
+    private int batchSize = 0;
 
     /**
-     * The current position in the user array.
+     * The iterator over the users in the group.
      */
-    private int position = 0;
+    private GroupMemberIterator users = null;
 
     /**
      * The next recipient address.
      */
     private InternetAddress nextRecipient = null;
 
+    /**
+     * The user name of the next recipient.
+     */
+    private String nextUser = "";
+
+    /**
+     * The user name of the last recipient a message was created
+     * for. Only group members following this name will receive a
+     * message.
+     */
+    private String lastUser = "";
+
+    /**
+     * The user name of the last recipient before the last message
+     * created. Used for resending the last message.
+     */
+    private String resetUser = "";
+
+    /**
+     * Sets the content manager used for restoring spooled messages.
+     * This method must be called before the mail spool is read.
+     *
+     * @param manager        the content manager to use
+     */
+    public static void setContentManager(ContentManager manager) {
+        GroupMailMessage.manager = manager;
+    }
+
     /**
      * Creates a new empty group mail message.
      */
@@ -103,6 +142,74 @@ public class GroupMailMessage extends MailMessage {
         this.recipient = recipient;
     }
 
+    /**
+     * Sets the maximum number of recipients in each message. If set
+     * to zero (0) or one (1), an individual message is sent to each
+     * group member. Otherwise the group members will be sent shared
+     * messages with hidden (BCC) recipients.
+     *
+     * @param size           the maximum number of recipients
+     */
+    public void setBatchSize(int size) {
+        this.batchSize = size;
+    }
+
+    /**
+     * Writes the message state to a set of properties. The message
+     * state includes the recipient group and the name of the last
+     * group member a message was created for.
+     *
+     * @param props          the properties to write to
+     */
+    protected void writeState(Properties props) {
+        super.writeState(props);
+        props.setProperty("domain", recipient.getDomainName());
+        props.setProperty("group", recipient.getName());
+        props.setProperty("user", lastUser);
+        props.setProperty("batch", String.valueOf(batchSize));
+    }
+
+    /**
+     * Reads the message state from a set of properties.
+     *
+     * @param props          the properties to read from
+     *
+     * @throws MailMessageException if the message state couldn't be
+     *             read correctly
+     */
+    protected void readState(Properties props) throws MailMessageException {
+        String    domainName = props.getProperty("domain", "");
+        String    groupName = props.getProperty("group", "");
+        Domain[]  domains;
+        String    error;
+
+        super.readState(props);
+        lastUser = props.getProperty("user", "");
+        try {
+            batchSize = Integer.parseInt(props.getProperty("batch", "0"));
+        } catch (NumberFormatException e) {
+            batchSize = 0;
+        }
+        recipient = null;
+        try {
+            domains = manager.getAllDomains();
+            for (int i = 0; i < domains.length; i++) {
+                if (domains[i].getName().equals(domainName)) {
+                    recipient = manager.getGroup(domains[i], groupName);
+                }
+            }
+        } catch (ContentException e) {
+            error = "couldn't read mail recipient group " + groupName;
+            LOG.error(error, e);
+            throw new MailMessageException(error, e);
+        }
+        if (recipient == null) {
+            error = "mail recipient group " + groupName + " not found";
+            LOG.warning(error);
+            throw new MailMessageException(error);
+        }
+    }
+
     /**
      * Checks if there remains any Java mail MIME messages to
      * generate.
@@ -119,7 +226,8 @@ public class GroupMailMessage extends MailMessage {
 
     /**
      * Creates the next Java mail MIME message from this mail
-     * message.
+     * message. If a batch size has been set, the message will be
+     * sent to the next batch of group members.
      *
      * @param session        the Java mail session
      *
@@ -131,20 +239,37 @@ public class GroupMailMessage extends MailMessage {
     protected MimeMessage getNextMessage(Session session)
         throws MailMessageException {
 
-        InternetAddress address;
+        ArrayList          list = new ArrayList();
+        InternetAddress[]  addresses;
 
-        if (nextRecipient == null) {
-            nextRecipient = getNextRecipient();
+        resetUser = lastUser;
+        while (list.size() < Math.max(batchSize, 1) && hasMoreMessages()) {
+            list.add(nextRecipient);
+            nextRecipient = null;
+            lastUser = nextUser;
         }
-        address = nextRecipient;
-        nextRecipient = null;
-        if (address != null) {
-            return createMessage(session, address);
-        } else {
+        if (list.size() <= 0) {
             throw new MailMessageException("all valid user already sent to");
+        } else if (batchSize <= 1) {
+            return createMessage(session, (InternetAddress) list.get(0));
+        } else {
+            addresses = new InternetAddress[list.size()];
+            list.toArray(addresses);
+            return createMessage(session, addresses);
         }
     }
 
+    /**
+     * Resets the progress to before the last Java mail MIME message
+     * created. The group members will be read again from the
+     * database, starting after the previous last recipient.
+     */
+    protected void resetLastMessage() {
+        lastUser = resetUser;
+        users = null;
+        nextRecipient = null;
+    }
+
     /**
      * Returns the next recipient in the group. This method will read
      * all the group members in blocks and return all valid email
@@ -154,32 +279,26 @@ public class GroupMailMessage extends MailMessage {
      *         null if all recipients have been returned
      */
     private InternetAddress getNextRecipient() {
-        String  email;
-
-        while (true) {
-            if (users == null) {
-                try {
-                    users = recipient.getUsers(offset, MAX_USERS);
-                } catch (ContentException e) {
-                    return null;
-                }
-                offset += users.length;
-                position = 0;
-            } else if (position >= users.length) {
-                if (users.length < MAX_USERS) {
-                    return null;
-                }
-                users = null;
-            } else {
-                email = users[position++].getEmail();
-                if (email.length() > 0) {
+        User  user;
+
+        if (users == null) {
+            users = recipient.getUserIterator(lastUser);
+        }
+        try {
+            while (users.hasNext()) {
+                user = users.next();
+                if (user.getEmail().length() > 0) {
                     try {
-                        return new InternetAddress(email);
+                        nextUser = user.getName();
+                        return new InternetAddress(user.getEmail());
                     } catch (AddressException e) {
                         // Skip to next user, do nothing
                     }
                 }
             }
+        } catch (ContentException e) {
+            // Stop sending to remaining users, do nothing
         }
+        return null;
     }
 }
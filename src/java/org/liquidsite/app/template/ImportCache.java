@@ -0,0 +1,210 @@
+/*
+ * ImportCache.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.liquidsite.core.content.ContentManager;
+
+/**
+ * A cache for resolved ROOT domain template imports. Each import
+ * path is mapped to the template source found, so that shared
+ * template libraries needn't be located one path segment at a time
+ * on each import. A cached template source is only returned if none
+ * of the templates in its chain have been modified since it was
+ * resolved. The cache is also cleared whenever a ROOT domain
+ * template is saved.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class ImportCache {
+
+    /**
+     * The maximum number of cached import paths.
+     */
+    private static final int MAX_ENTRIES = 1000;
+
+    /**
+     * The one and only instance of this class.
+     */
+    private static final ImportCache INSTANCE = new ImportCache();
+
+    /**
+     * Returns the import cache instance.
+     *
+     * @return the import cache instance
+     */
+    public static ImportCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The map with cached import entries. The entries are indexed
+     * by their import path (including the preview or normal prefix),
+     * and ordered by their last access.
+     */
+    private LinkedHashMap entries = new EntryMap();
+
+    /**
+     * Creates a new import cache.
+     */
+    private ImportCache() {
+        // No further initialization needed
+    }
+
+    /**
+     * Returns a cached template source. If any of the templates
+     * used has been modified, the entry will be removed from the
+     * cache.
+     *
+     * @param manager        the content manager to use
+     * @param path           the import path
+     *
+     * @return the cached template source, or
+     *         null if not found or outdated
+     */
+    public TemplateSource get(ContentManager manager, String path) {
+        String  key = getKey(manager, path);
+        Entry   entry;
+
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        } else if (!entry.source.isModified(manager, entry.created)) {
+            return entry.source;
+        } else {
+            synchronized (this) {
+                if (entries.get(key) == entry) {
+                    entries.remove(key);
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Adds a resolved template source to the cache.
+     *
+     * @param manager        the content manager used
+     * @param path           the import path
+     * @param source         the template source found
+     * @param created        the resolution start time
+     */
+    public synchronized void put(ContentManager manager,
+                                 String path,
+                                 TemplateSource source,
+                                 long created) {
+
+        entries.put(getKey(manager, path), new Entry(source, created));
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Returns the cache key for an import path. Admin content
+     * managers may resolve imports to work revisions, so these are
+     * cached separately.
+     *
+     * @param manager        the content manager to use
+     * @param path           the import path
+     *
+     * @return the cache key for the import path
+     */
+    private String getKey(ContentManager manager, String path) {
+        if (manager.isAdmin()) {
+            return "$preview/" + path;
+        } else {
+            return "$normal/" + path;
+        }
+    }
+
+
+    /**
+     * A map with a limited number of cache entries. The least
+     * recently used entry will be removed when the limit is
+     * exceeded.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class EntryMap extends LinkedHashMap {
+
+        /**
+         * Creates a new entry map.
+         */
+        public EntryMap() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * Checks if the eldest entry should be removed.
+         *
+         * @param eldest         the least recently used entry
+         *
+         * @return true if the eldest entry should be removed, or
+         *         false otherwise
+         */
+        protected boolean removeEldestEntry(Map.Entry eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+
+
+    /**
+     * A cached import entry.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Entry {
+
+        /**
+         * The template source found.
+         */
+        public TemplateSource source;
+
+        /**
+         * The resolution start time (in milliseconds).
+         */
+        public long created;
+
+        /**
+         * Creates a new import entry.
+         *
+         * @param source         the template source found
+         * @param created        the resolution start time
+         */
+        public Entry(TemplateSource source, long created) {
+            this.source = source;
+            this.created = created;
+        }
+    }
+}
@@ -80,6 +80,11 @@ public class LiquidSiteBean extends TemplateBean {
      */
     private PluginBean pluginBean = null;
 
+    /**
+     * The fragment cache bean.
+     */
+    private CacheBean cacheBean = null;
+
     /**
      * Creates a new LiquidSite template bean.
      *
@@ -107,6 +112,19 @@ public class LiquidSiteBean extends TemplateBean {
         return TemplateManager.getBuildDate();
     }
 
+    /**
+     * Returns the fragment cache bean. This bean is used as a
+     * template directive to cache the output of a nested block.
+     *
+     * @return the fragment cache bean
+     */
+    public CacheBean getCache() {
+        if (cacheBean == null) {
+            cacheBean = new CacheBean(getContext());
+        }
+        return cacheBean;
+    }
+
     /**
      * Returns the plugin bean.
      *
@@ -0,0 +1,229 @@
+/*
+ * PageLoader.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.io.IOException;
+
+import freemarker.core.Environment;
+
+import org.liquidsite.core.content.Content;
+import org.liquidsite.core.content.ContentException;
+import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.ContentPage;
+import org.liquidsite.core.content.ContentSecurityException;
+import org.liquidsite.core.content.ContentTemplate;
+import org.liquidsite.core.content.Domain;
+import org.liquidsite.core.content.User;
+import org.liquidsite.util.log.Log;
+
+/**
+ * A page template loader. This class provides the page elements for
+ * a single content page and user. A new loader is created for each
+ * page template request, and is stored in the FreeMarker processing
+ * environment so that included and imported templates are loaded
+ * with the same page and user. This class is immutable and thus
+ * thread-safe.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class PageLoader {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(PageLoader.class);
+
+    /**
+     * The processing environment attribute name for the loader.
+     */
+    private static final String ATTRIBUTE = "liquidsite.pageloader";
+
+    /**
+     * The content page to load.
+     */
+    private ContentPage page;
+
+    /**
+     * The user performing the operation.
+     */
+    private User user;
+
+    /**
+     * Returns the page template loader for the current processing
+     * environment.
+     *
+     * @return the page template loader for the current environment
+     *
+     * @throws IOException if no page template is being processed
+     */
+    public static PageLoader getCurrent() throws IOException {
+        Environment  env = Environment.getCurrentEnvironment();
+        Object       obj = null;
+
+        if (env != null) {
+            obj = env.getCustomAttribute(ATTRIBUTE);
+        }
+        if (obj == null) {
+            throw new IOException("no page template being processed");
+        }
+        return (PageLoader) obj;
+    }
+
+    /**
+     * Creates a new page template loader.
+     *
+     * @param page           the content page to load
+     * @param user           the user performing the operation
+     */
+    public PageLoader(ContentPage page, User user) {
+        this.page = page;
+        this.user = user;
+    }
+
+    /**
+     * Returns the root template name for the content page.
+     *
+     * @return the root template name
+     */
+    public String getRootName() {
+        if (page.getContentManager().isAdmin()) {
+            return "$preview/" + page.getId() + "/root";
+        } else {
+            return "$normal/" + page.getId() + "/root";
+        }
+    }
+
+    /**
+     * Stores this loader in a processing environment. This makes the
+     * loader available to included and imported templates.
+     *
+     * @param env            the processing environment
+     */
+    public void attach(Environment env) {
+        env.setCustomAttribute(ATTRIBUTE, this);
+    }
+
+    /**
+     * Returns the page element source. The template name specified
+     * either uniquely identifies a root template and page element,
+     * or ends with a page element name.
+     *
+     * @param name           the template name
+     *
+     * @return the page element source, or
+     *         null if not found
+     *
+     * @throws IOException if the page element couldn't be read
+     *             properly
+     */
+    public TemplateSource findTemplateSource(String name)
+        throws IOException {
+
+        String  elemName;
+        String  message;
+
+        LOG.trace("template lookup for page element " + name);
+        try {
+            if (name.startsWith("$")) {
+                elemName = name.substring(name.lastIndexOf("/") + 1);
+                return TemplateSource.createPageSource(user, page, elemName);
+            } else {
+                return findRootTemplateSource(page.getContentManager(),
+                                              name);
+            }
+        } catch (ContentException e) {
+            message = "while reading page element " + name +
+                      ": " + e.getMessage();
+            LOG.error(message);
+            throw new IOException(e.getMessage());
+        } catch (ContentSecurityException e) {
+            message = "while reading page element " + name +
+                      ": " + e.getMessage();
+            LOG.error(message);
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the root template element source. The template name
+     * specified must uniquely identify a root template and page
+     * element. Resolved template sources are stored in the import
+     * cache, so that the ROOT domain templates needn't be located
+     * again on each import.
+     *
+     * @param manager        the content manager
+     * @param name           the template name
+     *
+     * @return the template source element found, or
+     *         null if not found
+     *
+     * @throws ContentException if the template element couldn't
+     *             be read properly
+     * @throws ContentSecurityException if the anonymous user
+     *             didn't have access to the template
+     */
+    private TemplateSource findRootTemplateSource(ContentManager manager,
+                                                  String name)
+        throws ContentException, ContentSecurityException {
+
+        ImportCache      cache = ImportCache.getInstance();
+        TemplateSource   source = cache.get(manager, name);
+        String           path = name;
+        long             created = System.currentTimeMillis();
+        Domain           root;
+        ContentTemplate  template = null;
+        Content          content;
+        String           elemName;
+        int              pos;
+
+        if (source != null) {
+            return source;
+        }
+        root = manager.getDomain(null, "ROOT");
+        while (name.indexOf("/") > 0) {
+            pos = name.indexOf("/");
+            elemName = name.substring(0, pos);
+            name = name.substring(pos + 1);
+            if (template == null) {
+                content = manager.getContentChild(null, root, elemName);
+            } else {
+                content = manager.getContentChild(null, template, elemName);
+            }
+            if (content instanceof ContentTemplate) {
+                template = (ContentTemplate) content;
+            } else {
+                throw new ContentException("failed to locate template " +
+                                           elemName + " in ROOT domain");
+            }
+        }
+        if (template == null) {
+            throw new ContentException("invalid template import " + name +
+                                       " does not refer to page element");
+        }
+        source = TemplateSource.createRootSource(manager, template, name);
+        if (source != null) {
+            cache.put(manager, path, source, created);
+        }
+        return source;
+    }
+}
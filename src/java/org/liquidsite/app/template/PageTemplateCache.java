@@ -0,0 +1,526 @@
+/*
+ * PageTemplateCache.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+
+package org.liquidsite.app.template;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+
+import org.liquidsite.util.log.Log;
+
+/**
+ * A cache for compiled page templates. The compiled templates are
+ * indexed by template name and stored together with the template
+ * source used, so that a cached template is only returned if the
+ * page and template revisions are unchanged. The least recently
+ * used templates are removed when the total estimated cache size
+ * limit is exceeded.<p>
+ *
+ * Lookups of compiled templates are lock-free, as the template map
+ * is replaced (copy-on-write) on every modification. Templates
+ * missing from the cache are compiled only once, with concurrent
+ * requests for the same template waiting for the first compilation
+ * to finish. Compilations of different templates proceed in
+ * parallel.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class PageTemplateCache {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(PageTemplateCache.class);
+
+    /**
+     * The template name suffix used for unparsed templates.
+     */
+    private static final String TEXT_SUFFIX = "#text";
+
+    /**
+     * The maximum total size of the cached templates (in bytes).
+     */
+    private long maxSize;
+
+    /**
+     * The map with cached templates. The templates are indexed by
+     * their template name. This map is never modified once it has
+     * been published, so it can be read without locking.
+     */
+    private volatile HashMap entries = new HashMap();
+
+    /**
+     * The map with templates being compiled. The compilations are
+     * indexed by their template name. This map is protected by the
+     * cache lock.
+     */
+    private HashMap compilations = new HashMap();
+
+    /**
+     * The total estimated size of the cached templates (in bytes).
+     */
+    private long size = 0;
+
+    /**
+     * The number of cache hits. This value is updated without
+     * locking and should only be considered approximate.
+     */
+    private volatile long hits = 0;
+
+    /**
+     * The number of cache misses. This value is updated without
+     * locking and should only be considered approximate.
+     */
+    private volatile long misses = 0;
+
+    /**
+     * The access counter. This value is used for ordering the cached
+     * templates by their last access.
+     */
+    private volatile long clock = 0;
+
+    /**
+     * Creates a new page template cache.
+     *
+     * @param maxSize        the maximum total cache size (in bytes)
+     */
+    public PageTemplateCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the total estimated size of the cached templates.
+     *
+     * @return the total size of the cached templates (in bytes)
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the maximum total size of the cached templates. Any
+     * templates exceeding the new limit will be removed.
+     *
+     * @param maxSize        the maximum total cache size (in bytes)
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        HashMap  copy = new HashMap(entries);
+
+        this.maxSize = maxSize;
+        prune(copy);
+        entries = copy;
+    }
+
+    /**
+     * Returns the number of cached templates.
+     *
+     * @return the number of cached templates
+     */
+    public int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the approximate number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the approximate number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns a compiled template. A cached template will be
+     * returned if it was compiled from a template source equal to
+     * the one specified. Otherwise the template will be compiled
+     * and added to the cache. This method does not lock the cache
+     * for cached templates.
+     *
+     * @param config         the template configuration
+     * @param name           the template name
+     * @param src            the current template source
+     * @param encoding       the template encoding
+     * @param parse          the parse template flag
+     *
+     * @return the compiled template
+     *
+     * @throws IOException if the template couldn't be compiled
+     */
+    public Template get(Configuration config,
+                        String name,
+                        TemplateSource src,
+                        String encoding,
+                        boolean parse)
+        throws IOException {
+
+        String  key = parse ? name : name + TEXT_SUFFIX;
+        Entry   entry = (Entry) entries.get(key);
+
+        if (entry != null && entry.source.equals(src)) {
+            hits++;
+            entry.access = clock++;
+            return entry.template;
+        }
+        misses++;
+        return compile(config, key, name, src, encoding, parse);
+    }
+
+    /**
+     * Compiles a template and adds it to the cache. If the same
+     * template source is already being compiled by another thread,
+     * this method waits for that compilation to finish instead.
+     *
+     * @param config         the template configuration
+     * @param key            the template cache key
+     * @param name           the template name
+     * @param src            the current template source
+     * @param encoding       the template encoding
+     * @param parse          the parse template flag
+     *
+     * @return the compiled template
+     *
+     * @throws IOException if the template couldn't be compiled
+     */
+    private Template compile(Configuration config,
+                             String key,
+                             String name,
+                             TemplateSource src,
+                             String encoding,
+                             boolean parse)
+        throws IOException {
+
+        Template     template;
+        Compilation  comp;
+        Entry        entry;
+        Reader       reader;
+        boolean      owner = false;
+
+        synchronized (this) {
+            entry = (Entry) entries.get(key);
+            if (entry != null && entry.source.equals(src)) {
+                return entry.template;
+            }
+            comp = (Compilation) compilations.get(key);
+            if (comp == null || !comp.source.equals(src)) {
+                comp = new Compilation(src);
+                compilations.put(key, comp);
+                owner = true;
+            }
+        }
+        if (!owner) {
+            LOG.trace("waiting for page template " + name);
+            return comp.waitFor();
+        }
+        try {
+            LOG.trace("compiling page template " + name + " from " + src);
+            if (parse) {
+                reader = new StringReader(src.getData());
+                template = new Template(name, reader, config, encoding);
+            } else {
+                template = Template.getPlainTextTemplate(name,
+                                                         src.getData(),
+                                                         config);
+            }
+            put(key, src, template);
+            comp.finish(template, null);
+            return template;
+        } catch (IOException e) {
+            comp.finish(null, e);
+            throw e;
+        } catch (RuntimeException e) {
+            comp.finish(null, new IOException(e.getMessage()));
+            throw e;
+        } finally {
+            synchronized (this) {
+                if (compilations.get(key) == comp) {
+                    compilations.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a compiled template to the cache. Any previous template
+     * with the same key will be replaced, and the least recently
+     * used templates will be removed until the cache size limit is
+     * satisfied.
+     *
+     * @param key            the template cache key
+     * @param source         the template source used
+     * @param template       the compiled template
+     */
+    private synchronized void put(String key,
+                                  TemplateSource source,
+                                  Template template) {
+
+        HashMap  copy;
+        Entry    entry;
+
+        if (source.getSize() <= maxSize) {
+            copy = new HashMap(entries);
+            entry = (Entry) copy.remove(key);
+            if (entry != null) {
+                size -= entry.source.getSize();
+            }
+            entry = new Entry(source, template);
+            entry.access = clock++;
+            copy.put(key, entry);
+            size += source.getSize();
+            prune(copy);
+            entries = copy;
+        }
+    }
+
+    /**
+     * Removes all templates depending on a content object from the
+     * cache. The templates may optionally be limited to those with a
+     * specified name prefix.
+     *
+     * @param id             the page or template content identifier
+     * @param prefix         the template name prefix, or null
+     *
+     * @return the list of page identifiers of removed root page
+     *         templates
+     */
+    public synchronized ArrayList removeAll(int id, String prefix) {
+        HashMap    copy = new HashMap(entries);
+        Iterator   iter = copy.entrySet().iterator();
+        ArrayList  pages = new ArrayList();
+        Map.Entry  item;
+        String     name;
+        Entry      entry;
+
+        while (iter.hasNext()) {
+            item = (Map.Entry) iter.next();
+            name = (String) item.getKey();
+            entry = (Entry) item.getValue();
+            if (entry.source.dependsOn(id) &&
+                (prefix == null || name.startsWith(prefix))) {
+
+                size -= entry.source.getSize();
+                iter.remove();
+                if (name.endsWith("/root")) {
+                    pages.add(new Integer(entry.source.getPageId()));
+                }
+            }
+        }
+        entries = copy;
+        return pages;
+    }
+
+    /**
+     * Removes all templates from the cache.
+     */
+    public synchronized void clear() {
+        entries = new HashMap();
+        size = 0;
+    }
+
+    /**
+     * Removes the least recently used templates from a template map
+     * until the cache size limit is satisfied.
+     *
+     * @param map            the template map to modify
+     */
+    private void prune(HashMap map) {
+        ArrayList  list;
+        Map.Entry  item;
+
+        if (size <= maxSize) {
+            return;
+        }
+        list = new ArrayList(map.entrySet());
+        Collections.sort(list, new AccessComparator());
+        for (int i = 0; size > maxSize && i < list.size(); i++) {
+            item = (Map.Entry) list.get(i);
+            size -= ((Entry) item.getValue()).source.getSize();
+            map.remove(item.getKey());
+        }
+    }
+
+
+    /**
+     * A cached template entry.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Entry {
+
+        /**
+         * The template source used.
+         */
+        public TemplateSource source;
+
+        /**
+         * The compiled template.
+         */
+        public Template template;
+
+        /**
+         * The last access counter value. This value is updated
+         * without locking and is only used for ordering.
+         */
+        public volatile long access = 0;
+
+        /**
+         * Creates a new cached template entry.
+         *
+         * @param source         the template source used
+         * @param template       the compiled template
+         */
+        public Entry(TemplateSource source,
+                     Template template) {
+
+            this.source = source;
+            this.template = template;
+        }
+    }
+
+
+    /**
+     * A cached template entry comparator. This comparator orders map
+     * entries with the least recently accessed templates first.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class AccessComparator implements Comparator {
+
+        /**
+         * Compares two template map entries.
+         *
+         * @param a              the first map entry
+         * @param b              the second map entry
+         *
+         * @return a negative number if the first entry was accessed
+         *         before the second, zero if equal, or a positive
+         *         number otherwise
+         */
+        public int compare(Object a, Object b) {
+            long  x = ((Entry) ((Map.Entry) a).getValue()).access;
+            long  y = ((Entry) ((Map.Entry) b).getValue()).access;
+
+            return (x < y) ? -1 : ((x == y) ? 0 : 1);
+        }
+    }
+
+
+    /**
+     * An ongoing template compilation. Threads requesting the same
+     * template while it is being compiled will wait for the
+     * compilation result.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Compilation {
+
+        /**
+         * The template source being compiled.
+         */
+        public TemplateSource source;
+
+        /**
+         * The finished flag.
+         */
+        private boolean finished = false;
+
+        /**
+         * The compiled template, or null if not finished.
+         */
+        private Template template = null;
+
+        /**
+         * The compilation error, or null for none.
+         */
+        private IOException error = null;
+
+        /**
+         * Creates a new template compilation.
+         *
+         * @param source         the template source being compiled
+         */
+        public Compilation(TemplateSource source) {
+            this.source = source;
+        }
+
+        /**
+         * Sets the compilation result and notifies any waiting
+         * threads.
+         *
+         * @param template       the compiled template, or null
+         * @param error          the compilation error, or null
+         */
+        public synchronized void finish(Template template,
+                                        IOException error) {
+
+            this.template = template;
+            this.error = error;
+            this.finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits for the compilation to finish.
+         *
+         * @return the compiled template
+         *
+         * @throws IOException if the template compilation failed or
+         *             the thread was interrupted
+         */
+        public synchronized Template waitFor() throws IOException {
+            while (!finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while waiting " +
+                                          "for template compilation");
+                }
+            }
+            if (error != null) {
+                throw new IOException(error.getMessage());
+            }
+            return template;
+        }
+    }
+}
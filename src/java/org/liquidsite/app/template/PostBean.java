@@ -22,7 +22,6 @@
 package org.liquidsite.app.template;
 
 import org.liquidsite.core.content.ContentPost;
-import org.liquidsite.core.text.PlainFormatter;
 
 /**
  * A post template bean. This class is used to access posts from the
@@ -57,7 +56,7 @@ public class PostBean extends ContentBean {
      *         an empty string if the post doesn't exist
      */
     public String getSubject() {
-        return PlainFormatter.formatHtml(getSubjectSource());
+        return formatPlain("subject", getSubjectSource());
     }
 
     /**
@@ -80,7 +79,7 @@ public class PostBean extends ContentBean {
      *         an empty string if the post doesn't exist
      */
     public String getText() {
-        return PlainFormatter.formatHtml(getTextSource());
+        return formatPlain("text", getTextSource());
     }
 
     /**
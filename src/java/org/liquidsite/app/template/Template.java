@@ -23,6 +23,7 @@ package org.liquidsite.app.template;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Map;
 
 import freemarker.core.Environment;
@@ -30,7 +31,10 @@ import freemarker.template.TemplateExceptionHandler;
 
 import org.liquidsite.core.web.Request;
 import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.text.PlainFormatter;
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestProfiler;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A template class. This class wraps a FreeMarker template and adds
@@ -61,6 +65,11 @@ public class Template {
      */
     private String output = null;
 
+    /**
+     * The page template loader, or null for file templates.
+     */
+    private PageLoader loader = null;
+
     /**
      * Creates a new template
      *
@@ -74,11 +83,24 @@ public class Template {
         this.template = template;
     }
 
+    /**
+     * Creates a new page template. The page template loader will be
+     * used for any templates included or imported while processing.
+     *
+     * @param template       the FreeMarker template to use
+     * @param loader         the page template loader
+     */
+    Template(freemarker.template.Template template, PageLoader loader) {
+        this(template);
+        this.loader = loader;
+    }
+
     /**
      * Processes the template with a request and a content manager.
      * All the attributes in the request will be exposed in the
      * template data model. The processing result will be sent as
-     * data to the request.
+     * data to the request. If a request profiler is active, the
+     * profile report will be added to any HTML output.
      *
      * @param request        the request object
      * @param manager        the content manager to use
@@ -88,7 +110,12 @@ public class Template {
     public void processNormal(Request request, ContentManager manager)
         throws TemplateException {
 
+        RequestProfiler  profiler = RequestProfiler.getCurrent();
+
         process(request, manager);
+        if (profiler != null && mimeType.startsWith("text/html")) {
+            output = addProfileReport(output, profiler);
+        }
         if (!request.hasResponse()) {
             request.sendData(mimeType, output);
         }
@@ -131,11 +158,15 @@ public class Template {
         Environment  env;
         BeanContext  context;
         StringWriter buffer = new StringWriter();
+        long         start = RequestTimer.begin(RequestTimer.RENDER);
 
         context = new BeanContext(request, manager);
         data.put("liquidsite", new LiquidSiteBean(context));
         try {
             env = template.createProcessingEnvironment(data, buffer);
+            if (loader != null) {
+                loader.attach(env);
+            }
             if (request.getUser() != null) {
                 env.setTimeZone(request.getUser().getTimeZone());
             }
@@ -149,8 +180,73 @@ public class Template {
         } catch (RuntimeException e) {
             LOG.error(e.getMessage());
             throw new TemplateException(e);
+        } finally {
+            RequestTimer.end(RequestTimer.RENDER, start);
         }
         mimeType = context.getMimeType();
         output = buffer.toString();
     }
+
+    /**
+     * Adds a profile report to an HTML document. The report is
+     * inserted before the end of the HTML body, or appended to the
+     * document if no body end tag was found. The report details are
+     * hidden until the report heading is clicked.
+     *
+     * @param html           the HTML document
+     * @param profiler       the request profiler
+     *
+     * @return the HTML document with the profile report added
+     */
+    private String addProfileReport(String html, RequestProfiler profiler) {
+        StringBuffer               buffer = new StringBuffer();
+        ArrayList                  list = profiler.getEntries();
+        RequestProfiler.Entry      entry;
+        RequestTimer               timer = RequestTimer.getCurrent();
+        int                        pos;
+
+        buffer.append("<div style=\"clear: both; margin: 1em; ");
+        buffer.append("padding: 0.5em; border: 1px solid #999; ");
+        buffer.append("background: #fff; color: #000; ");
+        buffer.append("font: 11px sans-serif;\">\n");
+        buffer.append("<a href=\"#\" onclick=\"var s = this.");
+        buffer.append("nextSibling.nextSibling.style; s.display = ");
+        buffer.append("(s.display == 'none') ? '' : 'none'; ");
+        buffer.append("return false;\">Template profile: ");
+        buffer.append(profiler.getTotalTime());
+        buffer.append(" ms");
+        if (timer != null) {
+            buffer.append(", ");
+            buffer.append(timer.getQueryCount());
+            buffer.append(" database queries");
+        }
+        buffer.append("</a>\n");
+        buffer.append("<table style=\"display: none;\">\n");
+        buffer.append("<tr><th align=\"left\">Operation</th>");
+        buffer.append("<th align=\"left\">Name</th>");
+        buffer.append("<th align=\"right\">Calls</th>");
+        buffer.append("<th align=\"right\">Time (ms)</th>");
+        buffer.append("<th align=\"right\">Queries</th></tr>\n");
+        for (int i = 0; i < list.size(); i++) {
+            entry = (RequestProfiler.Entry) list.get(i);
+            buffer.append("<tr><td>");
+            buffer.append(entry.getCategory());
+            buffer.append("</td><td>");
+            buffer.append(PlainFormatter.escapeHtml(entry.getName()));
+            buffer.append("</td><td align=\"right\">");
+            buffer.append(entry.getCount());
+            buffer.append("</td><td align=\"right\">");
+            buffer.append(entry.getTime());
+            buffer.append("</td><td align=\"right\">");
+            buffer.append(entry.getQueryCount());
+            buffer.append("</td></tr>\n");
+        }
+        buffer.append("</table>\n</div>\n");
+        pos = html.lastIndexOf("</body>");
+        if (pos < 0) {
+            return html + buffer.toString();
+        } else {
+            return html.substring(0, pos) + buffer + html.substring(pos);
+        }
+    }
 }
@@ -0,0 +1,526 @@
+/*
+ * TemplateCompiler.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.liquidsite.core.content.Content;
+import org.liquidsite.core.content.ContentException;
+import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.ContentPage;
+import org.liquidsite.core.content.ContentSecurityException;
+import org.liquidsite.core.content.ContentSelector;
+import org.liquidsite.core.content.Domain;
+import org.liquidsite.core.content.User;
+import org.liquidsite.util.log.Log;
+
+/**
+ * A background template compiler. This class compiles file and page
+ * templates in a number of low-priority background threads, so that
+ * they are already present in the template caches when first
+ * requested. The compilation progress and any errors are recorded
+ * for display in the administration application.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class TemplateCompiler {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(TemplateCompiler.class);
+
+    /**
+     * The maximum number of error messages to keep.
+     */
+    private static final int MAX_ERRORS = 20;
+
+    /**
+     * The number of pages to retrieve in each scan query.
+     */
+    private static final int SCAN_SIZE = 100;
+
+    /**
+     * The scan task. This task will add all file and page templates
+     * to the compilation queue.
+     */
+    private static final Object SCAN = new Object();
+
+    /**
+     * The application base directory.
+     */
+    private File baseDir;
+
+    /**
+     * The content manager to use.
+     */
+    private ContentManager manager;
+
+    /**
+     * The user compiling the templates. This is a superuser, so that
+     * pages without anonymous read access are also compiled.
+     */
+    private User user;
+
+    /**
+     * The maximum number of compiler threads.
+     */
+    private int maxThreads;
+
+    /**
+     * The number of running compiler threads.
+     */
+    private int threads = 0;
+
+    /**
+     * The running compiler threads.
+     */
+    private ArrayList workers = new ArrayList();
+
+    /**
+     * The stopped flag. Once set, no more tasks will be processed.
+     */
+    private boolean stopped = false;
+
+    /**
+     * The compilation queue. The queue contains file template paths,
+     * page content identifiers and the scan task.
+     */
+    private LinkedList queue = new LinkedList();
+
+    /**
+     * The current compilation batch start time.
+     */
+    private long startTime = 0;
+
+    /**
+     * The current compilation batch end time, or zero (0) if still
+     * running.
+     */
+    private long endTime = 0;
+
+    /**
+     * The number of templates added in the current batch.
+     */
+    private int total = 0;
+
+    /**
+     * The number of templates compiled in the current batch.
+     */
+    private int compiled = 0;
+
+    /**
+     * The number of templates skipped in the current batch. Pages
+     * that are offline are skipped.
+     */
+    private int skipped = 0;
+
+    /**
+     * The number of templates failed in the current batch.
+     */
+    private int failed = 0;
+
+    /**
+     * The most recent compilation error messages.
+     */
+    private LinkedList errors = new LinkedList();
+
+    /**
+     * Creates a new background template compiler.
+     *
+     * @param baseDir        the application base directory
+     * @param manager        the content manager to use
+     * @param maxThreads     the maximum number of compiler threads
+     */
+    public TemplateCompiler(File baseDir,
+                            ContentManager manager,
+                            int maxThreads) {
+
+        this.baseDir = baseDir;
+        this.manager = manager;
+        this.user = new User(manager, null, "template-compiler");
+        this.maxThreads = Math.max(maxThreads, 1);
+    }
+
+    /**
+     * Checks if the compiler is running.
+     *
+     * @return true if the compiler threads are running, or
+     *         false otherwise
+     */
+    public synchronized boolean isRunning() {
+        return threads > 0;
+    }
+
+    /**
+     * Returns the current compilation batch start time.
+     *
+     * @return the batch start time, or
+     *         zero (0) if never started
+     */
+    public synchronized long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Returns the current compilation batch end time.
+     *
+     * @return the batch end time, or
+     *         zero (0) if still running
+     */
+    public synchronized long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Returns the number of templates added in the current batch.
+     *
+     * @return the number of templates added
+     */
+    public synchronized int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the number of templates compiled in the current batch.
+     *
+     * @return the number of templates compiled
+     */
+    public synchronized int getCompiled() {
+        return compiled;
+    }
+
+    /**
+     * Returns the number of templates skipped in the current batch.
+     *
+     * @return the number of templates skipped
+     */
+    public synchronized int getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Returns the number of templates failed in the current batch.
+     *
+     * @return the number of templates failed
+     */
+    public synchronized int getFailed() {
+        return failed;
+    }
+
+    /**
+     * Returns the most recent compilation error messages.
+     *
+     * @return a list of error messages
+     */
+    public synchronized ArrayList getErrors() {
+        return new ArrayList(errors);
+    }
+
+    /**
+     * Adds all file templates and online page templates to the
+     * compilation queue. The templates will be located by the
+     * compiler threads.
+     */
+    public void addAll() {
+        add(SCAN);
+    }
+
+    /**
+     * Adds a page template to the compilation queue.
+     *
+     * @param id             the content page identifier
+     */
+    public void addPage(int id) {
+        add(new Integer(id));
+    }
+
+    /**
+     * Stops the compiler. All remaining tasks are removed from the
+     * compilation queue, and the compiler threads are interrupted.
+     * This method will not return until all the compiler threads
+     * have stopped. No further tasks will be accepted.
+     */
+    public void stop() {
+        Thread[]  list;
+
+        synchronized (this) {
+            stopped = true;
+            queue.clear();
+            list = new Thread[workers.size()];
+            workers.toArray(list);
+        }
+        for (int i = 0; i < list.length; i++) {
+            list[i].interrupt();
+            try {
+                list[i].join();
+            } catch (InterruptedException ignore) {
+                // Do nothing
+            }
+        }
+    }
+
+    /**
+     * Adds a task to the compilation queue. If the compiler isn't
+     * running, a new compilation batch will be started. Additional
+     * compiler threads are started if needed. Nothing is done if the
+     * compiler has been stopped.
+     *
+     * @param task           the compilation task
+     */
+    private synchronized void add(Object task) {
+        Thread  thread;
+
+        if (stopped || queue.contains(task)) {
+            return;
+        }
+        if (threads == 0 && queue.isEmpty()) {
+            startTime = System.currentTimeMillis();
+            endTime = 0;
+            total = 0;
+            compiled = 0;
+            skipped = 0;
+            failed = 0;
+        }
+        queue.add(task);
+        if (task != SCAN) {
+            total++;
+        }
+        if (threads < maxThreads && threads < queue.size()) {
+            threads++;
+            thread = new Thread(new Worker(this), "template-compiler");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            workers.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Removes the next task from the compilation queue. If the queue
+     * is empty or the compiler has been stopped, the calling
+     * compiler thread should terminate.
+     *
+     * @return the next compilation task, or
+     *         null if the queue was empty
+     */
+    private synchronized Object next() {
+        if (stopped || queue.isEmpty()) {
+            threads--;
+            workers.remove(Thread.currentThread());
+            if (threads == 0) {
+                endTime = System.currentTimeMillis();
+                LOG.info("compiled " + compiled + " templates in " +
+                         (endTime - startTime) + " ms, " + skipped +
+                         " skipped, " + failed + " failed");
+            }
+            return null;
+        } else {
+            return queue.removeFirst();
+        }
+    }
+
+    /**
+     * Processes a compilation task.
+     *
+     * @param task           the compilation task
+     */
+    private void process(Object task) {
+        if (task == SCAN) {
+            scan();
+        } else if (task instanceof Integer) {
+            compilePage(((Integer) task).intValue());
+        } else {
+            compileFile(task.toString());
+        }
+    }
+
+    /**
+     * Adds all file templates and online page templates to the
+     * compilation queue. The pages in each domain are retrieved in
+     * batches, as the number of pages returned by each query is
+     * limited.
+     */
+    private void scan() {
+        Domain[]         domains;
+        ContentSelector  selector;
+        Content[]        pages;
+        int              start;
+
+        scanFiles(baseDir, "");
+        try {
+            domains = manager.getAllDomains();
+            for (int i = 0; i < domains.length; i++) {
+                start = 0;
+                do {
+                    selector = new ContentSelector(domains[i]);
+                    selector.requireCategory(Content.PAGE_CATEGORY);
+                    selector.limitResults(start, SCAN_SIZE);
+                    pages = manager.getContentObjects(user, selector);
+                    for (int j = 0; j < pages.length; j++) {
+                        if (pages[j].isOnline()) {
+                            addPage(pages[j].getId());
+                        }
+                    }
+                    start += SCAN_SIZE;
+                } while (pages.length == SCAN_SIZE);
+            }
+        } catch (ContentException e) {
+            addError("couldn't locate page templates: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds all file templates in a directory to the compilation
+     * queue. Subdirectories will be scanned recursively, except for
+     * the WEB-INF directory.
+     *
+     * @param dir            the directory to scan
+     * @param path           the directory path relative to the base
+     *                       directory
+     */
+    private void scanFiles(File dir, String path) {
+        File[]  files = dir.listFiles();
+
+        for (int i = 0; files != null && i < files.length; i++) {
+            if (files[i].isDirectory()) {
+                if (!files[i].getName().equals("WEB-INF")) {
+                    scanFiles(files[i], path + files[i].getName() + "/");
+                }
+            } else if (files[i].getName().endsWith(".ftl")) {
+                add(path + files[i].getName());
+            }
+        }
+    }
+
+    /**
+     * Compiles a file template.
+     *
+     * @param path           the file template path
+     */
+    private void compileFile(String path) {
+        try {
+            TemplateManager.getFileTemplate(path);
+            addResult(true);
+        } catch (TemplateException e) {
+            addError("file template " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles a page template. All the page elements and ROOT
+     * domain templates included or imported by the page template
+     * are also compiled. Offline pages are skipped.
+     *
+     * @param id             the content page identifier
+     */
+    private void compilePage(int id) {
+        Content  content;
+
+        try {
+            content = manager.getContent(user, id);
+            if (content instanceof ContentPage && content.isOnline()) {
+                TemplateManager.compilePage(user, (ContentPage) content);
+                addResult(true);
+            } else {
+                addResult(false);
+            }
+        } catch (ContentSecurityException e) {
+            addResult(false);
+        } catch (ContentException e) {
+            addError("page " + id + ": " + e.getMessage());
+        } catch (TemplateException e) {
+            addError("page " + id + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records a compiled or skipped template.
+     *
+     * @param success        the compiled flag
+     */
+    private synchronized void addResult(boolean success) {
+        if (success) {
+            compiled++;
+        } else {
+            skipped++;
+        }
+    }
+
+    /**
+     * Records a failed template compilation.
+     *
+     * @param message        the error message
+     */
+    private synchronized void addError(String message) {
+        LOG.warning("template compilation failed for " + message);
+        failed++;
+        errors.addLast(message);
+        while (errors.size() > MAX_ERRORS) {
+            errors.removeFirst();
+        }
+    }
+
+
+    /**
+     * A compiler thread worker. The worker processes tasks from the
+     * compilation queue until it is empty.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Worker implements Runnable {
+
+        /**
+         * The template compiler.
+         */
+        private TemplateCompiler compiler;
+
+        /**
+         * Creates a new compiler thread worker.
+         *
+         * @param compiler       the template compiler
+         */
+        public Worker(TemplateCompiler compiler) {
+            this.compiler = compiler;
+        }
+
+        /**
+         * Runs the worker. This method is not supposed to be called
+         * directly, but rather by the compiler thread.
+         */
+        public void run() {
+            Object  task;
+
+            while ((task = compiler.next()) != null) {
+                try {
+                    compiler.process(task);
+                } catch (RuntimeException e) {
+                    compiler.addError(task + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+}
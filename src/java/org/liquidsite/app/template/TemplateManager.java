@@ -22,26 +22,25 @@
 package org.liquidsite.app.template;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-import freemarker.cache.MruCacheStorage;
-import freemarker.cache.TemplateLoader;
 import freemarker.core.Configurable;
 import freemarker.template.Configuration;
 import freemarker.template.ObjectWrapper;
 
 import org.liquidsite.core.content.Content;
-import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentManager;
 import org.liquidsite.core.content.ContentPage;
-import org.liquidsite.core.content.ContentSecurityException;
 import org.liquidsite.core.content.ContentTemplate;
-import org.liquidsite.core.content.Domain;
 import org.liquidsite.core.content.User;
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestProfiler;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A simple FreeMarker template manager. This class provides static
@@ -57,6 +56,25 @@ public class TemplateManager {
      */
     static final Log LOG = new Log(TemplateManager.class);
 
+    /**
+     * The template include and import directive pattern. Only
+     * directives with constant template names are matched.
+     */
+    private static final Pattern INCLUDE_RE =
+        Pattern.compile("<#(include|import)\\s+([\"'])([^\"'$]+)\\2([^>]*)>");
+
+    /**
+     * The unparsed template include pattern. This pattern is matched
+     * against the include directive options.
+     */
+    private static final Pattern TEXT_RE =
+        Pattern.compile("parse\\s*=\\s*false");
+
+    /**
+     * The application base directory.
+     */
+    private static File baseDir = null;
+
     /**
      * The build version to return.
      */
@@ -75,12 +93,18 @@ public class TemplateManager {
     /**
      * The page template configuration.
      */
-    private static Configuration pageConfig = null;
+    private static PageConfiguration pageConfig = null;
+
+    /**
+     * The compiled page template cache.
+     */
+    private static PageTemplateCache pageCache =
+        new PageTemplateCache(4000000);
 
     /**
-     * The page template loader.
+     * The background template compiler, or null if not started.
      */
-    private static PageLoader pageLoader = new PageLoader();
+    private static TemplateCompiler compiler = null;
 
     /**
      * Initializes the template manager.
@@ -97,8 +121,12 @@ public class TemplateManager {
                                   String date)
         throws TemplateException {
 
+        TemplateManager.baseDir = baseDir;
         buildVersion = version;
         buildDate = date;
+        pageCache.clear();
+        ImportCache.getInstance().clear();
+        stopCompiler();
         fileConfig = new Configuration();
         fileConfig.setObjectWrapper(ObjectWrapper.BEANS_WRAPPER);
         fileConfig.setStrictSyntaxMode(true);
@@ -117,7 +145,7 @@ public class TemplateManager {
             LOG.error(e.getMessage());
             throw new TemplateException("couldn't read " + baseDir);
         }
-        pageConfig = new Configuration();
+        pageConfig = new PageConfiguration();
         pageConfig.setObjectWrapper(ObjectWrapper.BEANS_WRAPPER);
         pageConfig.setStrictSyntaxMode(true);
         pageConfig.setDefaultEncoding("UTF-8");
@@ -129,9 +157,6 @@ public class TemplateManager {
             throw new TemplateException("couldn't set output encoding: " +
                                         e.getMessage());
         }
-        pageConfig.setTemplateLoader(pageLoader);
-        pageConfig.setCacheStorage(new MruCacheStorage(0, 100));
-        pageConfig.setTemplateUpdateDelay(0);
     }
 
     /**
@@ -152,6 +177,109 @@ public class TemplateManager {
         return buildDate;
     }
 
+    /**
+     * Sets the maximum size of the compiled page template cache.
+     * The size is estimated from the template source lengths, and
+     * the least recently used templates will be removed when the
+     * limit is exceeded.
+     *
+     * @param size           the maximum cache size (in bytes)
+     */
+    public static void setCacheSize(long size) {
+        pageCache.setMaxSize(size);
+    }
+
+    /**
+     * Sets the maximum size of the rendered template fragment cache.
+     *
+     * @param size           the maximum cache size (in bytes)
+     */
+    public static void setFragmentCacheSize(long size) {
+        FragmentCache.getInstance().setMaxSize(size);
+    }
+
+    /**
+     * Sets the maximum size of the formatted content text cache.
+     *
+     * @param size           the maximum cache size (in bytes)
+     */
+    public static void setFormatCacheSize(long size) {
+        FormatCache.getInstance().setMaxSize(size);
+    }
+
+    /**
+     * Invalidates all compiled page templates depending on a content
+     * object. This method should be called when a page or template
+     * has been modified or published, in order to release the
+     * outdated templates early. Outdated templates are never used
+     * even without calling this method, as the page and template
+     * revisions are verified on each template lookup. Modified work
+     * revisions only invalidate the preview templates, while
+     * published revisions also cause the affected page templates to
+     * be recompiled by the background compiler (if started). Any
+     * modified ROOT domain template also clears the resolved
+     * template import cache.
+     *
+     * @param content        the modified content object
+     */
+    public static void invalidate(Content content) {
+        ArrayList  pages;
+
+        if (content instanceof ContentTemplate
+         && content.getDomainName().equals("ROOT")) {
+
+            ImportCache.getInstance().clear();
+        }
+
+        if (content.getRevisionNumber() == 0) {
+            pageCache.removeAll(content.getId(), "$preview/");
+        } else {
+            pages = pageCache.removeAll(content.getId(), null);
+            for (int i = 0; compiler != null && i < pages.size(); i++) {
+                compiler.addPage(((Integer) pages.get(i)).intValue());
+            }
+        }
+    }
+
+    /**
+     * Starts compiling all file and page templates in the
+     * background. Once started, the background compiler will also
+     * recompile the page templates invalidated when pages or
+     * templates are published.
+     *
+     * @param manager        the content manager to use
+     * @param threads        the maximum number of compiler threads
+     */
+    public static void compileAll(ContentManager manager, int threads) {
+        stopCompiler();
+        compiler = new TemplateCompiler(baseDir, manager, threads);
+        compiler.addAll();
+    }
+
+    /**
+     * Stops the background template compiler. This method will not
+     * return until all the compiler threads have stopped. Nothing is
+     * done if the compiler hasn't been started.
+     */
+    public static void stopCompiler() {
+        TemplateCompiler  old = compiler;
+
+        compiler = null;
+        if (old != null) {
+            old.stop();
+        }
+    }
+
+    /**
+     * Returns the background template compiler.
+     *
+     * @return the background template compiler, or
+     *         null if not started
+     */
+    public static TemplateCompiler getCompiler() {
+        return compiler;
+    }
+
     /**
      * Returns a template from the file system. The file name must be
      * specified relative to the base directory used in the
@@ -167,11 +295,15 @@ public class TemplateManager {
     public static Template getFileTemplate(String path)
         throws TemplateException {
 
+        long  start = RequestTimer.begin(RequestTimer.TEMPLATE);
+
         try {
             return new Template(fileConfig.getTemplate(path));
         } catch (IOException e) {
             LOG.error(e.getMessage());
             throw new TemplateException("couldn't read " + path, e);
+        } finally {
+            RequestTimer.end(RequestTimer.TEMPLATE, start);
         }
     }
 
@@ -189,385 +321,193 @@ public class TemplateManager {
     public static Template getPageTemplate(User user, ContentPage page)
         throws TemplateException {
 
-        Template  template;
-        String    name;
-        String    message;
+        PageLoader                    loader = new PageLoader(page, user);
+        freemarker.template.Template  template;
+        String                        message;
+        long                          start;
 
+        start = RequestTimer.begin(RequestTimer.TEMPLATE);
         try {
-            pageLoader.setUser(user);
-            pageLoader.setPage(page);
-            if (page.getContentManager().isAdmin()) {
-                name = "$preview/" + page.getId() + "/root";
-            } else {
-                name = "$normal/" + page.getId() + "/root";
-            }
-            template = new Template(pageConfig.getTemplate(name));
-            return template;
+            template = pageConfig.getTemplate(loader,
+                                              loader.getRootName(),
+                                              null,
+                                              true);
+            return new Template(template, loader);
         } catch (IOException e) {
             message = "couldn't read page " + page.getId();
             LOG.error(message + ": " + e.getMessage());
             throw new TemplateException(message, e);
+        } finally {
+            RequestTimer.end(RequestTimer.TEMPLATE, start);
         }
     }
 
-
     /**
-     * A page template loader. This class provides the page elements
-     * to the FreeMarker template engine. Before a template is loaded
-     * with this loader, the corresponding content page must be set
-     * with the setPage() method. This class is thread-safe, as it
-     * uses a thread local storage for the pages.
+     * Compiles all the templates used by a content page. This
+     * includes the page root template and all templates included or
+     * imported with constant names, such as other page elements and
+     * ROOT domain templates. Templates referenced with dynamic names
+     * or included without parsing will be loaded when first used.
      *
-     * @author   Per Cederberg, <per at percederberg dot net>
-     * @version  1.0
+     * @param user           the user performing the operation
+     * @param page           the content page
+     *
+     * @return the number of templates compiled
+     *
+     * @throws TemplateException if some template couldn't be read
+     *             or parsed correctly
      */
-    private static class PageLoader implements TemplateLoader {
-
-        /**
-         * The content pages to load. This is a thread local variable
-         * as the loader needs to be thread-safe.
-         */
-        private ThreadLocal pages = new ThreadLocal();
-
-        /**
-         * The user performing the operation. This is a thread local
-         * variable as the loader needs to be thread-safe.
-         */
-        private ThreadLocal users = new ThreadLocal();
-
-        /**
-         * Creates a new page template loader.
-         */
-        public PageLoader() {
-            // No further initialization needed
-        }
-
-        /**
-         * Returns the content page to load (for the calling thread).
-         *
-         * @return the content page to load
-         */
-        public ContentPage getPage() {
-            return (ContentPage) pages.get();
-        }
-
-        /**
-         * Sets the content page to load (for the calling thread).
-         * This method should be called once before loading the
-         * template.
-         *
-         * @param page           the content page to load, or null
-         */
-        public void setPage(ContentPage page) {
-            pages.set(page);
-        }
-
-        /**
-         * Returns the user performing the operation (for the calling
-         * thread).
-         *
-         * @return the user performing the operation
-         */
-        public User getUser() {
-            return (User) users.get();
-        }
-
-        /**
-         * Sets the the user performing the operation (for the
-         * calling thread). This method should be called once before
-         * loading the template.
-         *
-         * @param user           the user performing the operation
-         */
-        public void setUser(User user) {
-            users.set(user);
-        }
+    static int compilePage(User user, ContentPage page)
+        throws TemplateException {
 
-        /**
-         * Returns the page element data. The template name specified
-         * either uniquely identifies a root template and page element,
-         * or ends with a page element name.
-         *
-         * @param name           the template name
-         *
-         * @return the page element data, or
-         *         null if not found
-         *
-         * @throws IOException if the page element couldn't be read
-         *             properly
-         */
-        public Object findTemplateSource(String name) throws IOException {
-            ContentPage  page = getPage();
-            String       elemName;
-            String       message;
-
-            // Check for missing page
-            LOG.trace("template lookup for page element " + name);
-            if (page == null) {
-                message = "page not found for page element " + name;
-                LOG.error(message);
-                throw new IOException(message);
-            }
+        PageLoader      loader = new PageLoader(page, user);
+        ArrayList       names = new ArrayList();
+        TemplateSource  source;
+        String          encoding = pageConfig.getDefaultEncoding();
+        String          name;
+        String          message;
 
-            // Extract page element data
+        names.add(loader.getRootName());
+        for (int i = 0; i < names.size(); i++) {
+            name = (String) names.get(i);
             try {
-                if (name.startsWith("$")) {
-                    elemName = name.substring(name.lastIndexOf("/") + 1);
-                    return page.getElement(getUser(), elemName);
-                } else {
-                    return findRootTemplateSource(page.getContentManager(),
-                                                  name);
-                }
-            } catch (ContentException e) {
-                message = "while reading page element " + name +
-                          ": " + e.getMessage();
-                LOG.error(message);
-                throw new IOException(e.getMessage());
-            } catch (ContentSecurityException e) {
-                message = "while reading page element " + name +
-                          ": " + e.getMessage();
-                LOG.error(message);
-                throw new IOException(e.getMessage());
-            }
-        }
-
-        /**
-         * Returns the root template element data. The template name
-         * specified must uniquely identify a root template and page
-         * element,
-         *
-         * @param manager        the content manager
-         * @param name           the template name
-         *
-         * @return the template source element found, or
-         *         null if not found
-         *
-         * @throws ContentException if the template element couldn't
-         *             be read properly
-         * @throws ContentSecurityException if the anonymous user
-         *             didn't have access to the template
-         */
-        public Object findRootTemplateSource(ContentManager manager,
-                                             String name)
-            throws ContentException, ContentSecurityException {
-
-            Domain           root = manager.getDomain(null, "ROOT");
-            ContentTemplate  template = null;
-            Content          content;
-            String           elemName;
-            int              pos;
-
-            while (name.indexOf("/") > 0) {
-                pos = name.indexOf("/");
-                elemName = name.substring(0, pos);
-                name = name.substring(pos + 1);
-                if (template == null) {
-                    content = manager.getContentChild(null, root, elemName);
-                } else {
-                    content = manager.getContentChild(null, template, elemName);
-                }
-                if (content instanceof ContentTemplate) {
-                    template = (ContentTemplate) content;
-                } else {
-                    throw new ContentException("failed to locate template " +
-                                               elemName + " in ROOT domain");
+                source = loader.findTemplateSource(name);
+                if (source == null) {
+                    throw new FileNotFoundException("template " + name +
+                                                    " not found");
                 }
+                pageCache.get(pageConfig, name, source, encoding, true);
+            } catch (IOException e) {
+                message = "couldn't read page " + page.getId() +
+                          " template " + name;
+                LOG.error(message + ": " + e.getMessage());
+                throw new TemplateException(message, e);
             }
-            if (template == null) {
-                throw new ContentException("invalid template import " + name +
-                                           " does not refer to page element");
-            }
-            if (template.getElement(manager, name) == null) {
-                return null;
-            } else {
-                return new TemplateSource(template, name);
-            }
+            findIncludes(name, source.getData(), names);
         }
+        return names.size();
+    }
 
-        /**
-         * Returns the last modification time for a template. This
-         * method always returns the current system time for all
-         * template sources except for root templates.
-         *
-         * @param source         the template source
-         *
-         * @return the current system time
-         */
-        public long getLastModified(Object source) {
-            ContentManager  manager;
-            TemplateSource  template;
-            Date            date = null;
-
-            if (source instanceof TemplateSource) {
-                template = (TemplateSource) source;
-                manager = getPage().getContentManager();
-                try {
-                    date = template.getLastModified(manager);
-                } catch (ContentException ignore) {
-                    // Defaults to not use cache
-                } catch (ContentSecurityException ignore) {
-                    // Defaults to not use cache
-                }
-            }
-            if (date == null) {
-                return System.currentTimeMillis();
+    /**
+     * Finds the templates included or imported by a page template.
+     * The template names are resolved relative to the including
+     * template in the same way as when processing the template. Any
+     * template names not already in the list will be added to it.
+     *
+     * @param name           the including template name
+     * @param data           the including template source
+     * @param names          the list of template names
+     */
+    private static void findIncludes(String name,
+                                     String data,
+                                     ArrayList names) {
+
+        Matcher  m = INCLUDE_RE.matcher(data);
+        String   dir = name.substring(0, name.lastIndexOf("/") + 1);
+        String   ref;
+
+        while (m.find()) {
+            ref = m.group(3);
+            if (TEXT_RE.matcher(m.group(4)).find()
+             || ref.indexOf("./") >= 0) {
+
+                continue;
+            } else if (ref.startsWith("/")) {
+                ref = ref.substring(1);
             } else {
-                return date.getTime();
+                ref = dir + ref;
             }
-        }
-
-        /**
-         * Returns a reader for a template.
-         *
-         * @param source         the template source
-         * @param encoding       the suggested encoding (ignored)
-         *
-         * @return a reader for the page element data
-         *
-         * @throws IOException if a template couldn't be accessed
-         *             properly
-         */
-        public Reader getReader(Object source, String encoding)
-            throws IOException {
-
-            TemplateSource  template;
-            String          data;
-
-            try {
-                if (source == null) {
-                    data = "";
-                } else if (source instanceof TemplateSource) {
-                    template = (TemplateSource) source;
-                    data = template.getData(getPage().getContentManager());
-                } else {
-                    data = source.toString();
-                }
-                return new StringReader(data);
-            } catch (ContentException e) {
-                throw new IOException(e.getMessage());
-            } catch (ContentSecurityException e) {
-                throw new IOException(e.getMessage());
+            if (!names.contains(ref)) {
+                names.add(ref);
             }
         }
-
-        /**
-         * Closes the FreeMarker template. This method does nothing.
-         *
-         * @param source         the template source
-         */
-        public void closeTemplateSource(Object source) {
-            // Nothing to do here
-        }
     }
 
 
     /**
-     * A template source element. This class is only a container for
-     * a template page element.
+     * A page template configuration. This class retrieves compiled
+     * page templates from the page template cache whenever possible,
+     * and only compiles templates that are missing or outdated.
+     * Templates included or imported from other page templates are
+     * also retrieved through this class.
      *
      * @author   Per Cederberg, <per at percederberg dot net>
      * @version  1.0
      */
-    private static class TemplateSource {
-
-        /**
-         * The unique template content id.
-         */
-        private int id;
-
-        /**
-         * The template page element name.
-         */
-        private String name;
-
-        /**
-         * Creates a new template element.
-         *
-         * @param template       the content template
-         * @param name           the page element name
-         */
-        public TemplateSource(ContentTemplate template, String name) {
-            this.id = template.getId();
-            this.name = name;
-        }
+    private static class PageConfiguration extends Configuration {
 
         /**
-         * Compares this object with another one. This method will
-         * only return true if the other object points to the same
-         * template source.
-         *
-         * @param obj            the object to compare with
-         *
-         * @return true if the objects are equal, or
-         *         false otherwise
+         * Creates a new page template configuration.
          */
-        public boolean equals(Object obj) {
-            if (obj instanceof TemplateSource) {
-                return id == ((TemplateSource) obj).id &&
-                       name.equals(((TemplateSource) obj).name);
-            } else {
-                return false;
-            }
+        public PageConfiguration() {
+            super();
         }
 
         /**
-         * Returns the template element last modification date.
+         * Returns a compiled page template. The page template loader
+         * is retrieved from the current processing environment, so
+         * this method can only be used for templates included or
+         * imported from a page template.
          *
-         * @param manager        the content manager
+         * @param name           the template name
+         * @param locale         the template locale (ignored)
+         * @param encoding       the template encoding
+         * @param parse          the parse template flag
          *
-         * @return the last modification date, or
-         *         null if the element shouldn't be cached
+         * @return the compiled page template
          *
-         * @throws ContentException if the template element couldn't
-         *             be read properly
-         * @throws ContentSecurityException if the anonymous user
-         *             didn't have access to the template
+         * @throws IOException if the page template couldn't be read
+         *             or parsed correctly
          */
-        public Date getLastModified(ContentManager manager)
-            throws ContentException, ContentSecurityException {
-
-            Content  content;
-            Date     date = null;
-
-            content = manager.getContent(null, id);
-            while (content != null) {
-                if (!content.isLatestRevision() ||
-                    !content.isPublishedRevision()) {
-
-                    return null;
-                }
-                if (date == null ||
-                    date.compareTo(content.getModifiedDate()) < 0) {
+        public freemarker.template.Template getTemplate(String name,
+                                                        Locale locale,
+                                                        String encoding,
+                                                        boolean parse)
+            throws IOException {
 
-                    date = content.getModifiedDate();
-                }
-                content = content.getParent(manager);
-            }
-            return date;
+            return getTemplate(PageLoader.getCurrent(), name, encoding, parse);
         }
 
         /**
-         * Returns the template element data.
+         * Returns a compiled page template. Cached templates are
+         * returned without locking if the page and template
+         * revisions are unchanged.
          *
-         * @param manager        the content manager
+         * @param loader         the page template loader
+         * @param name           the template name
+         * @param encoding       the template encoding, or null
+         * @param parse          the parse template flag
          *
-         * @return the template element data
+         * @return the compiled page template
          *
-         * @throws ContentException if the template element couldn't
-         *             be read properly
-         * @throws ContentSecurityException if the anonymous user
-         *             didn't have access to the template
+         * @throws IOException if the page template couldn't be read
+         *             or parsed correctly
          */
-        public String getData(ContentManager manager)
-            throws ContentException, ContentSecurityException {
+        public freemarker.template.Template getTemplate(PageLoader loader,
+                                                        String name,
+                                                        String encoding,
+                                                        boolean parse)
+            throws IOException {
 
-            Content  content;
+            TemplateSource  source;
+            Object          sample;
 
-            content = manager.getContent(null, id);
-            if (content instanceof ContentTemplate) {
-                return ((ContentTemplate) content).getElement(manager, name);
-            } else {
-                return "";
+            if (encoding == null) {
+                encoding = getDefaultEncoding();
+            }
+            while (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            sample = RequestProfiler.begin("template", name);
+            try {
+                source = loader.findTemplateSource(name);
+                if (source == null) {
+                    throw new FileNotFoundException("template " + name +
+                                                    " not found");
+                }
+                return pageCache.get(this, name, source, encoding, parse);
+            } finally {
+                RequestProfiler.end(sample);
             }
         }
     }
@@ -0,0 +1,366 @@
+/*
+ * TemplateSource.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.app.template;
+
+import java.util.ArrayList;
+import java.util.Date;
+
+import org.liquidsite.core.content.Content;
+import org.liquidsite.core.content.ContentException;
+import org.liquidsite.core.content.ContentManager;
+import org.liquidsite.core.content.ContentPage;
+import org.liquidsite.core.content.ContentSecurityException;
+import org.liquidsite.core.content.ContentTemplate;
+import org.liquidsite.core.content.User;
+
+/**
+ * A page element template source. This class contains the page
+ * element data together with the identifiers and revision numbers
+ * of all the content objects used to create it. Two template
+ * sources are equal only if they were created from the same
+ * revisions of the same content objects, making it possible to
+ * reuse compiled templates safely.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class TemplateSource {
+
+    /**
+     * The page element name.
+     */
+    private String name;
+
+    /**
+     * The page element data.
+     */
+    private String data;
+
+    /**
+     * The content page identifier, or zero (0) for root templates.
+     */
+    private int pageId = 0;
+
+    /**
+     * The content identifiers of the page or template chain.
+     */
+    private int[] ids;
+
+    /**
+     * The content revision numbers of the page or template chain.
+     */
+    private int[] revisions;
+
+    /**
+     * The last modification time of the page or template chain.
+     */
+    private long modified = 0;
+
+    /**
+     * Creates a new template source from a content page. The page
+     * element will be retrieved from the page or one of its
+     * templates.
+     *
+     * @param user           the user performing the operation
+     * @param page           the content page
+     * @param name           the page element name
+     *
+     * @return the template source created, or
+     *         null if the page element didn't exist
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     * @throws ContentSecurityException if the user didn't have read
+     *             access to the page template
+     */
+    public static TemplateSource createPageSource(User user,
+                                                  ContentPage page,
+                                                  String name)
+        throws ContentException, ContentSecurityException {
+
+        String  data = page.getElement(user, name);
+
+        if (data == null) {
+            return null;
+        } else {
+            return new TemplateSource(page.getContentManager(),
+                                      page,
+                                      page.getTemplate(user),
+                                      name,
+                                      data);
+        }
+    }
+
+    /**
+     * Creates a new template source from a root template. The page
+     * element will be retrieved from the template or one of its
+     * parents.
+     *
+     * @param manager        the content manager to use
+     * @param template       the content template
+     * @param name           the page element name
+     *
+     * @return the template source created, or
+     *         null if the page element didn't exist
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    public static TemplateSource createRootSource(ContentManager manager,
+                                                  ContentTemplate template,
+                                                  String name)
+        throws ContentException {
+
+        String  data = template.getElement(manager, name);
+
+        if (data == null) {
+            return null;
+        } else {
+            return new TemplateSource(manager, null, template, name, data);
+        }
+    }
+
+    /**
+     * Creates a new template source.
+     *
+     * @param manager        the content manager to use
+     * @param page           the content page, or null
+     * @param template       the first content template, or null
+     * @param name           the page element name
+     * @param data           the page element data
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    private TemplateSource(ContentManager manager,
+                           ContentPage page,
+                           ContentTemplate template,
+                           String name,
+                           String data)
+        throws ContentException {
+
+        ArrayList  list = new ArrayList();
+        Content    content;
+
+        this.name = name;
+        this.data = data;
+        if (page != null) {
+            pageId = page.getId();
+            list.add(page);
+        }
+        while (template != null) {
+            list.add(template);
+            if (template.getParentId() > 0) {
+                template = (ContentTemplate) template.getParent(manager);
+            } else {
+                template = null;
+            }
+        }
+        ids = new int[list.size()];
+        revisions = new int[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            content = (Content) list.get(i);
+            ids[i] = content.getId();
+            revisions[i] = content.getRevisionNumber();
+            modified = Math.max(modified, getTime(content));
+        }
+    }
+
+    /**
+     * Returns the last modification time of a content object.
+     *
+     * @param content        the content object
+     *
+     * @return the last modification time, or
+     *         zero (0) if unknown
+     */
+    private static long getTime(Content content) {
+        Date  date = content.getModifiedDate();
+
+        return (date == null) ? 0 : date.getTime();
+    }
+
+    /**
+     * Compares this object with another one. This method will only
+     * return true if the other object contains the same page
+     * element from the same content object revisions.
+     *
+     * @param obj            the object to compare with
+     *
+     * @return true if the objects are equal, or
+     *         false otherwise
+     */
+    public boolean equals(Object obj) {
+        TemplateSource  source;
+
+        if (obj instanceof TemplateSource) {
+            source = (TemplateSource) obj;
+            return name.equals(source.name) &&
+                   modified == source.modified &&
+                   equals(ids, source.ids) &&
+                   equals(revisions, source.revisions) &&
+                   data.equals(source.data);
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Compares two integer arrays for equality.
+     *
+     * @param a              the first array
+     * @param b              the second array
+     *
+     * @return true if the arrays are equal, or
+     *         false otherwise
+     */
+    private static boolean equals(int[] a, int[] b) {
+        if (a.length != b.length) {
+            return false;
+        }
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a hash code for this object.
+     *
+     * @return a hash code for this object
+     */
+    public int hashCode() {
+        int  hash = name.hashCode();
+
+        for (int i = 0; i < ids.length; i++) {
+            hash = hash * 31 + ids[i];
+            hash = hash * 31 + revisions[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Returns a string representation of this object.
+     *
+     * @return a string representation of this object
+     */
+    public String toString() {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (int i = 0; i < ids.length; i++) {
+            buffer.append(ids[i]);
+            buffer.append(".");
+            buffer.append(revisions[i]);
+            buffer.append("/");
+        }
+        buffer.append(name);
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the page element name.
+     *
+     * @return the page element name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the content page identifier.
+     *
+     * @return the content page identifier, or
+     *         zero (0) for root template sources
+     */
+    public int getPageId() {
+        return pageId;
+    }
+
+    /**
+     * Returns the page element data.
+     *
+     * @return the page element data
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * Returns the estimated memory size of a template compiled from
+     * this source. The estimate is based on the page element data
+     * length, as the compiled template retains a copy of the source
+     * text in addition to the parsed element tree.
+     *
+     * @return the estimated template size (in bytes)
+     */
+    public int getSize() {
+        return data.length() * 4 + 256;
+    }
+
+    /**
+     * Returns the last modification time. This is the most recent
+     * modification time of the page and template revisions used.
+     *
+     * @return the last modification time
+     */
+    public long getLastModified() {
+        return modified;
+    }
+
+    /**
+     * Checks if any of the content objects used have been modified
+     * since the specified time.
+     *
+     * @param manager        the content manager to use
+     * @param time           the time to compare with
+     *
+     * @return true if a content object has been modified, or
+     *         false otherwise
+     */
+    public boolean isModified(ContentManager manager, long time) {
+        for (int i = 0; i < ids.length; i++) {
+            if (manager.getLastModified(ids[i]) >= time) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if this template source depends on a content object.
+     *
+     * @param id             the content identifier
+     *
+     * @return true if the content object was used, or
+     *         false otherwise
+     */
+    public boolean dependsOn(int id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
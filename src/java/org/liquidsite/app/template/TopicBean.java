@@ -28,7 +28,6 @@ import org.liquidsite.core.content.ContentException;
 import org.liquidsite.core.content.ContentSecurityException;
 import org.liquidsite.core.content.ContentSelector;
 import org.liquidsite.core.content.ContentTopic;
-import org.liquidsite.core.text.PlainFormatter;
 import org.liquidsite.util.log.Log;
 
 /**
@@ -91,7 +90,7 @@ public class TopicBean extends ContentBean {
      *         an empty string if the topic doesn't exist
      */
     public String getSubject() {
-        return PlainFormatter.formatHtml(getSubjectSource());
+        return formatPlain("subject", getSubjectSource());
     }
 
     /**
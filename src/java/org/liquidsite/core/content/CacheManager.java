@@ -49,6 +49,22 @@ class CacheManager {
      */
     private static final CacheManager INSTANCE = new CacheManager();
 
+    /**
+     * The maximum number of entries in the content access cache.
+     */
+    private static final int MAX_ACCESS_ENTRIES = 100000;
+
+    /**
+     * The maximum number of users in the user group cache.
+     */
+    private static final int MAX_USER_GROUP_ENTRIES = 10000;
+
+    /**
+     * The maximum number of search filters in the user count cache
+     * for each domain.
+     */
+    private static final int MAX_USER_COUNT_ENTRIES = 100;
+
     /**
      * The cache manager instance.
      *
@@ -78,6 +94,37 @@ class CacheManager {
      */
     private HashMap sites = new HashMap();
 
+    /**
+     * The section tree cache. This is a map of section child maps,
+     * indexed by their domain name. Each child map contains lists
+     * of the child sections, indexed by the parent section
+     * identifier (or zero (0) for the root sections). Only the
+     * highest published revision of each section is used (no work
+     * revisions), but offline sections are also included.
+     */
+    private HashMap sectionTrees = new HashMap();
+
+    /**
+     * The user group cache. This is a map of user group maps,
+     * indexed by their domain name. Each user group map contains
+     * the arrays of groups that the users belong to, indexed by the
+     * user name.
+     */
+    private HashMap userGroups = new HashMap();
+
+    /**
+     * The number of users in the user group cache.
+     */
+    private int userGroupSize = 0;
+
+    /**
+     * The user count cache. This is a map of user count maps,
+     * indexed by their domain name. Each user count map contains
+     * the number of matching users, indexed by the user search
+     * filter.
+     */
+    private HashMap userCounts = new HashMap();
+
     /**
      * The content parent identifier cache. This is a map containing
      * content parent identifiers, indexed by the content identifiers.
@@ -104,6 +151,44 @@ class CacheManager {
      */
     private HashMap permissions = new HashMap();
 
+    /**
+     * The content access cache. This is a map of access maps,
+     * indexed by the content identifiers. Each access map contains
+     * the effective access bit masks for a content object, indexed
+     * by a user and group key. Only content objects where the work
+     * and the highest revision correlates will be added to this
+     * cache.
+     */
+    private HashMap access = new HashMap();
+
+    /**
+     * The number of entries in the content access cache.
+     */
+    private int accessSize = 0;
+
+    /**
+     * The content modification times. This is a map of the last
+     * modification time (in milliseconds) for each modified content
+     * object, indexed by the content identifier. A modification also
+     * updates the time for the content parent and any of its known
+     * ancestors.
+     */
+    private HashMap modifications = new HashMap();
+
+    /**
+     * The incomplete domain modification times. This is a map of the
+     * last modification time (in milliseconds) of a content object
+     * whose ancestors weren't all present in the parent cache,
+     * indexed by the domain name. These modifications may affect
+     * any content object in the domain.
+     */
+    private HashMap domainModifications = new HashMap();
+
+    /**
+     * The last complete cache flush time (in milliseconds).
+     */
+    private long flushTime = System.currentTimeMillis();
+
     /**
      * Creates a new content cache manager.
      */
@@ -176,23 +261,23 @@ class CacheManager {
             for (int i = 0; i < hosts.size(); i++) {
                 host = (DomainHost) hosts.get(i);
                 domainHosts.put(host.getName(), domain);
-                LOG.trace("cached host " + host.getName());
+                LOG.trace("cached host {}", host.getName());
             }
-            LOG.trace("cached domain " + domain.getName());
+            LOG.trace("cached domain {}", domain.getName());
         } else if (obj instanceof Content) {
             content = (Content) obj;
             if (content instanceof ContentSite) {
                 sites.remove(content.getDomainName());
-                LOG.trace("uncached site list for " +
+                LOG.trace("uncached site list for {}",
                           content.getDomainName());
             }
             if (content.isLatestRevision() && content.isPublishedRevision()) {
                 key = new Integer(content.getId());
                 parents.put(key, new Integer(content.getParentId()));
-                LOG.trace("cached content parent for " + key);
+                LOG.trace("cached content parent for {}", key);
                 if (content instanceof ContentTemplate) {
                     contents.put(key, content);
-                    LOG.trace("cached content object " + key);
+                    LOG.trace("cached content object {}", key);
                 }
             }
         } else if (obj instanceof PermissionList) {
@@ -206,7 +291,7 @@ class CacheManager {
                 perms = null;
             }
             permissions.put(key, perms);
-            LOG.trace("cached permission list for " + key);
+            LOG.trace("cached permission list for {}", key);
         }
     }
 
@@ -236,7 +321,98 @@ class CacheManager {
 
         addAll(content);
         sites.put(domain.getName(), content);
-        LOG.trace("cached site list for " + domain.getName());
+        LOG.trace("cached site list for {}", domain.getName());
+    }
+
+    /**
+     * Adds a section tree to the cache.
+     *
+     * @param domain         the domain name
+     * @param tree           the section child map
+     */
+    public synchronized void addSectionTree(String domain, HashMap tree) {
+        sectionTrees.put(domain, tree);
+        LOG.trace("cached section tree for {}", domain);
+    }
+
+    /**
+     * Adds an array of user groups to the cache. If the cache size
+     * limit is exceeded, all cached user groups are first removed.
+     *
+     * @param user           the user
+     * @param groups         the array of groups for the user
+     */
+    public synchronized void addUserGroups(User user, Group[] groups) {
+        HashMap  map;
+
+        if (userGroupSize >= MAX_USER_GROUP_ENTRIES) {
+            userGroups.clear();
+            userGroupSize = 0;
+            LOG.trace("cleared user group cache");
+        }
+        map = (HashMap) userGroups.get(user.getDomainName());
+        if (map == null) {
+            map = new HashMap();
+            userGroups.put(user.getDomainName(), map);
+        }
+        if (map.put(user.getName(), groups) == null) {
+            userGroupSize++;
+        }
+        LOG.trace("cached user groups for {}", user.getName());
+    }
+
+    /**
+     * Adds a user count to the cache. If the cache size limit for
+     * the domain is exceeded, all cached user counts for the domain
+     * are first removed.
+     *
+     * @param domain         the domain name
+     * @param filter         the user search filter
+     * @param count          the number of matching users
+     */
+    public synchronized void addUserCount(String domain,
+                                          String filter,
+                                          int count) {
+
+        HashMap  map = (HashMap) userCounts.get(domain);
+
+        if (map == null || map.size() >= MAX_USER_COUNT_ENTRIES) {
+            map = new HashMap();
+            userCounts.put(domain, map);
+        }
+        map.put(filter, new Integer(count));
+        LOG.trace("cached user count for '{}' in {}", filter, domain);
+    }
+
+    /**
+     * Adds an effective content access bit mask to the cache. The
+     * access mask will only be added if the content object is the
+     * latest published revision. If the cache size limit is
+     * exceeded, all cached access masks are first removed.
+     *
+     * @param content        the content object
+     * @param key            the user and group key
+     * @param mask           the access bit mask
+     */
+    public synchronized void addAccess(Content content, String key, int mask) {
+        Integer  id = new Integer(content.getId());
+        HashMap  map;
+
+        if (content.isLatestRevision() && content.isPublishedRevision()) {
+            if (accessSize >= MAX_ACCESS_ENTRIES) {
+                access.clear();
+                accessSize = 0;
+                LOG.trace("cleared content access cache");
+            }
+            map = (HashMap) access.get(id);
+            if (map == null) {
+                map = new HashMap();
+                access.put(id, map);
+            }
+            if (map.put(key, new Integer(mask)) == null) {
+                accessSize++;
+            }
+        }
     }
 
     /**
@@ -248,7 +424,11 @@ class CacheManager {
         Domain          domain;
         Content         content;
         PermissionList  perms;
+        User            user;
+        Group           group;
+        HashMap         map;
         Iterator        iter;
+        Integer         id;
 
         if (obj instanceof Domain) {
             domain = (Domain) obj;
@@ -260,36 +440,67 @@ class CacheManager {
                 }
             }
             sites.remove(domain.getName());
+            sectionTrees.remove(domain.getName());
+            removeUserGroups(domain.getName());
+            userCounts.remove(domain.getName());
             parents.clear();
             contents.clear();
             permissions.clear();
-            LOG.trace("uncached domain " + domain.getName());
+            removeAccess(null);
+            modifications.clear();
+            domainModifications.clear();
+            flushTime = System.currentTimeMillis();
+            LOG.trace("uncached domain {}", domain.getName());
         } else if (obj instanceof Content) {
             content = (Content) obj;
             if (obj instanceof ContentSite) {
                 sites.remove(content.getDomainName());
-                LOG.trace("uncached site list for " +
+                LOG.trace("uncached site list for {}",
+                          content.getDomainName());
+            }
+            if (obj instanceof ContentSection) {
+                sectionTrees.remove(content.getDomainName());
+                LOG.trace("uncached section tree for {}",
                           content.getDomainName());
             }
-            parents.remove(new Integer(content.getId()));
-            LOG.trace("uncached content parent for " + content.getId());
+            id = new Integer(content.getId());
+            addModification(content);
+            if (isLeaf(content) || isUnmoved(content)) {
+                removeAccess(id);
+            } else {
+                removeAccess(null);
+            }
+            parents.remove(id);
+            LOG.trace("uncached content parent for {}", id);
             if (obj instanceof ContentTemplate) {
-                contents.remove(new Integer(content.getId()));
-                LOG.trace("uncached content object " + content.getId());
+                contents.remove(id);
+                LOG.trace("uncached content object {}", id);
             }
-            permissions.remove(new Integer(content.getId()));
-            LOG.trace("uncached permission list for " + content.getId());
+            permissions.remove(id);
+            LOG.trace("uncached permission list for {}", id);
         } else if (obj instanceof PermissionList) {
             perms = (PermissionList) obj;
+            removeAccess(null);
             if (perms.getContentId() == 0) {
                 permissions.remove(perms.getDomainName());
-                LOG.trace("uncached permission list for " +
+                LOG.trace("uncached permission list for {}",
                           perms.getDomainName());
             } else {
-                permissions.remove(new Integer(perms.getContentId()));
-                LOG.trace("uncached permission list for " +
-                          perms.getContentId());
+                id = new Integer(perms.getContentId());
+                permissions.remove(id);
+                LOG.trace("uncached permission list for {}", id);
             }
+        } else if (obj instanceof User) {
+            user = (User) obj;
+            userCounts.remove(user.getDomainName());
+            map = (HashMap) userGroups.get(user.getDomainName());
+            if (map != null && map.remove(user.getName()) != null) {
+                userGroupSize--;
+                LOG.trace("uncached user groups for {}", user.getName());
+            }
+        } else if (obj instanceof Group) {
+            group = (Group) obj;
+            removeUserGroups(group.getDomainName());
         }
     }
 
@@ -301,12 +512,185 @@ class CacheManager {
         domains.clear();
         domainHosts.clear();
         sites.clear();
+        sectionTrees.clear();
+        userGroups.clear();
+        userGroupSize = 0;
+        userCounts.clear();
         parents.clear();
         contents.clear();
         permissions.clear();
+        removeAccess(null);
+        modifications.clear();
+        domainModifications.clear();
+        flushTime = System.currentTimeMillis();
         LOG.trace("cleared all caches");
     }
 
+    /**
+     * Removes all cached user groups in a domain.
+     *
+     * @param domain         the domain name
+     */
+    private void removeUserGroups(String domain) {
+        HashMap  map = (HashMap) userGroups.remove(domain);
+
+        if (map != null) {
+            userGroupSize -= map.size();
+            LOG.trace("uncached user groups for {}", domain);
+        }
+    }
+
+    /**
+     * Removes cached content access masks. Since access masks
+     * depend on the inherited permissions, any change to a
+     * permission list or to the content tree structure requires
+     * all access masks to be removed.
+     *
+     * @param id             the content identifier, or
+     *                       null for all content objects
+     */
+    private void removeAccess(Integer id) {
+        HashMap  map;
+
+        if (id == null) {
+            access.clear();
+            accessSize = 0;
+            LOG.trace("uncached all content access");
+        } else {
+            map = (HashMap) access.remove(id);
+            if (map != null) {
+                accessSize -= map.size();
+                LOG.trace("uncached content access for {}", id);
+            }
+        }
+    }
+
+    /**
+     * Checks if a content object cannot have any child objects. The
+     * access masks of a leaf content object are never inherited by
+     * other content objects.
+     *
+     * @param content        the content object to check
+     *
+     * @return true if the content object cannot have children, or
+     *         false otherwise
+     */
+    private boolean isLeaf(Content content) {
+        return content.getCategory() == Content.FILE_CATEGORY
+            || content.getCategory() == Content.POST_CATEGORY;
+    }
+
+    /**
+     * Checks if a content object is known to have the same parent
+     * as when it was cached. Content objects not present in the
+     * content parent cache are never considered to be unmoved.
+     *
+     * @param content        the content object to check
+     *
+     * @return true if the content parent is unchanged, or
+     *         false otherwise
+     */
+    private boolean isUnmoved(Content content) {
+        Integer  parent = (Integer) parents.get(new Integer(content.getId()));
+
+        return parent != null && parent.intValue() == content.getParentId();
+    }
+
+    /**
+     * Records a content object modification. The modification time
+     * will be set for the content object, its parent and all the
+     * ancestors present in the parent cache. If the content object
+     * was moved, the previous parent and its ancestors will also be
+     * marked as modified. If some ancestor is missing from the parent
+     * cache, the modification time will also be recorded for the
+     * whole domain. This method must be called before the content
+     * object is removed from the parent cache.
+     *
+     * @param content        the modified content object
+     */
+    private void addModification(Content content) {
+        Long     time = new Long(System.currentTimeMillis());
+        Integer  id = new Integer(content.getId());
+        Integer  previous = (Integer) parents.get(id);
+        boolean  complete;
+
+        modifications.put(id, time);
+        complete = addModification(new Integer(content.getParentId()), time);
+        if (previous != null && previous.intValue() != content.getParentId()) {
+            complete = addModification(previous, time) && complete;
+        }
+        if (!complete) {
+            domainModifications.put(content.getDomainName(), time);
+        }
+    }
+
+    /**
+     * Records a content object modification for a chain of parent
+     * objects. The modification time will be set for the specified
+     * content object and all the ancestors present in the parent
+     * cache.
+     *
+     * @param key            the content identifier
+     * @param time           the modification time
+     *
+     * @return true if the chain was complete up to the root, or
+     *         false if some ancestor wasn't in the parent cache
+     */
+    private boolean addModification(Integer key, Long time) {
+        int  depth = 0;
+
+        while (key != null && key.intValue() > 0) {
+            if (depth++ >= 100) {
+                return false;
+            }
+            modifications.put(key, time);
+            key = (Integer) parents.get(key);
+        }
+        return key != null;
+    }
+
+    /**
+     * Returns the last modification time for a content object. This
+     * includes modifications to any child content objects, as long
+     * as the parent chain was cached. If no modification has been
+     * recorded, the time of the last complete cache flush will be
+     * returned.
+     *
+     * @param id             the content identifier
+     *
+     * @return the last modification time (in milliseconds)
+     */
+    public synchronized long getModification(int id) {
+        Long  time = (Long) modifications.get(new Integer(id));
+
+        if (time == null) {
+            return flushTime;
+        } else {
+            return Math.max(time.longValue(), flushTime);
+        }
+    }
+
+    /**
+     * Returns the last modification time for a content object and
+     * all its descendants. In addition to the modifications recorded
+     * through the parent chain, this also includes any modification
+     * in the domain where the parent chain wasn't completely cached.
+     *
+     * @param domain         the domain name
+     * @param id             the content identifier
+     *
+     * @return the last modification time (in milliseconds)
+     */
+    public synchronized long getModification(String domain, int id) {
+        Long  time = (Long) domainModifications.get(domain);
+
+        if (time == null) {
+            return getModification(id);
+        } else {
+            return Math.max(time.longValue(), getModification(id));
+        }
+    }
+
     /**
      * Returns a collection of all domains in the cache.
      *
@@ -341,9 +725,9 @@ class CacheManager {
 
         domain = (Domain) domainHosts.get(name);
         if (domain == null) {
-            LOG.trace("cache miss on host " + name);
+            LOG.trace("cache miss on host {}", name);
         } else {
-            LOG.trace("cache hit on host " + name);
+            LOG.trace("cache hit on host {}", name);
         }
         return domain;
     }
@@ -360,6 +744,77 @@ class CacheManager {
         return (ContentSite[]) sites.get(domain.getName());
     }
 
+    /**
+     * Returns a section tree from the cache.
+     *
+     * @param domain         the domain name
+     *
+     * @return the section child map, or
+     *         null if not present in the cache
+     */
+    public synchronized HashMap getSectionTree(String domain) {
+        return (HashMap) sectionTrees.get(domain);
+    }
+
+    /**
+     * Returns an effective content access bit mask from the cache.
+     *
+     * @param content        the content object
+     * @param key            the user and group key
+     *
+     * @return the access bit mask, or
+     *         -1 if not present in the cache
+     */
+    public synchronized int getAccess(Content content, String key) {
+        HashMap  map = (HashMap) access.get(new Integer(content.getId()));
+        Integer  mask = null;
+
+        if (map != null
+         && content.isLatestRevision()
+         && content.isPublishedRevision()) {
+
+            mask = (Integer) map.get(key);
+        }
+        return (mask == null) ? -1 : mask.intValue();
+    }
+
+    /**
+     * Returns the groups for a user from the cache.
+     *
+     * @param user           the user
+     *
+     * @return the array of groups for the user, or
+     *         null if not present in the cache
+     */
+    public synchronized Group[] getUserGroups(User user) {
+        HashMap  map = (HashMap) userGroups.get(user.getDomainName());
+
+        if (map == null) {
+            return null;
+        } else {
+            return (Group[]) map.get(user.getName());
+        }
+    }
+
+    /**
+     * Returns a user count from the cache.
+     *
+     * @param domain         the domain name
+     * @param filter         the user search filter
+     *
+     * @return the number of matching users, or
+     *         -1 if not present in the cache
+     */
+    public synchronized int getUserCount(String domain, String filter) {
+        HashMap  map = (HashMap) userCounts.get(domain);
+        Integer  count = null;
+
+        if (map != null) {
+            count = (Integer) map.get(filter);
+        }
+        return (count == null) ? -1 : count.intValue();
+    }
+
     /**
      * Returns a content object from the cache.
      *
@@ -369,13 +824,14 @@ class CacheManager {
      *         null if not present in the cache
      */
     public Content getContent(int id) {
+        Integer  key = new Integer(id);
         Content  content;
 
-        content = (Content) contents.get(new Integer(id));
+        content = (Content) contents.get(key);
         if (content == null) {
-            LOG.trace("cache miss on content object " + id);
+            LOG.trace("cache miss on content object {}", key);
         } else {
-            LOG.trace("cache hit on content object " + id);
+            LOG.trace("cache hit on content object {}", key);
         }
         return content;
     }
@@ -396,15 +852,15 @@ class CacheManager {
         }
         perms = (PermissionList) permissions.get(domain.getName());
         if (!permissions.containsKey(domain.getName())) {
-            LOG.trace("cache miss on permission list for " +
+            LOG.trace("cache miss on permission list for {}",
                       domain.getName());
             return null;
         } else if (perms == null) {
-            LOG.trace("cache hit on empty permission list for " +
+            LOG.trace("cache hit on empty permission list for {}",
                       domain.getName());
             return new PermissionList(domain.getContentManager(), domain);
         } else {
-            LOG.trace("cache hit on permission list for " +
+            LOG.trace("cache hit on permission list for {}",
                       domain.getName());
             return perms;
         }
@@ -423,19 +879,21 @@ class CacheManager {
      */
     public PermissionList getPermissions(Content content, boolean inherit) {
         PermissionList  perms;
+        Integer         id;
         Object          key;
 
         if (content == null) {
             return null;
         }
-        key = new Integer(content.getId());
+        id = new Integer(content.getId());
+        key = id;
         perms = (PermissionList) permissions.get(key);
         if (inherit) {
             while (perms == null && permissions.containsKey(key)) {
                 key = parents.get(key);
                 if (key == null) {
-                    LOG.trace("cache miss on permission list for " +
-                              content.getId() + " due to uncached parents");
+                    LOG.trace("cache miss on permission list for {} " +
+                              "due to uncached parents", id);
                     return null;
                 } else if (key instanceof Integer
                         && ((Integer) key).intValue() == 0) {
@@ -446,16 +904,13 @@ class CacheManager {
             }
         }
         if (!permissions.containsKey(key)) {
-            LOG.trace("cache miss on permission list for " +
-                      content.getId());
+            LOG.trace("cache miss on permission list for {}", id);
             return null;
         } else if (perms == null) {
-            LOG.trace("cache hit on empty permission list for " +
-                      content.getId());
+            LOG.trace("cache hit on empty permission list for {}", id);
             return new PermissionList(content.getContentManager(), content);
         } else {
-            LOG.trace("cache hit on permission list for " +
-                      content.getId());
+            LOG.trace("cache hit on permission list for {}", id);
             return perms;
         }
     }
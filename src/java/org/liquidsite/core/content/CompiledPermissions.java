@@ -0,0 +1,147 @@
+/*
+ * CompiledPermissions.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.core.content;
+
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A compiled permission list. This class contains the permissions
+ * from a permission list in a form suitable for fast access checks.
+ * The access levels are represented as a bit mask, with one bit for
+ * each security manager access level. The group permissions are
+ * stored as bit sets over the domain group index numbers.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class CompiledPermissions {
+
+    /**
+     * The access mask for permissions matching anyone.
+     */
+    private int anyone = 0;
+
+    /**
+     * The user access masks. This is a map of access masks, indexed
+     * by the user name.
+     */
+    private HashMap users = new HashMap();
+
+    /**
+     * The group bit sets. This array contains one group bit set for
+     * each access level.
+     */
+    private BitSet[] groups = new BitSet[SecurityManager.ADMIN + 1];
+
+    /**
+     * Creates a new compiled permission list.
+     *
+     * @param domain         the permission domain name
+     * @param perms          the permissions to compile
+     */
+    public CompiledPermissions(String domain, Permission[] perms) {
+        GroupIndex  index = GroupIndex.getInstance();
+        Integer     value;
+        int         mask;
+        int         pos;
+
+        for (int i = 0; i < perms.length; i++) {
+            mask = getMask(perms[i]);
+            if (perms[i].getUserName().length() > 0) {
+                value = (Integer) users.get(perms[i].getUserName());
+                if (value != null) {
+                    mask |= value.intValue();
+                }
+                users.put(perms[i].getUserName(), new Integer(mask));
+            } else if (perms[i].getGroupName().length() > 0) {
+                pos = index.getIndex(domain, perms[i].getGroupName());
+                for (int j = SecurityManager.READ; j < groups.length; j++) {
+                    if ((mask & (1 << j)) != 0) {
+                        if (groups[j] == null) {
+                            groups[j] = new BitSet();
+                        }
+                        groups[j].set(pos);
+                    }
+                }
+            } else {
+                anyone |= mask;
+            }
+        }
+    }
+
+    /**
+     * Returns the access bit mask for a permission.
+     *
+     * @param perm           the permission
+     *
+     * @return the access bit mask
+     */
+    private int getMask(Permission perm) {
+        int  mask = 0;
+
+        if (perm.getRead()) {
+            mask |= 1 << SecurityManager.READ;
+        }
+        if (perm.getWrite()) {
+            mask |= 1 << SecurityManager.WRITE;
+        }
+        if (perm.getPublish()) {
+            mask |= 1 << SecurityManager.PUBLISH;
+        }
+        if (perm.getAdmin()) {
+            mask |= 1 << SecurityManager.ADMIN;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the access bit mask for a user. The user groups must
+     * be specified as a bit set over the domain group index numbers.
+     *
+     * @param user           the user, or null for none
+     * @param groupBits      the user group bit set, or null for none
+     *
+     * @return the access bit mask for the user
+     */
+    public int getAccess(User user, BitSet groupBits) {
+        int      mask = anyone;
+        Integer  value;
+
+        if (user == null) {
+            return mask;
+        }
+        value = (Integer) users.get(user.getName());
+        if (value != null) {
+            mask |= value.intValue();
+        }
+        for (int i = SecurityManager.READ; i < groups.length; i++) {
+            if (groupBits != null
+             && groups[i] != null
+             && groups[i].intersects(groupBits)) {
+
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 
 import org.liquidsite.util.db.DatabaseConnector;
@@ -223,6 +224,31 @@ public class ContentManager {
         return res;
     }
 
+    /**
+     * Returns an array of all domains in the system. This method
+     * does not perform any access checks, and should only be used
+     * for internal maintenance tasks.
+     *
+     * @return an array of all domains
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    public Domain[] getAllDomains() throws ContentException {
+        CacheManager  cache = CacheManager.getInstance();
+        ArrayList     list;
+        Domain[]      res;
+
+        if (cache.getAllDomains().isEmpty()) {
+            getDomain("ROOT");
+        }
+        list = new ArrayList(cache.getAllDomains());
+        Collections.sort(list);
+        res = new Domain[list.size()];
+        list.toArray(res);
+        return res;
+    }
+
     /**
      * Returns a domain with the specified name.
      *
@@ -329,6 +355,37 @@ public class ContentManager {
         return content;
     }
 
+    /**
+     * Returns the last modification time for a content object or any
+     * of its children. Modifications are tracked by the content
+     * cache, so for objects not modified since the last cache flush
+     * the time of that flush will be returned.
+     *
+     * @param id             the content identifier
+     *
+     * @return the last modification time (in milliseconds)
+     */
+    public long getLastModified(int id) {
+        return CacheManager.getInstance().getModification(id);
+    }
+
+    /**
+     * Returns the last modification time for a content object or any
+     * of its descendants. This method should be used when the time
+     * must include modifications to all descendants, including
+     * those whose parent chain wasn't present in the content cache.
+     * In that case, the time of the last such modification in the
+     * domain will be returned.
+     *
+     * @param domain         the domain name
+     * @param id             the content identifier
+     *
+     * @return the last modification time (in milliseconds)
+     */
+    public long getLastModified(String domain, int id) {
+        return CacheManager.getInstance().getModification(domain, id);
+    }
+
     /**
      * Returns the content object with the specified identifier and
      * highest revision readable by the user.
@@ -508,6 +565,111 @@ public class ContentManager {
         return postProcess(user, children);
     }
 
+    /**
+     * Returns the identifiers of a section and all its user readable
+     * subsections. Subsections that are offline or not readable by
+     * the user are excluded, together with all their subsections.
+     * The section tree for each domain is retrieved with a single
+     * query and cached until a section in the domain is modified,
+     * while the online status and read access are checked on each
+     * call.
+     *
+     * @param user           the user requesting the content
+     * @param section        the content section
+     *
+     * @return the section and subsection identifiers
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    public int[] getSectionTree(User user, ContentSection section)
+        throws ContentException {
+
+        HashMap    tree = getSectionTree(section.getDomainName());
+        ArrayList  list = new ArrayList();
+        ArrayList  children;
+        ArrayList  online = new ArrayList();
+        Content    parent;
+        Content    child;
+        Content[]  readable;
+        int[]      res;
+
+        list.add(section);
+        for (int i = 0; i < list.size(); i++) {
+            parent = (Content) list.get(i);
+            children = (ArrayList) tree.get(new Integer(parent.getId()));
+            if (children == null) {
+                continue;
+            }
+            online.clear();
+            for (int j = 0; j < children.size(); j++) {
+                child = (Content) children.get(j);
+                if (isAdmin() || child.isOnline()) {
+                    online.add(child);
+                }
+            }
+            readable = new Content[online.size()];
+            online.toArray(readable);
+            readable = postProcess(user, readable);
+            for (int j = 0; j < readable.length; j++) {
+                list.add(readable[j]);
+            }
+        }
+        res = new int[list.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = ((Content) list.get(i)).getId();
+        }
+        return res;
+    }
+
+    /**
+     * Returns the section tree for a domain. The section tree maps
+     * each parent identifier to a list of child sections. All
+     * sections are included regardless of their online status, so
+     * the cached tree remains valid over time.
+     *
+     * @param domain         the domain name
+     *
+     * @return the section child map
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    private HashMap getSectionTree(String domain)
+        throws ContentException {
+
+        CacheManager     cache = CacheManager.getInstance();
+        HashMap          tree = null;
+        ArrayList        children;
+        ContentSelector  selector;
+        Content[]        sections;
+        Integer          key;
+
+        if (!isAdmin()) {
+            tree = cache.getSectionTree(domain);
+        }
+        if (tree == null) {
+            tree = new HashMap();
+            selector = new ContentSelector(domain);
+            selector.requireCategory(Content.SECTION_CATEGORY);
+            selector.includeOffline();
+            sections = InternalContent.findBySelector(this, selector);
+            for (int i = 0; i < sections.length; i++) {
+                key = new Integer(sections[i].getParentId());
+                children = (ArrayList) tree.get(key);
+                if (children == null) {
+                    children = new ArrayList();
+                    tree.put(key, children);
+                }
+                children.add(sections[i]);
+            }
+            if (!isAdmin()) {
+                cache.addSectionTree(domain, tree);
+            }
+        }
+        return tree;
+    }
+
     /**
      * Returns the number of content objects matching the selector.
      * Only the highest revision of each object will be returned. Note
@@ -678,7 +840,9 @@ public class ContentManager {
 
     /**
      * Returns the number of users in a specified domain. Only users
-     * with matching names will be counted.
+     * with a name, real name or email address starting with the
+     * search filter will be counted. The user counts are cached
+     * until a user in the domain is modified.
      *
      * @param domain         the domain, or null for superusers
      * @param filter         the user search filter (empty for all)
@@ -691,13 +855,23 @@ public class ContentManager {
     public int getUserCount(Domain domain, String filter)
         throws ContentException {
 
-        return User.countByDomain(this, domain, filter);
+        CacheManager  cache = CacheManager.getInstance();
+        String        name = (domain == null) ? "" : domain.getName();
+        int           count;
+
+        count = cache.getUserCount(name, filter);
+        if (count < 0) {
+            count = User.countByDomain(this, domain, filter);
+            cache.addUserCount(name, filter, count);
+        }
+        return count;
     }
 
     /**
      * Returns an array of users in a specified domain. Only users
-     * with matching names will be returned. Also, only a limited
-     * interval of the matching users will be returned.
+     * with a name, real name or email address starting with the
+     * search filter will be returned. Also, only a limited interval
+     * of the matching users will be returned.
      *
      * @param domain         the domain, or null for superusers
      * @param filter         the user search filter (empty for all)
@@ -791,12 +965,16 @@ public class ContentManager {
             domain = getDomain("ROOT");
         }
         sites = getSites(domain);
-        LOG.trace("evaluating " + sites.length + " sites");
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("evaluating " + sites.length + " sites");
+        }
         for (int i = 0; i < sites.length; i++) {
             match = sites[i].match(protocol, hostname, port, path);
-            LOG.trace("site " + sites[i] + " match value: " + match +
-                      ", online: " + sites[i].isOnline() +
-                      ", revision: " + sites[i].getRevisionNumber());
+            if (LOG.isTraceEnabled()) {
+                LOG.trace("site " + sites[i] + " match value: " + match +
+                          ", online: " + sites[i].isOnline() +
+                          ", revision: " + sites[i].getRevisionNumber());
+            }
             if (sites[i].isOnline()
              && sites[i].getRevisionNumber() > 0
              && match > max) {
@@ -862,20 +1040,6 @@ public class ContentManager {
     private Content[] postProcess(User user, Content[] content)
         throws ContentException {
 
-        ArrayList  list = new ArrayList(content.length);
-        Content[]  res;
-
-        for (int i = 0; i < content.length; i++) {
-            if (content[i].hasReadAccess(user)) {
-                list.add(content[i]);
-            }
-        }
-        if (content.length == list.size()) {
-            res = content;
-        } else {
-            res = new Content[list.size()];
-            list.toArray(res);
-        }
-        return res;
+        return SecurityManager.getInstance().filterReadAccess(user, content);
     }
 }
@@ -37,6 +37,11 @@ public class ContentSelector {
      */
     private ContentQuery query;
 
+    /**
+     * The include offline content flag.
+     */
+    private boolean offline = false;
+
     /**
      * Creates a new content selector for the specified domain. Note
      * that this content selector cannot return content objects from
@@ -81,6 +86,19 @@ public class ContentSelector {
         query.requireParent(parent.getId());
     }
 
+    /**
+     * Adds a set of content parent requirements. By default any
+     * content parent will be accepted. This method is equivalent to
+     * calling requireParent() once for each parent.
+     *
+     * @param ids            the parent content identifiers
+     */
+    public void requireParents(int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            query.requireParent(ids[i]);
+        }
+    }
+
     /**
      * Sets the content category requirement. By default any content
      * category will be accepted.
@@ -198,6 +216,16 @@ public class ContentSelector {
         query.limitResults(start, count);
     }
 
+    /**
+     * Includes offline content objects in the selection. By default
+     * only online content objects are selected, unless the content
+     * manager is in admin mode. Note that the online status must be
+     * checked separately when this is used.
+     */
+    void includeOffline() {
+        offline = true;
+    }
+
     /**
      * Returns the content query corresponding to this selector. The
      * query will be adjusted to compensate for the online and sorting
@@ -209,7 +237,7 @@ public class ContentSelector {
      */
     ContentQuery getContentQuery(ContentManager manager) {
         query.requirePublished(!manager.isAdmin());
-        query.requireOnline(!manager.isAdmin());
+        query.requireOnline(!manager.isAdmin() && !offline);
         if (!query.isSorting()) {
             if (manager.isAdmin()) {
                 query.sortByKey(ContentQuery.CATEGORY_KEY, true);
@@ -55,6 +55,11 @@ public class Domain extends PersistentObject implements Comparable {
      */
     private static final String MAIL_FROM_ATTRIBUTE = "MAIL.FROM";
 
+    /**
+     * The mail batch size attribute name.
+     */
+    private static final String MAIL_BATCH_ATTRIBUTE = "MAIL.BATCH";
+
     /**
      * The host attribute name.
      */
@@ -72,6 +77,11 @@ public class Domain extends PersistentObject implements Comparable {
     public static final String HOST_NAME_CHARS =
         LOWER_CASE + NUMBERS + BINDERS + ".";
 
+    /**
+     * The maximum mail batch size.
+     */
+    public static final int MAX_MAIL_BATCH_SIZE = 100;
+
     /**
      * The domain data object.
      */
@@ -336,6 +346,52 @@ public class Domain extends PersistentObject implements Comparable {
         }
     }
 
+    /**
+     * Returns the mail batch size. Mails sent to groups in the domain
+     * will be sent with up to this number of hidden (BCC) recipients
+     * in each message. If the batch size is zero (0), each group
+     * member will receive an individual message instead. The batch
+     * size is never larger than MAX_MAIL_BATCH_SIZE.
+     *
+     * @return the mail batch size, or
+     *         zero (0) for individual messages
+     */
+    public int getMailBatchSize() {
+        String  str = (String) attributes.get(MAIL_BATCH_ATTRIBUTE);
+        int     size;
+
+        try {
+            size = (str == null) ? 0 : Integer.parseInt(str);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        if (size <= 1) {
+            return 0;
+        } else {
+            return Math.min(size, MAX_MAIL_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * Sets the mail batch size. Mails sent to groups in the domain
+     * will be sent with up to this number of hidden (BCC) recipients
+     * in each message. If the batch size is zero (0) or one (1), each
+     * group member will receive an individual message instead.
+     * Batch sizes larger than MAX_MAIL_BATCH_SIZE will be reduced
+     * to the maximum size.
+     *
+     * @param size           the new batch size, or zero (0) for
+     *                       individual messages
+     */
+    public void setMailBatchSize(int size) {
+        if (size <= 1) {
+            attributes.remove(MAIL_BATCH_ATTRIBUTE);
+        } else {
+            size = Math.min(size, MAX_MAIL_BATCH_SIZE);
+            attributes.put(MAIL_BATCH_ATTRIBUTE, String.valueOf(size));
+        }
+    }
+
     /**
      * Returns the permission list applicable to this domain object. 
      * If the object has no permissions an empty permission list will
@@ -379,6 +379,32 @@ public class Group extends PersistentObject {
                                 maxLength);
     }
 
+    /**
+     * Returns an iterator over all the users that belong to this
+     * group. The users are retrieved from the database in blocks
+     * while iterating, so very large groups can be traversed
+     * without keeping all users in memory.
+     *
+     * @return an iterator over the users belonging to this group
+     */
+    public GroupMemberIterator getUserIterator() {
+        return new GroupMemberIterator(this, "");
+    }
+
+    /**
+     * Returns an iterator over the users that belong to this group
+     * and follow a specified user name. The users are ordered by
+     * name, so this method can be used to resume an earlier
+     * iteration.
+     *
+     * @param name           the previous user name (empty for none)
+     *
+     * @return an iterator over the users belonging to this group
+     */
+    public GroupMemberIterator getUserIterator(String name) {
+        return new GroupMemberIterator(this, name);
+    }
+
     /**
      * Adds the specified user to this  group. This action will not
      * take effect until this object is saved.
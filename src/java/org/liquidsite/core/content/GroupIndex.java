@@ -0,0 +1,89 @@
+/*
+ * GroupIndex.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.core.content;
+
+import java.util.HashMap;
+
+/**
+ * A domain group index. This class assigns a small unique index
+ * number to each group in a domain, allowing sets of groups to be
+ * represented as bit sets. The index numbers are never reused or
+ * removed, so they remain valid for the lifetime of the application.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class GroupIndex {
+
+    /**
+     * The one and only group index instance.
+     */
+    private static final GroupIndex INSTANCE = new GroupIndex();
+
+    /**
+     * The group index instance.
+     *
+     * @return the group index instance
+     */
+    public static GroupIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The domain group index maps. This is a map of group index
+     * maps, indexed by the domain name. Each group index map
+     * contains the group index numbers, indexed by the group name.
+     */
+    private HashMap domains = new HashMap();
+
+    /**
+     * Creates a new domain group index.
+     */
+    private GroupIndex() {
+        // No initialization needed
+    }
+
+    /**
+     * Returns the index number for a group. If the group has no
+     * index number, a new one will be assigned.
+     *
+     * @param domain         the group domain name
+     * @param group          the group name
+     *
+     * @return the group index number
+     */
+    public synchronized int getIndex(String domain, String group) {
+        HashMap  groups = (HashMap) domains.get(domain);
+        Integer  index;
+
+        if (groups == null) {
+            groups = new HashMap();
+            domains.put(domain, groups);
+        }
+        index = (Integer) groups.get(group);
+        if (index == null) {
+            index = new Integer(groups.size());
+            groups.put(group, index);
+        }
+        return index.intValue();
+    }
+}
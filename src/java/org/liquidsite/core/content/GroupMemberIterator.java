@@ -0,0 +1,119 @@
+/*
+ * GroupMemberIterator.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.core.content;
+
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator over the users in a group. The users are retrieved
+ * from the database in blocks ordered by user name, with each block
+ * starting after the last user name in the previous one. Only a
+ * single block of users is kept in memory at any time. This class
+ * does not implement the java.util.Iterator interface, as the
+ * database access may fail with a checked exception.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class GroupMemberIterator {
+
+    /**
+     * The maximum number of users to retrieve at once.
+     */
+    private static final int BLOCK_SIZE = 100;
+
+    /**
+     * The group being iterated.
+     */
+    private Group group;
+
+    /**
+     * The current block of users.
+     */
+    private User[] users = null;
+
+    /**
+     * The current position in the user block.
+     */
+    private int position = 0;
+
+    /**
+     * The last user name retrieved from the database.
+     */
+    private String lastName = "";
+
+    /**
+     * Creates a new group member iterator.
+     *
+     * @param group          the group to iterate over
+     * @param name           the previous user name (empty for none)
+     */
+    GroupMemberIterator(Group group, String name) {
+        this.group = group;
+        this.lastName = name;
+    }
+
+    /**
+     * Checks if there are more users in the group. This method may
+     * retrieve the next block of users from the database.
+     *
+     * @return true if there are more users, or
+     *         false otherwise
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    public boolean hasNext() throws ContentException {
+        if (users != null && position < users.length) {
+            return true;
+        } else if (users != null && users.length < BLOCK_SIZE) {
+            return false;
+        }
+        users = User.findByGroupAfter(group.getContentManager(),
+                                      group,
+                                      lastName,
+                                      BLOCK_SIZE);
+        position = 0;
+        if (users.length > 0) {
+            lastName = users[users.length - 1].getName();
+        }
+        return users.length > 0;
+    }
+
+    /**
+     * Returns the next user in the group.
+     *
+     * @return the next user in the group
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     * @throws NoSuchElementException if there are no more users in
+     *             the group
+     */
+    public User next() throws ContentException, NoSuchElementException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("no more users in group " +
+                                             group.getName());
+        }
+        return users[position++];
+    }
+}
@@ -60,6 +60,12 @@ public class PermissionList extends PersistentObject {
      */
     private ArrayList permissions = new ArrayList();
 
+    /**
+     * The compiled permission list. This field is set to null when
+     * the permission list is modified.
+     */
+    private CompiledPermissions compiled = null;
+
     /**
      * Returns a permission list for the specified domain object. Note
      * that this method only returns the list of permissions set on
@@ -298,6 +304,23 @@ public class PermissionList extends PersistentObject {
         return res;
     }
 
+    /**
+     * Returns the compiled form of this permission list. The
+     * compiled permission list is created once and reused until
+     * the permission list is modified.
+     *
+     * @return the compiled permission list
+     */
+    CompiledPermissions getCompiled() {
+        CompiledPermissions  res = compiled;
+
+        if (res == null) {
+            res = new CompiledPermissions(domain, getPermissions());
+            compiled = res;
+        }
+        return res;
+    }
+
     /**
      * Sets the content of the permission list. All previous
      * permissions will be removed by this method.
@@ -305,6 +328,7 @@ public class PermissionList extends PersistentObject {
      * @param permissions     the new array of permissions
      */
     public void setPermissions(Permission[] permissions) {
+        compiled = null;
         this.permissions.clear();
         for (int i = 0; i < permissions.length; i++) {
             this.permissions.add(permissions[i]);
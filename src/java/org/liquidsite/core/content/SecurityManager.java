@@ -21,6 +21,11 @@
 
 package org.liquidsite.core.content;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import org.liquidsite.util.stats.RequestTimer;
+
 /**
  * A content security manager. This class will be called to check all
  * protected operations on domain and content objects. Other database
@@ -35,22 +40,22 @@ class SecurityManager {
     /**
      * The read access level.
      */
-    private static final int READ = 1;
+    static final int READ = 1;
 
     /**
      * The write access level.
      */
-    private static final int WRITE = 2;
+    static final int WRITE = 2;
 
     /**
      * The publish access level.
      */
-    private static final int PUBLISH = 3;
+    static final int PUBLISH = 3;
 
     /**
      * The admin access level.
      */
-    private static final int ADMIN = 4;
+    static final int ADMIN = 4;
 
     /**
      * The one and only security manager instance.
@@ -149,6 +154,61 @@ class SecurityManager {
         return hasAccess(user, obj, ADMIN);
     }
 
+    /**
+     * Filters an array of content objects for read access. The
+     * user groups and the user and group cache key are only
+     * computed once for all the content objects.
+     *
+     * @param user           the user to check, or null for none
+     * @param content        the content objects to check
+     *
+     * @return the content objects readable by the user
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    public Content[] filterReadAccess(User user, Content[] content)
+        throws ContentException {
+
+        ArrayList  list = new ArrayList(content.length);
+        BitSet     groups = null;
+        String     key = null;
+        String     anonymous = getAccessKey(null, null);
+        Content[]  res;
+        long       start;
+
+        if (user != null && user.isSuperUser()) {
+            return content;
+        }
+        start = RequestTimer.begin(RequestTimer.SECURITY);
+        try {
+            if (user != null) {
+                groups = user.getGroupBits();
+                key = getAccessKey(user, groups);
+            }
+            for (int i = 0; i < content.length; i++) {
+                if (user == null
+                 || !user.getDomainName().equals(content[i].getDomainName())) {
+
+                    if (hasAccess(null, null, anonymous, content[i], READ)) {
+                        list.add(content[i]);
+                    }
+                } else if (hasAccess(user, groups, key, content[i], READ)) {
+                    list.add(content[i]);
+                }
+            }
+        } finally {
+            RequestTimer.end(RequestTimer.SECURITY, start);
+        }
+        if (content.length == list.size()) {
+            res = content;
+        } else {
+            res = new Content[list.size()];
+            list.toArray(res);
+        }
+        return res;
+    }
+
     /**
      * Checks the access for a user on a persistent object. In the
      * absence of permissions or if a permission isn't applicable,
@@ -167,35 +227,41 @@ class SecurityManager {
     private boolean hasAccess(User user, PersistentObject obj, int access)
         throws ContentException {
 
-        if (obj instanceof Domain) {
-            return hasAccess(user, (Domain) obj, access);
-        } else if (obj instanceof Content) {
-            return hasAccess(user, (Content) obj, access);
-        } else if (obj instanceof PermissionList) {
-            if (((PermissionList) obj).getContentId() > 0) {
-                obj = ((PermissionList) obj).getContent();
-            } else {
-                obj = ((PermissionList) obj).getDomain();
-            }
-            if (access == READ) {
-                return hasAccess(user, obj, READ);
-            } else if (access == WRITE) {
-                return hasAccess(user, obj, ADMIN);
-            } else {
-                return false;
-            }
-        } else if (obj instanceof Lock) {
-            if (access == READ || access == WRITE) {
-                return hasAccess(user, ((Lock) obj).getContent(), access);
+        long  start = RequestTimer.begin(RequestTimer.SECURITY);
+
+        try {
+            if (obj instanceof Domain) {
+                return hasAccess(user, (Domain) obj, access);
+            } else if (obj instanceof Content) {
+                return hasAccess(user, (Content) obj, access);
+            } else if (obj instanceof PermissionList) {
+                if (((PermissionList) obj).getContentId() > 0) {
+                    obj = ((PermissionList) obj).getContent();
+                } else {
+                    obj = ((PermissionList) obj).getDomain();
+                }
+                if (access == READ) {
+                    return hasAccess(user, obj, READ);
+                } else if (access == WRITE) {
+                    return hasAccess(user, obj, ADMIN);
+                } else {
+                    return false;
+                }
+            } else if (obj instanceof Lock) {
+                if (access == READ || access == WRITE) {
+                    return hasAccess(user, ((Lock) obj).getContent(), access);
+                } else {
+                    return false;
+                }
+            } else if (obj instanceof User) {
+                return hasAccess(user, (User) obj, access);
+            } else if (obj instanceof Group) {
+                return hasAccess(user, (Group) obj, access);
             } else {
                 return false;
             }
-        } else if (obj instanceof User) {
-            return hasAccess(user, (User) obj, access);
-        } else if (obj instanceof Group) {
-            return hasAccess(user, (Group) obj, access);
-        } else {
-            return false;
+        } finally {
+            RequestTimer.end(RequestTimer.SECURITY, start);
         }
     }
 
@@ -216,8 +282,8 @@ class SecurityManager {
     private boolean hasAccess(User user, Domain domain, int access)
         throws ContentException {
 
-        Group[]       groups = null;
-        Permission[]  perms;
+        BitSet  groups = null;
+        int     mask;
 
         // Check for superuser
         if (user != null && user.isSuperUser()) {
@@ -229,24 +295,20 @@ class SecurityManager {
             if (!user.getDomainName().equals(domain.getName())) {
                 user = null;
             } else {
-                groups = user.getGroups();
+                groups = user.getGroupBits();
             }
         }
-        perms = domain.getPermissions().getPermissions();
-        for (int i = 0; i < perms.length; i++) {
-            if (hasAccess(user, groups, perms[i], access)) {
-                return true;
-            }
-        }
-
-        return false;
+        mask = domain.getPermissions().getCompiled().getAccess(user, groups);
+        return (mask & (1 << access)) != 0;
     }
 
     /**
      * Checks the content access for a user. If no content
      * permissions are set for the content object, the parent
      * permissions will be checked instead. In the absence of a
-     * content parent, the domain permissions will be checked.
+     * content parent, the domain permissions will be checked. The
+     * effective access levels are cached for each user and group
+     * combination.
      *
      * @param user           the user to check, or null for none
      * @param content        the content object to check
@@ -261,8 +323,7 @@ class SecurityManager {
     private boolean hasAccess(User user, Content content, int access)
         throws ContentException {
 
-        Group[]       groups = null;
-        Permission[]  perms;
+        BitSet  groups = null;
 
         // Check for prohibited local permissions
         if (access == ADMIN && !hasPermissionList(content)) {
@@ -279,17 +340,53 @@ class SecurityManager {
             if (!user.getDomainName().equals(content.getDomainName())) {
                 user = null;
             } else {
-                groups = user.getGroups();
-            }
-        }
-        perms = content.getPermissions(true).getPermissions();
-        for (int i = 0; i < perms.length; i++) {
-            if (hasAccess(user, groups, perms[i], access)) {
-                return true;
+                groups = user.getGroupBits();
             }
         }
+        return hasAccess(user,
+                         groups,
+                         getAccessKey(user, groups),
+                         content,
+                         access);
+    }
+
+    /**
+     * Checks the content access for a user in the same domain. The
+     * effective access bit mask will be retrieved from the cache,
+     * or calculated from the content permissions if not present.
+     * Note that this method does not check for superusers or
+     * prohibited local permissions.
+     *
+     * @param user           the user to check, or null for none
+     * @param groups         the user group bit set, or null for none
+     * @param key            the user and group cache key
+     * @param content        the content object to check
+     * @param access         the access level to check for
+     *
+     * @return true if the user has the specified access level, or
+     *         false otherwise
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    private boolean hasAccess(User user,
+                              BitSet groups,
+                              String key,
+                              Content content,
+                              int access)
+        throws ContentException {
 
-        return false;
+        CacheManager    cache = CacheManager.getInstance();
+        PermissionList  perms;
+        int             mask;
+
+        mask = cache.getAccess(content, key);
+        if (mask < 0) {
+            perms = content.getPermissions(true);
+            mask = perms.getCompiled().getAccess(user, groups);
+            cache.addAccess(content, key, mask);
+        }
+        return (mask & (1 << access)) != 0;
     }
 
     /**
@@ -351,33 +448,24 @@ class SecurityManager {
     }
 
     /**
-     * Checks the access level for a user on a permission.
+     * Returns the access cache key for a user and a set of groups.
+     * Permissions only match on user and group names, so users with
+     * the same name and groups will always have the same access.
+     * The key will change whenever the user group membership is
+     * modified.
      *
-     * @param user           the user to check, or null for none
-     * @param groups         the user groups, or null for none
-     * @param perm           the permission to check
-     * @param access         the access level to check for
+     * @param user           the user, or null for none
+     * @param groups         the user group bit set, or null for none
      *
-     * @return true if the user has the specified access level, or
-     *         false otherwise
+     * @return the user and group cache key
      */
-    private boolean hasAccess(User user,
-                              Group[] groups,
-                              Permission perm,
-                              int access) {
-
-        if (!perm.isMatch(user, groups)) {
-            return false;
-        } else if (access == READ && perm.getRead()) {
-            return true;
-        } else if (access == WRITE && perm.getWrite()) {
-            return true;
-        } else if (access == PUBLISH && perm.getPublish()) {
-            return true;
-        } else if (access == ADMIN && perm.getAdmin()) {
-            return true;
+    private String getAccessKey(User user, BitSet groups) {
+        if (user == null) {
+            return "";
+        } else if (groups == null) {
+            return user.getName();
         } else {
-            return false;
+            return user.getName() + ":" + groups;
         }
     }
 
@@ -24,6 +24,7 @@ package org.liquidsite.core.content;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.TimeZone;
 
 import org.apache.commons.codec.binary.Base64;
@@ -71,6 +72,11 @@ public class User extends PersistentObject {
      */
     private Group[] groups = null;
 
+    /**
+     * The user group index bit set, or null if not yet created.
+     */
+    private BitSet groupBits = null;
+
     /**
      * The list of group names added since the object was saved.
      */
@@ -103,7 +109,8 @@ public class User extends PersistentObject {
 
     /**
      * Returns the number of users in a specified domain. Only users
-     * with matching names will be counted.
+     * with a name, real name or email address starting with the
+     * search filter will be counted.
      *
      * @param manager        the content manager to use
      * @param domain         the domain, or null for superusers
@@ -166,8 +173,9 @@ public class User extends PersistentObject {
 
     /**
      * Returns an array of users in a specified domain. Only users
-     * with matching names will be returned. Also, only a limited
-     * interval of the matching users will be returned.
+     * with a name, real name or email address starting with the
+     * search filter will be returned. Also, only a limited interval
+     * of the matching users will be returned.
      *
      * @param manager        the content manager to use
      * @param domain         the domain, or null for superusers
@@ -314,27 +322,63 @@ public class User extends PersistentObject {
                               int maxLength)
         throws ContentException {
 
-        DataSource     src = getDataSource(manager);
-        ArrayList      list;
-        User[]         res;
-        UserGroupData  data;
-        UserData       user;
-        String         name;
+        DataSource  src = getDataSource(manager);
+        ArrayList   list;
+        User[]      res;
+
+        try {
+            list = UserPeer.doSelectByGroup(src,
+                                            group.getDomainName(),
+                                            group.getName(),
+                                            startPos,
+                                            maxLength);
+            res = new User[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                res[i] = new User(manager, (UserData) list.get(i));
+            }
+        } catch (DataObjectException e) {
+            LOG.error(e.getMessage());
+            throw new ContentException(e);
+        } finally {
+            src.close();
+        }
+        return res;
+    }
+
+    /**
+     * Returns an array of users in a certain group following a user
+     * name. The users are ordered by name, and only a limited number
+     * of users will be returned.
+     *
+     * @param manager        the content manager to use
+     * @param group          the group
+     * @param name           the previous user name (empty for none)
+     * @param maxLength      the list maximum length
+     *
+     * @return an array of users in the group
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    static User[] findByGroupAfter(ContentManager manager,
+                                   Group group,
+                                   String name,
+                                   int maxLength)
+        throws ContentException {
+
+        DataSource  src = getDataSource(manager);
+        ArrayList   list;
+        User[]      res;
 
         try {
-            list = UserGroupPeer.doSelectByGroup(src,
+            list = UserPeer.doSelectByGroupAfter(src,
                                                  group.getDomainName(),
                                                  group.getName(),
-                                                 startPos,
+                                                 name,
                                                  maxLength);
             res = new User[list.size()];
             for (int i = 0; i < list.size(); i++) {
-                data = (UserGroupData) list.get(i);
-                name = data.getString(UserGroupData.USER);
-                user = UserPeer.doSelectByName(src,
-                                               group.getDomainName(),
-                                               name);
-                res[i] = new User(manager, user);
+                res[i] = new User(manager, (UserData) list.get(i));
             }
         } catch (DataObjectException e) {
             LOG.error(e.getMessage());
@@ -600,7 +644,10 @@ public class User extends PersistentObject {
      * Returns the groups that this user belongs to. This method will
      * only return the groups registered to this user in the database.
      * The results will also be cached to return the same list every
-     * time, until this object is written to the database.
+     * time, until this object is written to the database. The
+     * groups are also shared between user objects via the cache
+     * manager, until the user or any group in the domain is
+     * modified.
      *
      * @return an array of groups this user belongs to
      *
@@ -608,10 +655,44 @@ public class User extends PersistentObject {
      *             properly
      */
     public Group[] getGroups() throws ContentException {
-        if (groups == null) {
-            groups = Group.findByUser(getContentManager(), this);
+        CacheManager  cache = CacheManager.getInstance();
+        Group[]       res = groups;
+
+        if (res == null) {
+            res = cache.getUserGroups(this);
+            if (res == null) {
+                res = Group.findByUser(getContentManager(), this);
+                cache.addUserGroups(this, res);
+            }
+            groups = res;
         }
-        return groups;
+        return res;
+    }
+
+    /**
+     * Returns the groups that this user belongs to as a bit set over
+     * the domain group index numbers. The bit set will be cached
+     * together with the list of groups.
+     *
+     * @return the bit set of groups this user belongs to
+     *
+     * @throws ContentException if the database couldn't be accessed
+     *             properly
+     */
+    BitSet getGroupBits() throws ContentException {
+        GroupIndex  index = GroupIndex.getInstance();
+        BitSet      res = groupBits;
+        Group[]     list;
+
+        if (res == null) {
+            list = getGroups();
+            res = new BitSet();
+            for (int i = 0; i < list.length; i++) {
+                res.set(index.getIndex(getDomainName(), list[i].getName()));
+            }
+            groupBits = res;
+        }
+        return res;
     }
 
     /**
@@ -689,6 +770,7 @@ public class User extends PersistentObject {
             UserPeer.doInsert(src, data);
             doUserGroups(src);
             groups = null;
+            groupBits = null;
         } catch (DataObjectException e) {
             LOG.error(e.getMessage());
             throw new ContentException(e);
@@ -711,6 +793,7 @@ public class User extends PersistentObject {
             UserPeer.doUpdate(src, data);
             doUserGroups(src);
             groups = null;
+            groupBits = null;
         } catch (DataObjectException e) {
             LOG.error(e.getMessage());
             throw new ContentException(e);
@@ -732,6 +815,7 @@ public class User extends PersistentObject {
         try {
             UserPeer.doDelete(src, data);
             groups = null;
+            groupBits = null;
         } catch (DataObjectException e) {
             LOG.error(e.getMessage());
             throw new ContentException(e);
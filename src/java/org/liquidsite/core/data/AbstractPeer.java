@@ -86,7 +86,7 @@ public abstract class AbstractPeer {
 
         DatabaseResults  res;
 
-        res = execute(src, "counting " + name + " rows or size", query);
+        res = execute(src, "counting rows or size of", query);
         try {
             if (res.getRowCount() > 0) {
                 return res.getRow(0).getLong(0);
@@ -118,7 +118,7 @@ public abstract class AbstractPeer {
 
         DatabaseResults  res;
 
-        res = execute(src, "reading " + name, query);
+        res = execute(src, "reading", query);
         return createObject(res);
     }
 
@@ -140,7 +140,7 @@ public abstract class AbstractPeer {
 
         DatabaseResults  res;
 
-        res = execute(src, "reading " + name + " list", query);
+        res = execute(src, "reading list of", query);
         return createObjectList(res);
     }
 
@@ -158,7 +158,7 @@ public abstract class AbstractPeer {
     protected void insert(DataSource src, DatabaseQuery query)
         throws DataObjectException {
 
-        execute(src, "inserting " + name, query);
+        execute(src, "inserting", query);
     }
 
     /**
@@ -175,7 +175,7 @@ public abstract class AbstractPeer {
     protected void update(DataSource src, DatabaseQuery query)
         throws DataObjectException {
 
-        execute(src, "updating " + name, query);
+        execute(src, "updating", query);
     }
 
     /**
@@ -192,16 +192,18 @@ public abstract class AbstractPeer {
     protected void delete(DataSource src, DatabaseQuery query)
         throws DataObjectException {
 
-        execute(src, "deleting " + name, query);
+        execute(src, "deleting", query);
     }
 
     /**
      * Executes a database query or statement. This method should
      * normally not be called directly by subclasses, unless a query
      * does not return results compatible with the data object.
+     * The log messages are only created if needed, as this method
+     * is called for every database query.
      *
      * @param src            the data source to use
-     * @param log            the log message
+     * @param action         the log message action
      * @param query          the database query
      *
      * @return the database results for a query, or
@@ -211,17 +213,19 @@ public abstract class AbstractPeer {
      *             couldn't be executed correctly
      */
     private DatabaseResults execute(DataSource src,
-                                    String log,
+                                    String action,
                                     DatabaseQuery query)
         throws DataObjectException {
 
         DatabaseResults    res;
+        String             log;
 
         try {
-            LOG.trace(log);
+            LOG.trace("{} {}", action, name);
             res = src.getConnection().execute(query);
-            LOG.trace("done " + log);
+            LOG.trace("done {} {}", action, name);
         } catch (DatabaseException e) {
+            log = action + " " + name;
             LOG.error(log, e);
             throw new DataObjectException(log, e);
         }
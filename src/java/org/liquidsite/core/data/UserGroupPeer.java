@@ -87,37 +87,6 @@ public class UserGroupPeer extends AbstractPeer {
         return PEER.selectList(src, query);
     }
 
-    /**
-     * Returns a list of all user groups for a certain group. Only a
-     * limited interval of the matching user groups will be returned.
-     *
-     * @param src            the data source to use
-     * @param domain         the domain name
-     * @param group          the group name
-     * @param startPos       the list interval start position
-     * @param maxLength      the list interval maximum length
-     *
-     * @return a list of all user groups for the group
-     *
-     * @throws DataObjectException if the data source couldn't be
-     *             accessed properly
-     */
-    public static ArrayList doSelectByGroup(DataSource src,
-                                            String domain,
-                                            String group,
-                                            int startPos,
-                                            int maxLength)
-        throws DataObjectException {
-
-        DatabaseQuery  query = new DatabaseQuery("usergroup.select.group");
-
-        query.addParameter(domain);
-        query.addParameter(group);
-        query.addParameter(startPos);
-        query.addParameter(maxLength);
-        return PEER.selectList(src, query);
-    }
-
     /**
      * Inserts a new user group into the data source.
      *
@@ -41,7 +41,8 @@ public class UserPeer extends AbstractPeer {
 
     /**
      * Returns the number of users in a specified domain. Only users
-     * with matching names will be counted.
+     * with a name, real name or email address starting with the
+     * search filter will be counted.
      *
      * @param src            the data source to use
      * @param domain         the domain name
@@ -57,20 +58,23 @@ public class UserPeer extends AbstractPeer {
                                       String filter)
         throws DataObjectException {
 
-        DatabaseQuery  query = new DatabaseQuery("user.count");
-        String         filterSql = "%" + filter + "%";
+        DatabaseQuery  query;
 
-        query.addParameter(domain);
-        query.addParameter(filterSql);
-        query.addParameter(filterSql);
-        query.addParameter(filterSql);
+        if (filter.equals("")) {
+            query = new DatabaseQuery("user.count.all");
+            query.addParameter(domain);
+        } else {
+            query = new DatabaseQuery("user.count");
+            addFilterParameters(query, domain, filter);
+        }
         return (int) PEER.count(src, query);
     }
 
     /**
      * Returns a list of matching users in a specified domain. Only
-     * users with matching names will be returned. Also, only a
-     * limited interval of the matching users will be returned.
+     * users with a name, real name or email address starting with
+     * the search filter will be returned. Also, only a limited
+     * interval of the matching users will be returned.
      *
      * @param src            the data source to use
      * @param domain         the domain name
@@ -90,18 +94,107 @@ public class UserPeer extends AbstractPeer {
                                              int maxLength)
         throws DataObjectException {
 
-        DatabaseQuery  query = new DatabaseQuery("user.select.domain");
-        String         filterSql = "%" + filter + "%";
+        DatabaseQuery  query;
+
+        if (filter.equals("")) {
+            query = new DatabaseQuery("user.select.all");
+            query.addParameter(domain);
+        } else {
+            query = new DatabaseQuery("user.select.domain");
+            addFilterParameters(query, domain, filter);
+        }
+        query.addParameter(startPos);
+        query.addParameter(maxLength);
+        return PEER.selectList(src, query);
+    }
+
+    /**
+     * Adds the user search filter parameters to a query. The search
+     * filter is used as a prefix for each of the user name, real
+     * name and email address columns, allowing the database to use
+     * an index for each column.
+     *
+     * @param query          the database query
+     * @param domain         the domain name
+     * @param filter         the search filter
+     */
+    private static void addFilterParameters(DatabaseQuery query,
+                                            String domain,
+                                            String filter) {
+
+        String  filterSql = filter + "%";
+
+        for (int i = 0; i < 3; i++) {
+            query.addParameter(domain);
+            query.addParameter(filterSql);
+        }
+    }
+
+    /**
+     * Returns a list of users in a specified group. Only a limited
+     * interval of the users will be returned. The users are ordered
+     * by name.
+     *
+     * @param src            the data source to use
+     * @param domain         the domain name
+     * @param group          the group name
+     * @param startPos       the list interval start position
+     * @param maxLength      the list interval maximum length
+     *
+     * @return a list of users in the group
+     *
+     * @throws DataObjectException if the data source couldn't be
+     *             accessed properly
+     */
+    public static ArrayList doSelectByGroup(DataSource src,
+                                            String domain,
+                                            String group,
+                                            int startPos,
+                                            int maxLength)
+        throws DataObjectException {
+
+        DatabaseQuery  query = new DatabaseQuery("user.select.group");
 
         query.addParameter(domain);
-        query.addParameter(filterSql);
-        query.addParameter(filterSql);
-        query.addParameter(filterSql);
+        query.addParameter(group);
         query.addParameter(startPos);
         query.addParameter(maxLength);
         return PEER.selectList(src, query);
     }
 
+    /**
+     * Returns a list of users in a specified group following a user
+     * name. Only a limited number of users will be returned. The
+     * users are ordered by name, so the last user name returned can
+     * be used to retrieve the next list of users.
+     *
+     * @param src            the data source to use
+     * @param domain         the domain name
+     * @param group          the group name
+     * @param name           the previous user name (empty for none)
+     * @param maxLength      the list maximum length
+     *
+     * @return a list of users in the group
+     *
+     * @throws DataObjectException if the data source couldn't be
+     *             accessed properly
+     */
+    public static ArrayList doSelectByGroupAfter(DataSource src,
+                                                 String domain,
+                                                 String group,
+                                                 String name,
+                                                 int maxLength)
+        throws DataObjectException {
+
+        DatabaseQuery  query = new DatabaseQuery("user.select.group.after");
+
+        query.addParameter(domain);
+        query.addParameter(group);
+        query.addParameter(name);
+        query.addParameter(maxLength);
+        return PEER.selectList(src, query);
+    }
+
     /**
      * Returns a user with a specified name.
      *
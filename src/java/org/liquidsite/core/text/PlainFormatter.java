@@ -58,10 +58,29 @@ public class PlainFormatter {
      * @return the HTML escaped string
      */
     public static String escapeHtml(String str) {
-        StringBuffer  buffer = new StringBuffer();
-        char          c;
+        StringBuffer  buffer = new StringBuffer(str.length());
+
+        escapeHtml(str, 0, str.length(), buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Escapes HTML constructs in a part of a string. The escaped
+     * text will be appended to the specified buffer.
+     *
+     * @param str            the string to process
+     * @param start          the start position (inclusive)
+     * @param end            the end position (exclusive)
+     * @param buffer         the buffer to append the result to
+     */
+    public static void escapeHtml(String str,
+                                  int start,
+                                  int end,
+                                  StringBuffer buffer) {
+
+        char  c;
 
-        for (int i = 0; i < str.length(); i++) {
+        for (int i = start; i < end; i++) {
             c = str.charAt(i);
             switch (c) {
             case '<':
@@ -80,7 +99,6 @@ public class PlainFormatter {
                 buffer.append(c);
             }
         }
-        return buffer.toString();
     }
 
     /**
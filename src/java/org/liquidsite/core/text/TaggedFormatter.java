@@ -21,35 +21,19 @@
 
 package org.liquidsite.core.text;
 
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * A tagged text formatter. This class contains static methods for
- * processing tagged text.
+ * processing tagged text. The HTML formatting is made in a single
+ * pass over the text, writing directly to the result buffer without
+ * creating intermediate strings or regular expression matchers.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
  */
 public class TaggedFormatter {
 
-    /**
-     * The trailing whitespace regex.
-     */
-    private static Pattern SPACE_END = Pattern.compile("\\s+$");
-
-    /**
-     * The horizontal ruler regex.
-     */
-    private static Pattern HORIZ_RULE = Pattern.compile("((---+)|(___+))(\\n|$)");
-
-    /**
-     * The pre-formatted text tag regex.
-     */
-    private static Pattern TAG_PRE = Pattern.compile("<pre[^>]*>");
-
     /**
      * Cleans a tagged text string. Unneeded line feeds and space
      * characters will be removed.
@@ -59,23 +43,25 @@ public class TaggedFormatter {
      * @return the cleaned tagged text string
      */
     public static String clean(String text) {
-        StringBuffer  result = new StringBuffer();
+        StringBuffer  result = new StringBuffer(text.length());
         int           pos = 0;
-        Matcher       m = TAG_PRE.matcher(text);
+        int           start;
+        int           end;
 
-        while (m.find(pos)) {
-            if (m.start() > 0) {
-                result.append(cleanMarkup(text.substring(pos, m.start())));
+        while ((start = findPreTag(text, pos)) >= 0) {
+            end = text.indexOf('>', start) + 1;
+            if (start > 0) {
+                result.append(cleanMarkup(text.substring(pos, start)));
                 result.append("\n\n");
             }
-            result.append(m.group());
-            pos = text.indexOf("</pre>", m.end());
+            result.append(text.substring(start, end));
+            pos = text.indexOf("</pre>", end);
             if (pos < 0) {
-                result.append(text.substring(m.end()));
+                result.append(text.substring(end));
                 result.append("</pre>\n\n");
                 pos = text.length();
             } else {
-                result.append(text.substring(m.end(), pos));
+                result.append(text.substring(end, pos));
                 result.append("</pre>\n\n");
                 pos += 6;
             }
@@ -83,10 +69,7 @@ public class TaggedFormatter {
         if (pos < text.length()) {
             result.append(cleanMarkup(text.substring(pos)));
         }
-        m = SPACE_END.matcher(result);
-        if (m.find()) {
-            result.setLength(m.start());
-        }
+        result.setLength(findSpaceEnd(result));
         return result.toString();
     }
 
@@ -130,15 +113,15 @@ public class TaggedFormatter {
      * @return the new text position
      */
     private static int cleanBlock(String text, int pos, StringBuffer result) {
-        Matcher  m = HORIZ_RULE.matcher(text);
-        int      backupLength;
-        int      newPos;
-        String   tag;
+        int     rule = findRule(text, pos, text.length());
+        int     backupLength;
+        int     newPos;
+        int     inlinePos;
+        String  tag;
 
-        m.region(pos, text.length());
-        if (m.lookingAt()) {
+        if (rule >= 0) {
             result.append("---");
-            pos = m.end();
+            pos = rule;
         } else if (text.charAt(pos) == '<') {
             backupLength = result.length();
             newPos = cleanTag(text, pos, result);
@@ -167,8 +150,11 @@ public class TaggedFormatter {
                 pos = cleanInline(text, newPos, result);
                 pos = cleanTagEnd(text, pos, "</box>", result);
             } else {
+                // Misplaced block tags are removed, as they would
+                // otherwise be found at the same position again
                 result.setLength(backupLength);
-                pos = cleanInline(text, pos, result);
+                inlinePos = cleanInline(text, pos, result);
+                pos = (inlinePos > pos) ? inlinePos : newPos;
             }
         } else {
             pos = cleanInline(text, pos, result);
@@ -452,54 +438,53 @@ public class TaggedFormatter {
                                            String tagName,
                                            StringBuffer result) {
 
-        HashMap  attributes = new HashMap();
-        String   str;
+        String  str;
 
-        // Parse tag attributes
+        // Find tag attributes end
         if (text.charAt(end) == '>') {
             end--;
         }
         if (tagName.equals("image") && text.charAt(end) == '/') {
             end--;
         }
-        attributes = parseTagAttributes(text, pos, end + 1);
+        end++;
 
         // Normalize attributes
         if (tagName.equals("list")) {
-            str = (String) attributes.get("type");
+            str = getTagAttribute(text, pos, end, "type");
             if (str != null && !str.equals("")) {
                 result.append(" type=\"");
                 result.append(str);
                 result.append("\"");
             }
         } else if (tagName.equals("link")) {
-            str = (String) attributes.get("url");
+            str = getTagAttribute(text, pos, end, "url");
             result.append(" url=\"");
             if (str != null) {
                 result.append(str);
             }
             result.append("\"");
-            str = (String) attributes.get("window");
+            str = getTagAttribute(text, pos, end, "window");
             if (str != null) {
                 result.append(" window=\"");
                 result.append(str);
                 result.append("\"");
             }
         } else if (tagName.equals("image")) {
-            str = (String) attributes.get("url");
+            str = getTagAttribute(text, pos, end, "url");
             result.append(" url=\"");
             if (str != null) {
                 result.append(str);
             }
             result.append("\"");
-            str = (String) attributes.get("layout");
+            str = getTagAttribute(text, pos, end, "layout");
             if (str != null) {
                 result.append(" layout=\"");
                 result.append(str);
                 result.append("\"");
             }
         } else if (tagName.equals("box")) {
-            str = (String) attributes.get("layout");
+            str = getTagAttribute(text, pos, end, "layout");
             if (str != null) {
                 result.append(" layout=\"");
                 result.append(str);
@@ -516,41 +501,43 @@ public class TaggedFormatter {
      * @return the cleaned tagged text string
      */
     private static String cleanWhitespace(String text) {
-        StringBuffer  buffer = new StringBuffer();
-        int           pos;
-
-        // Trim each line
-        while ((pos = text.indexOf("\n")) >= 0) {
-            buffer.append(text.substring(0, pos).trim());
-            buffer.append("\n");
-            text = text.substring(pos + 1);
-        }
-        buffer.append(text.trim());
-
-        // Remove empty starting and ending lines
-        while (buffer.length() > 0 && buffer.charAt(0) == '\n') {
-            buffer.deleteCharAt(0);
-        }
-        while (buffer.length() > 0
-            && buffer.charAt(buffer.length() - 1) == '\n') {
-
-            buffer.setLength(buffer.length() - 1);
-        }
+        StringBuffer  buffer = new StringBuffer(text.length());
+        int           newlines = 0;
+        int           pos = 0;
+        int           start;
+        int           end;
+        char          c;
+
+        while (pos <= text.length()) {
+            end = text.indexOf('\n', pos);
+            if (end < 0) {
+                end = text.length();
+            }
 
-        // Replace tab characters with spaces
-        pos = buffer.indexOf("\t");
-        while (pos > 0) {
-            buffer.replace(pos, pos + 1, " ");
-            pos = buffer.indexOf("\t");
-        }
+            // Trim line
+            start = pos;
+            pos = end + 1;
+            while (start < end && text.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && text.charAt(end - 1) <= ' ') {
+                end--;
+            }
 
-        // Remove duplicate empty lines
-        pos = buffer.indexOf("\n\n\n");
-        while (pos > 0) {
-            buffer.deleteCharAt(pos);
-            pos = buffer.indexOf("\n\n\n");
+            // Add line, skipping starting and duplicate empty lines
+            if (start == end) {
+                newlines++;
+            } else {
+                if (buffer.length() > 0) {
+                    buffer.append(newlines > 0 ? "\n\n" : "\n");
+                }
+                newlines = 0;
+                for (int i = start; i < end; i++) {
+                    c = text.charAt(i);
+                    buffer.append((c == '\t') ? ' ' : c);
+                }
+            }
         }
-
         return buffer.toString();
     }
 
@@ -565,34 +552,45 @@ public class TaggedFormatter {
      * @return the HTML encoded text
      */
     public static String formatHtml(String text, FormattingContext context) {
-        StringBuffer  result = new StringBuffer();
-        int           pos = 0;
-        Matcher       m = TAG_PRE.matcher(text);
-        String        str;
+        StringBuffer  result = new StringBuffer(text.length() * 5 / 4);
 
-        while (m.find(pos)) {
-            if (m.start() > 0) {
-                str = text.substring(pos, m.start());
-                result.append(formatHtmlMarkup(str, context));
-            }
-            result.append(m.group());
-            pos = text.indexOf("</pre>", m.end());
+        formatHtml(text, context, result);
+        return result.toString();
+    }
+
+    /**
+     * Formats a tagged text string in HTML. This method will resolve
+     * any links in the tagged text and convert the tags to valid
+     * HTML tags. The HTML encoded text will be appended to the
+     * specified result buffer.
+     *
+     * @param text           the tagged text string
+     * @param context        the formatting context
+     * @param result         the HTML encoded text
+     */
+    public static void formatHtml(String text,
+                                  FormattingContext context,
+                                  StringBuffer result) {
+
+        int  pos = 0;
+        int  start;
+        int  end;
+
+        while ((start = findPreTag(text, pos)) >= 0) {
+            end = text.indexOf('>', start) + 1;
+            formatHtmlMarkup(text, pos, start, context, result);
+            result.append(text.substring(start, end));
+            pos = text.indexOf("</pre>", end);
             if (pos < 0) {
-                str = text.substring(m.end());
-                result.append(PlainFormatter.escapeHtml(str));
-                result.append("</pre>");
                 pos = text.length();
+                PlainFormatter.escapeHtml(text, end, pos, result);
             } else {
-                str = text.substring(m.end(), pos);
-                result.append(PlainFormatter.escapeHtml(str));
-                result.append("</pre>");
+                PlainFormatter.escapeHtml(text, end, pos, result);
                 pos += 6;
             }
+            result.append("</pre>");
         }
-        if (pos < text.length()) {
-            result.append(formatHtmlMarkup(text.substring(pos), context));
-        }
-        return result.toString();
+        formatHtmlMarkup(text, pos, text.length(), context, result);
     }
 
     /**
@@ -601,25 +599,30 @@ public class TaggedFormatter {
      * HTML tags. This method doesn't handle pre-formatted text.
      *
      * @param text           the tagged text string
+     * @param pos            the current text position
+     * @param end            the end position (exclusive)
      * @param context        the formatting context
-     *
-     * @return the HTML encoded text
+     * @param result         the HTML encoded text
      */
-    private static String formatHtmlMarkup(String text, FormattingContext context) {
-        StringBuffer  result = new StringBuffer();
-        int           pos = 0;
+    private static void formatHtmlMarkup(String text,
+                                         int pos,
+                                         int end,
+                                         FormattingContext context,
+                                         StringBuffer result) {
 
-        while (pos < text.length()) {
+        boolean  first = true;
+
+        while (pos < end) {
             if (text.charAt(pos) == '\n') {
                 pos++;
             } else {
-                if (result.length() > 0) {
+                if (!first) {
                     result.append("\n\n");
                 }
-                pos = formatHtmlBlock(text, pos, context, result);
+                first = false;
+                pos = formatHtmlBlock(text, pos, end, context, result);
             }
         }
-        return result.toString();
     }
 
     /**
@@ -628,33 +631,41 @@ public class TaggedFormatter {
      *
      * @param text           the tagged text string
      * @param pos            the current text position
+     * @param end            the end position (exclusive)
      * @param context        the formatting context
-     * @param result         the cleaned tagged text
+     * @param result         the HTML encoded text
      *
      * @return the new text position
      */
     private static int formatHtmlBlock(String text,
                                        int pos,
+                                       int end,
                                        FormattingContext context,
                                        StringBuffer result) {
 
-        Matcher  m = HORIZ_RULE.matcher(text);
+        int  rule = findRule(text, pos, end);
 
-        m.region(pos, text.length());
-        if (m.lookingAt()) {
+        if (rule >= 0) {
             result.append("<hr/>");
-            pos = m.end();
+            pos = rule;
         } else if (text.startsWith("<list", pos)) {
-            pos = formatHtmlList(text, pos, context, result);
+            pos = formatHtmlList(text, pos, end, context, result);
+        } else if (text.startsWith("</list>", pos)
+                || text.startsWith("<item>", pos)
+                || text.startsWith("</item>", pos)) {
+
+            // Misplaced list tags are removed, as they would
+            // otherwise be found at the same position again
+            pos = text.indexOf('>', pos) + 1;
         } else if (text.startsWith("<h1>", pos)
                 || text.startsWith("<h2>", pos)
                 || text.startsWith("<h3>", pos)
                 || text.startsWith("<box>", pos)) {
 
-            pos = formatHtmlInline(text, pos, context, result);
+            pos = formatHtmlInline(text, pos, end, context, result);
         } else {
             result.append("<p>");
-            pos = formatHtmlInline(text, pos, context, result);
+            pos = formatHtmlInline(text, pos, end, context, result);
             result.append("</p>");
         }
         return pos;
@@ -666,28 +677,29 @@ public class TaggedFormatter {
      *
      * @param text           the tagged text string
      * @param pos            the current text position
+     * @param end            the end position (exclusive)
      * @param context        the formatting context
-     * @param result         the cleaned tagged text
+     * @param result         the HTML encoded text
      *
      * @return the new text position
      */
     private static int formatHtmlInline(String text,
                                         int pos,
+                                        int end,
                                         FormattingContext context,
                                         StringBuffer result) {
 
-        while (pos < text.length()
-            && !text.startsWith("\n\n", pos)
-            && !text.startsWith("\n---", pos)
-            && !text.startsWith("\n___", pos)
-            && !text.startsWith("<list", pos)
-            && !text.startsWith("</list>", pos)
-            && !text.startsWith("<item>", pos)
-            && !text.startsWith("</item>", pos)) {
-
+        while (pos < end) {
             switch (text.charAt(pos)) {
             case '<':
-                pos = formatHtmlTag(text, pos, context, result);
+                if (text.startsWith("<list", pos)
+                 || text.startsWith("</list>", pos)
+                 || text.startsWith("<item>", pos)
+                 || text.startsWith("</item>", pos)) {
+
+                    return pos;
+                }
+                pos = formatHtmlTag(text, pos, end, context, result);
                 break;
             case '>':
                 result.append("&gt;");
@@ -698,6 +710,12 @@ public class TaggedFormatter {
                 pos++;
                 break;
             case '\n':
+                if (text.startsWith("\n\n", pos)
+                 || text.startsWith("\n---", pos)
+                 || text.startsWith("\n___", pos)) {
+
+                    return pos;
+                }
                 result.append("<br/>\n");
                 pos++;
                 break;
@@ -722,35 +740,37 @@ public class TaggedFormatter {
      *
      * @param text           the tagged text string
      * @param pos            the current text position
+     * @param end            the end position (exclusive)
      * @param context        the formatting context
-     * @param result         the cleaned tagged text
+     * @param result         the HTML encoded text
      *
      * @return the new text position
      */
     private static int formatHtmlList(String text,
                                       int pos,
+                                      int end,
                                       FormattingContext context,
                                       StringBuffer result) {
 
-        pos = formatHtmlTag(text, pos, context, result);
+        pos = formatHtmlTag(text, pos, end, context, result);
         result.append("\n");
-        while (pos < text.length()) {
+        while (pos < end) {
             if (text.charAt(pos) == '\n') {
                 pos++;
             } else if (text.startsWith("<item>", pos)) {
-                pos = formatHtmlTag(text, pos, context, result);
-                pos = formatHtmlInline(text, pos, context, result);
+                pos = formatHtmlTag(text, pos, end, context, result);
+                pos = formatHtmlInline(text, pos, end, context, result);
             } else if (text.startsWith("</item>", pos)) {
-                pos = formatHtmlTag(text, pos, context, result);
+                pos = formatHtmlTag(text, pos, end, context, result);
                 result.append("\n\n");
             } else if (text.startsWith("<list", pos)) {
-                pos = formatHtmlList(text, pos, context, result);
+                pos = formatHtmlList(text, pos, end, context, result);
                 result.append("\n");
             } else if (text.startsWith("</list>", pos)) {
-                return formatHtmlTag(text, pos, context, result);
+                return formatHtmlTag(text, pos, end, context, result);
             } else {
                 result.append("<li>");
-                pos = formatHtmlInline(text, pos, context, result);
+                pos = formatHtmlInline(text, pos, end, context, result);
                 result.append("</li>\n");
             }
         }
@@ -763,33 +783,32 @@ public class TaggedFormatter {
      *
      * @param text           the tagged text string
      * @param pos            the current text position
+     * @param limit          the end position of the text (exclusive)
      * @param context        the formatting context
-     * @param result         the cleaned tagged text
+     * @param result         the HTML encoded text
      *
      * @return the new text position
      */
     private static int formatHtmlTag(String text,
                                      int pos,
+                                     int limit,
                                      FormattingContext context,
                                      StringBuffer result) {
 
         int      start = pos;
         int      end;
         String   name;
-        HashMap  attributes;
         boolean  insideQuote = false;
         String   str;
 
         // Find ending '>' character
-        while (pos < text.length()
-            && (text.charAt(pos) != '>' || insideQuote)) {
-
+        while (pos < limit && (text.charAt(pos) != '>' || insideQuote)) {
             if (text.charAt(pos) == '"') {
                 insideQuote = !insideQuote;
             }
             pos++;
         }
-        if (pos >= text.length()) {
+        if (pos >= limit) {
             result.append("&lt;");
             return start + 1;
         }
@@ -815,12 +834,11 @@ public class TaggedFormatter {
             result.append(name);
             result.append(">");
         } else if (name.equals("link")) {
-            attributes = parseTagAttributes(text, pos, end - 1);
             result.append("<a href=\"");
-            str = context.linkTo((String) attributes.get("url"));
-            result.append(PlainFormatter.escapeHtml(str));
+            str = context.linkTo(getTagAttribute(text, pos, end - 1, "url"));
+            PlainFormatter.escapeHtml(str, 0, str.length(), result);
             result.append("\"");
-            str = (String) attributes.get("window");
+            str = getTagAttribute(text, pos, end - 1, "window");
             if (str != null && str.equals("new")) {
                 result.append(" target=\"_blank\"");
             }
@@ -828,12 +846,11 @@ public class TaggedFormatter {
         } else if (name.equals("/link")) {
             result.append("</a>");
         } else if (name.equals("image")) {
-            attributes = parseTagAttributes(text, pos, end - 1);
             result.append("<img src=\"");
-            str = context.linkTo((String) attributes.get("url"));
-            result.append(PlainFormatter.escapeHtml(str));
+            str = context.linkTo(getTagAttribute(text, pos, end - 1, "url"));
+            PlainFormatter.escapeHtml(str, 0, str.length(), result);
             result.append("\" alt=\"\"");
-            str = (String) attributes.get("layout");
+            str = getTagAttribute(text, pos, end - 1, "layout");
             if (str != null && str.equals("right")) {
                 result.append(" style=\"float: right;\"");
             } else if (str != null && str.equals("left")) {
@@ -841,9 +858,8 @@ public class TaggedFormatter {
             }
             result.append(" />");
         } else if (name.equals("list")) {
-            attributes = parseTagAttributes(text, pos, end - 1);
             result.append("<ul");
-            str = (String) attributes.get("type");
+            str = getTagAttribute(text, pos, end - 1, "type");
             if (str != null && str.equals("*")) {
                 result.append(" style=\"list-style-type: disc;\"");
             } else if (str != null && str.equals("1")) {
@@ -865,9 +881,8 @@ public class TaggedFormatter {
         } else if (name.equals("/item")) {
             result.append("</li>");
         } else if (name.equals("box")) {
-            attributes = parseTagAttributes(text, pos, end - 1);
             result.append("<p class=\"box-layout-");
-            str = (String) attributes.get("layout");
+            str = getTagAttribute(text, pos, end - 1, "layout");
             if (str != null && str.equals("right")) {
                 result.append("right");
             } else if (str != null && str.equals("left")) {
@@ -884,20 +899,25 @@ public class TaggedFormatter {
     }
 
     /**
-     * Parses the tag attributes. This method extracts all the
-     * attributes and their values from the string and returns the
-     * mappings in a hash map.
+     * Returns a tag attribute value. This method parses all the
+     * attributes in the string, and returns the value of the last
+     * attribute with the specified name.
      *
      * @param text           the tagged text string
      * @param pos            the current text position
      * @param end            the end position (exclusive)
+     * @param attr           the attribute name
      *
-     * @return the hash map with attribute names and values
+     * @return the attribute value, or
+     *         null if the attribute wasn't found
      */
-    private static HashMap parseTagAttributes(String text, int pos, int end) {
-        HashMap  result = new HashMap();
-        String   name;
-        String   value;
+    private static String getTagAttribute(String text,
+                                          int pos,
+                                          int end,
+                                          String attr) {
+
+        String   result = null;
+        boolean  match;
         int      temp;
 
         while (pos < end) {
@@ -906,11 +926,12 @@ public class TaggedFormatter {
             } else {
                 temp = text.indexOf('=', pos);
                 if (temp <= 0 || temp >= end) {
-                    name = text.substring(pos, end).trim();
-                    result.put(name, "");
+                    if (isName(text, pos, end, attr)) {
+                        result = "";
+                    }
                     break;
                 }
-                name = text.substring(pos, temp).trim();
+                match = isName(text, pos, temp, attr);
                 pos = temp + 1;
                 while (text.charAt(pos) == ' '
                     || text.charAt(pos) == '\n') {
@@ -921,30 +942,166 @@ public class TaggedFormatter {
                     }
                 }
                 if (pos >= end) {
-                    result.put(name, "");
+                    if (match) {
+                        result = "";
+                    }
                     break;
                 } else if (text.charAt(pos) == '"') {
                     temp = text.indexOf('"', pos + 1);
                     if (temp < 0 || temp >= end) {
-                        value = text.substring(pos + 1, end);
-                        pos = end;
-                    } else {
-                        value = text.substring(pos + 1, temp);
-                        pos = temp + 1;
+                        temp = end;
                     }
+                    if (match) {
+                        result = text.substring(pos + 1, temp);
+                    }
+                    pos = Math.min(temp + 1, end);
                 } else {
                     temp = text.indexOf(' ', pos);
                     if (temp < 0 || temp >= end) {
-                        value = text.substring(pos, end);
-                        pos = end;
-                    } else {
-                        value = text.substring(pos, temp);
-                        pos = temp + 1;
+                        temp = end;
+                    }
+                    if (match) {
+                        result = text.substring(pos, temp);
                     }
+                    pos = Math.min(temp + 1, end);
                 }
-                result.put(name, value);
             }
         }
         return result;
     }
+
+    /**
+     * Checks if a text range contains the specified name. Any
+     * leading or trailing whitespace in the text range is ignored.
+     *
+     * @param text           the tagged text string
+     * @param start          the start position (inclusive)
+     * @param end            the end position (exclusive)
+     * @param name           the name to compare with
+     *
+     * @return true if the text range contains the name, or
+     *         false otherwise
+     */
+    private static boolean isName(String text,
+                                  int start,
+                                  int end,
+                                  String name) {
+
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end - start == name.length()
+            && text.regionMatches(start, name, 0, end - start);
+    }
+
+    /**
+     * Finds the next pre-formatted text tag. The tag must start with
+     * "<pre" and end with a '>' character.
+     *
+     * @param text           the tagged text string
+     * @param pos            the current text position
+     *
+     * @return the start position of the tag found, or
+     *         -1 if not found
+     */
+    private static int findPreTag(String text, int pos) {
+        pos = text.indexOf("<pre", pos);
+        if (pos >= 0 && text.indexOf('>', pos) < 0) {
+            return -1;
+        }
+        return pos;
+    }
+
+    /**
+     * Finds a horizontal ruler at the specified position. The ruler
+     * consists of three or more '-' or '_' characters, followed by a
+     * newline or the end of the text. A single trailing line
+     * terminator at the end of the text is not included in the
+     * ruler.
+     *
+     * @param text           the tagged text string
+     * @param pos            the current text position
+     * @param end            the end position (exclusive)
+     *
+     * @return the end position of the ruler, or
+     *         -1 if no ruler was found
+     */
+    private static int findRule(String text, int pos, int end) {
+        char    c = text.charAt(pos);
+        int     start = pos;
+        String  rest;
+
+        if (c != '-' && c != '_') {
+            return -1;
+        }
+        while (pos < end && text.charAt(pos) == c) {
+            pos++;
+        }
+        if (pos - start < 3) {
+            return -1;
+        } else if (pos < end && text.charAt(pos) == '\n') {
+            return pos + 1;
+        } else if (pos == end) {
+            return pos;
+        }
+        rest = text.substring(pos, end);
+        if (rest.equals("\r") || rest.equals("\r\n")
+         || rest.equals("\u0085") || rest.equals("\u2028")
+         || rest.equals("\u2029")) {
+
+            return pos;
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the start of the trailing whitespace in a buffer. Any
+     * single line terminator character at the very end of the
+     * buffer is also considered part of the trailing whitespace if
+     * preceded by whitespace.
+     *
+     * @param buffer         the buffer to check
+     *
+     * @return the start position of the trailing whitespace, or
+     *         the buffer length if not found
+     */
+    private static int findSpaceEnd(StringBuffer buffer) {
+        int   len = buffer.length();
+        int   pos = len;
+        int   alt;
+        char  c;
+
+        while (pos > 0 && isSpace(buffer.charAt(pos - 1))) {
+            pos--;
+        }
+        if (len > 0) {
+            c = buffer.charAt(len - 1);
+            if (c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                alt = len - 1;
+                while (alt > 0 && isSpace(buffer.charAt(alt - 1))) {
+                    alt--;
+                }
+                if (alt < len - 1) {
+                    pos = Math.min(pos, alt);
+                }
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Checks if a character is a whitespace character.
+     *
+     * @param c              the character to check
+     *
+     * @return true if the character is a whitespace character, or
+     *         false otherwise
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n'
+            || c == '\u000B' || c == '\f' || c == '\r';
+    }
 }
@@ -0,0 +1,247 @@
+/*
+ * FileCache.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.core.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import javax.servlet.ServletContext;
+
+import org.liquidsite.util.log.Log;
+
+/**
+ * A cache for small response files. The file contents are kept in
+ * read-only byte buffers, together with the precomputed HTTP
+ * response meta-data. Cached files are revalidated against the
+ * file system at most once per validation interval, and the least
+ * recently used files are removed when the total cache size limit
+ * is exceeded.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class FileCache {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(FileCache.class);
+
+    /**
+     * The maximum total size of the cached files (in bytes).
+     */
+    private long maxSize;
+
+    /**
+     * The maximum size of a single cached file (in bytes).
+     */
+    private long maxFileSize;
+
+    /**
+     * The validation interval (in milliseconds).
+     */
+    private long interval;
+
+    /**
+     * The direct buffer flag.
+     */
+    private boolean direct;
+
+    /**
+     * The map with cached files. The files are indexed by their
+     * path name, and ordered by their last access.
+     */
+    private LinkedHashMap files = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The total size of the cached files (in bytes).
+     */
+    private long size = 0;
+
+    /**
+     * The number of cache hits.
+     */
+    private long hits = 0;
+
+    /**
+     * The number of cache misses.
+     */
+    private long misses = 0;
+
+    /**
+     * Creates a new file cache.
+     *
+     * @param maxSize        the maximum total cache size (in bytes)
+     * @param maxFileSize    the maximum cached file size (in bytes)
+     * @param interval       the validation interval (in milliseconds)
+     * @param direct         the direct buffer flag
+     */
+    public FileCache(long maxSize,
+                     long maxFileSize,
+                     long interval,
+                     boolean direct) {
+
+        this.maxSize = maxSize;
+        this.maxFileSize = Math.min(maxFileSize, maxSize);
+        this.interval = interval;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     *
+     * @return the total size of the cached files (in bytes)
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return the number of cached files
+     */
+    public synchronized int getCount() {
+        return files.size();
+    }
+
+    /**
+     * Returns the number of cache hits.
+     *
+     * @return the number of cache hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of cache misses.
+     *
+     * @return the number of cache misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns a response file. If the file is present in the cache
+     * and still valid, the cached file will be returned. Otherwise
+     * the file will be read, and added to the cache if small enough.
+     * Files too large for the cache will be returned unloaded.
+     *
+     * @param context        the servlet context
+     * @param file           the file to read
+     *
+     * @return the loaded or unloaded response file
+     */
+    public ResponseFile get(ServletContext context, File file) {
+        String        key = file.getPath();
+        ResponseFile  res;
+
+        res = find(key);
+        if (res != null) {
+            return res;
+        }
+        res = new ResponseFile(file, context.getMimeType(key));
+        if (res.getLength() <= maxFileSize && file.canRead()) {
+            try {
+                res.load(direct);
+                add(key, res);
+            } catch (IOException e) {
+                LOG.warning("failed to cache file " + file, e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Removes all files from the cache.
+     */
+    public synchronized void clear() {
+        files.clear();
+        size = 0;
+    }
+
+    /**
+     * Finds a valid cached file. If the cached file is found but
+     * has been modified, it will be removed from the cache.
+     *
+     * @param key            the file path name
+     *
+     * @return the cached file, or
+     *         null if not found
+     */
+    private synchronized ResponseFile find(String key) {
+        ResponseFile  res = (ResponseFile) files.get(key);
+        long          now = System.currentTimeMillis();
+
+        if (res != null && now >= res.getValidated() + interval) {
+            if (res.isModified()) {
+                LOG.trace("removing modified file from cache: " + key);
+                remove(key);
+                res = null;
+            }
+        }
+        if (res == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return res;
+    }
+
+    /**
+     * Adds a loaded file to the cache. Any previous file with the
+     * same key will be replaced, and the least recently used files
+     * will be removed until the cache size limit is satisfied.
+     *
+     * @param key            the file path name
+     * @param file           the loaded response file
+     */
+    private synchronized void add(String key, ResponseFile file) {
+        Iterator  iter;
+
+        remove(key);
+        files.put(key, file);
+        size += file.getLength();
+        iter = files.values().iterator();
+        while (size > maxSize && iter.hasNext()) {
+            size -= ((ResponseFile) iter.next()).getLength();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Removes a file from the cache.
+     *
+     * @param key            the file path name
+     */
+    private synchronized void remove(String key) {
+        ResponseFile  file = (ResponseFile) files.remove(key);
+
+        if (file != null) {
+            size -= file.getLength();
+        }
+    }
+}
@@ -22,14 +22,15 @@
 package org.liquidsite.core.web;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.StringTokenizer;
 
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
@@ -85,6 +86,58 @@ public class Request {
      */
     private static final int ERROR_RESPONSE = 5;
 
+    /**
+     * The maximum number of byte ranges accepted in a request. Range
+     * headers with more ranges than this will be ignored and the
+     * complete file will be sent instead.
+     */
+    private static final int MAX_RANGES = 20;
+
+    /**
+     * The no file offload mode. All file responses will be written
+     * by the servlet container.
+     */
+    public static final int OFFLOAD_NONE = 0;
+
+    /**
+     * The X-Sendfile file offload mode. File responses will be sent
+     * with an "X-Sendfile" header containing the absolute file path,
+     * as supported by Apache mod_xsendfile and lighttpd.
+     */
+    public static final int OFFLOAD_SENDFILE = 1;
+
+    /**
+     * The X-Accel-Redirect file offload mode. File responses will be
+     * sent with an "X-Accel-Redirect" header containing an internal
+     * URI, as supported by nginx. The URI is composed of the offload
+     * prefix and the file path relative to the offload directory.
+     */
+    public static final int OFFLOAD_ACCEL_REDIRECT = 2;
+
+    /**
+     * The file offload mode. This determines if file responses are
+     * written to the front-end proxy or only passed as a header.
+     */
+    private static int offloadMode = OFFLOAD_NONE;
+
+    /**
+     * The file offload directory. Only files located in this
+     * directory (or its subdirectories) will be offloaded.
+     */
+    private static String offloadDir = null;
+
+    /**
+     * The file offload URI prefix. This is only used with the
+     * X-Accel-Redirect offload mode.
+     */
+    private static String offloadPrefix = "";
+
+    /**
+     * The file response cache. This is set to null if no file
+     * caching should be made.
+     */
+    private static FileCache fileCache = null;
+
     /**
      * The HTTP servlet context.
      */
@@ -136,6 +189,55 @@ public class Request {
      */
     private RequestSession session = null;
 
+    /**
+     * Configures file response offloading to a front-end proxy. When
+     * offloading is enabled, file responses located in the specified
+     * directory will be committed with an empty body and a header
+     * instructing the proxy to send the file. Any access control
+     * must therefore be made before calling sendFile(), and the
+     * proxy must be configured to serve the directory internally
+     * only.
+     *
+     * @param mode           the file offload mode
+     * @param dir            the offload directory, or null
+     * @param prefix         the X-Accel-Redirect URI prefix
+     */
+    public static void setFileOffload(int mode, File dir, String prefix) {
+        if (dir == null) {
+            mode = OFFLOAD_NONE;
+        }
+        offloadMode = mode;
+        offloadDir = (dir == null) ? null : dir.getAbsolutePath();
+        if (prefix == null) {
+            offloadPrefix = "";
+        } else if (prefix.endsWith("/")) {
+            offloadPrefix = prefix.substring(0, prefix.length() - 1);
+        } else {
+            offloadPrefix = prefix;
+        }
+    }
+
+    /**
+     * Sets the file response cache. Small response files will be
+     * kept in memory by this cache. If the cache is set to null, all
+     * files will be read from disk on each request.
+     *
+     * @param cache          the file cache to use, or null
+     */
+    public static void setFileCache(FileCache cache) {
+        fileCache = cache;
+    }
+
+    /**
+     * Returns the file response cache.
+     *
+     * @return the file cache used, or
+     *         null if no file cache is used
+     */
+    public static FileCache getFileCache() {
+        return fileCache;
+    }
+
     /**
      * Creates a new request.
      *
@@ -665,7 +767,9 @@ public class Request {
     /**
      * Sends the file response to the underlying HTTP response object.
      * The response can be committed either completely or solely with
-     * the response headers.
+     * the response headers. Any byte ranges present in the request
+     * will be respected, sending a partial content response with
+     * only the requested parts of the file.
      *
      * @param context        the servlet context
      * @param content        the complete content response flag
@@ -676,43 +780,373 @@ public class Request {
     private void commitFile(ServletContext context, boolean content)
         throws IOException {
 
-        File             file;
-        long             modified;
-        FileInputStream  input;
-        OutputStream     output;
-        byte[]           buffer = new byte[4096];
-        int              length;
+        File          file;
+        ResponseFile  res;
+        String        path;
+        long          length;
+        long          modified;
+        long[]        ranges;
 
+        file = new File(responseData);
+        path = getOffloadPath(file);
+        if (path != null) {
+            commitOffloadFile(context, path);
+            return;
+        }
         LOG.info("Handling request for " + this + " with file " +
                  responseData);
-        file = new File(responseData);
+        if (fileCache != null) {
+            res = fileCache.get(context, file);
+        } else {
+            res = new ResponseFile(file, context.getMimeType(responseData));
+        }
+        length = res.getLength();
         modified = request.getDateHeader("If-Modified-Since");
-        if (modified != -1 && file.lastModified() < modified + 1000) {
+        if (modified != -1 && res.getLastModified() < modified + 1000) {
             LOG.trace("request response: HTTP 304, file " + file +
                       " not modified");
             response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
             return;
         }
-        commitStaticHeaders(file.lastModified());
+        commitStaticHeaders(res.getLastModified());
+        response.setHeader("ETag", res.getEntityTag());
+        response.setHeader("Accept-Ranges", "bytes");
+        ranges = null;
+        if (isRangeValid(res.getLastModified(), res.getEntityTag())) {
+            ranges = parseRanges(request.getHeader("Range"), length);
+        }
+        if (ranges != null && ranges.length == 0) {
+            LOG.trace("request response: HTTP 416, no satisfiable " +
+                      "range in file " + file);
+            response.setStatus(
+                HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            response.setHeader("Content-Range", "bytes */" + length);
+            return;
+        }
+        try {
+            if (content) {
+                res.open();
+            }
+        } catch (IOException e) {
+            LOG.error("failed to read HTTP response file " + file, e);
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try {
+            if (ranges == null) {
+                response.setContentType(res.getMimeType());
+                response.setContentLength((int) length);
+                if (content) {
+                    commitFileRange(res, 0, length);
+                }
+            } else if (ranges.length == 2) {
+                LOG.trace("request response: HTTP 206, single range in " +
+                          "file " + file);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(res.getMimeType());
+                response.setHeader("Content-Range",
+                                   createContentRange(ranges[0],
+                                                      ranges[1],
+                                                      length));
+                response.setContentLength((int) (ranges[1] - ranges[0] + 1));
+                if (content) {
+                    commitFileRange(res, ranges[0], ranges[1] - ranges[0] + 1);
+                }
+            } else {
+                LOG.trace("request response: HTTP 206, multiple ranges " +
+                          "in file " + file);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                commitFileRanges(res, ranges, content);
+            }
+        } finally {
+            res.close();
+        }
+    }
+
+    /**
+     * Sends the file response as an offload header to the underlying
+     * HTTP response object. No response body will be written, as the
+     * front-end proxy is responsible for sending the file contents
+     * and handling any conditional or range headers.
+     *
+     * @param context        the servlet context
+     * @param path           the offload header path
+     */
+    private void commitOffloadFile(ServletContext context, String path) {
+        LOG.info("Handling request for " + this + " with offloaded file " +
+                 responseData);
+        if (responseLimitCache) {
+            response.setHeader("Cache-Control", "private");
+        } else {
+            response.setHeader("Cache-Control", "public");
+        }
         response.setContentType(context.getMimeType(responseData));
-        response.setContentLength((int) file.length());
-        if (content) {
-            try {
-                input = new FileInputStream(file);
-            } catch (IOException e) {
-                LOG.error("failed to read HTTP response file " + file, e);
-                response.sendError(HttpServletResponse.SC_NOT_FOUND);
-                return;
+        if (offloadMode == OFFLOAD_SENDFILE) {
+            response.setHeader("X-Sendfile", path);
+        } else {
+            response.setHeader("X-Accel-Redirect", path);
+        }
+        response.setContentLength(0);
+    }
+
+    /**
+     * Returns the file offload header path for a file. The path
+     * returned depends on the offload mode, and will be null if the
+     * file shouldn't be offloaded. The X-Sendfile mode uses the plain
+     * file system path, while the X-Accel-Redirect mode uses a URI
+     * with each path segment percent-encoded.
+     *
+     * @param file           the file to send
+     *
+     * @return the offload header path, or
+     *         null if the file shouldn't be offloaded
+     */
+    private String getOffloadPath(File file) {
+        String  path = file.getAbsolutePath();
+
+        if (offloadMode == OFFLOAD_NONE || !path.startsWith(offloadDir)) {
+            return null;
+        }
+        path = path.substring(offloadDir.length());
+        if (!path.startsWith(File.separator)) {
+            return null;
+        } else if (offloadMode == OFFLOAD_SENDFILE) {
+            return file.getAbsolutePath();
+        }
+        if (File.separatorChar != '/') {
+            path = path.replace(File.separatorChar, '/');
+        }
+        return offloadPrefix + encodePath(path);
+    }
+
+    /**
+     * Percent-encodes a URI path. All characters except the
+     * unreserved URI characters and the path separator ('/') are
+     * encoded from their UTF-8 representation.
+     *
+     * @param path           the URI path to encode
+     *
+     * @return the encoded URI path
+     */
+    private static String encodePath(String path) {
+        StringBuffer  buffer = new StringBuffer(path.length() + 16);
+        String        hex = "0123456789ABCDEF";
+        byte[]        bytes;
+        int           c;
+
+        try {
+            bytes = path.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            bytes = path.getBytes();
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            c = bytes[i] & 0xFF;
+            if ((c >= 'a' && c <= 'z')
+             || (c >= 'A' && c <= 'Z')
+             || (c >= '0' && c <= '9')
+             || c == '-' || c == '.' || c == '_' || c == '~' || c == '/') {
+
+                buffer.append((char) c);
+            } else {
+                buffer.append('%');
+                buffer.append(hex.charAt(c >> 4));
+                buffer.append(hex.charAt(c & 0x0F));
             }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Sends a multipart byte ranges response to the underlying HTTP
+     * response object. The content type and length headers will be
+     * set by this method. The response can be committed either
+     * completely or solely with the response headers.
+     *
+     * @param file           the opened response file
+     * @param ranges         the byte range start and end pairs
+     * @param content        the complete content response flag
+     *
+     * @throws IOException if an IO error occured while attempting to
+     *             commit the response
+     */
+    private void commitFileRanges(ResponseFile file,
+                                  long[] ranges,
+                                  boolean content)
+        throws IOException {
+
+        String        mimeType = file.getMimeType();
+        long          length = file.getLength();
+        String        boundary;
+        String[]      headers;
+        String        str;
+        long          size = 0;
+        OutputStream  output;
+
+        str = Long.toHexString(System.currentTimeMillis());
+        boundary = "LIQUIDSITE_BYTERANGES_" + str;
+        if (mimeType == null) {
+            mimeType = "application/octet-stream";
+        }
+        headers = new String[ranges.length / 2];
+        for (int i = 0; i < headers.length; i++) {
+            str = createContentRange(ranges[2 * i], ranges[2 * i + 1], length);
+            headers[i] = "\r\n--" + boundary + "\r\n" +
+                         "Content-Type: " + mimeType + "\r\n" +
+                         "Content-Range: " + str + "\r\n\r\n";
+            size += headers[i].length();
+            size += ranges[2 * i + 1] - ranges[2 * i] + 1;
+        }
+        str = "\r\n--" + boundary + "--\r\n";
+        size += str.length();
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setContentLength((int) size);
+        if (content) {
             output = response.getOutputStream();
-            while ((length = input.read(buffer)) > 0) {
-                output.write(buffer, 0, length);
+            for (int i = 0; i < headers.length; i++) {
+                output.write(headers[i].getBytes("ISO-8859-1"));
+                file.write(output,
+                           ranges[2 * i],
+                           ranges[2 * i + 1] - ranges[2 * i] + 1);
             }
-            input.close();
+            output.write(str.getBytes("ISO-8859-1"));
             output.close();
         }
     }
 
+    /**
+     * Sends a part of a file to the response output stream. The
+     * output stream will be closed after writing.
+     *
+     * @param file           the opened response file
+     * @param start          the first byte position to send
+     * @param count          the number of bytes to send
+     *
+     * @throws IOException if an IO error occured while attempting to
+     *             commit the response
+     */
+    private void commitFileRange(ResponseFile file, long start, long count)
+        throws IOException {
+
+        OutputStream  output = response.getOutputStream();
+
+        file.write(output, start, count);
+        output.close();
+    }
+
+    /**
+     * Checks if the request range header should be respected. This
+     * is the case unless an "If-Range" header is present with an
+     * entity tag or a date not matching the file.
+     *
+     * @param lastModified   the file last modification time
+     * @param etag           the file entity tag
+     *
+     * @return true if the range header should be used, or
+     *         false otherwise
+     */
+    private boolean isRangeValid(long lastModified, String etag) {
+        String  value = request.getHeader("If-Range");
+        long    date;
+
+        if (value == null) {
+            return true;
+        } else if (value.startsWith("\"") || value.startsWith("W/")) {
+            return value.equals(etag);
+        }
+        try {
+            date = request.getDateHeader("If-Range");
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        return lastModified / 1000 == date / 1000;
+    }
+
+    /**
+     * Parses an HTTP range header value. The byte ranges will be
+     * returned as an array of start and end position pairs, both
+     * inclusive. Any unsatisfiable ranges will be removed from the
+     * result. Syntactically invalid headers, or headers containing
+     * too many ranges, are ignored.
+     *
+     * @param value          the range header value, or null
+     * @param length         the total file length
+     *
+     * @return the array of byte range start and end positions, an
+     *         empty array if no range could be satisfied, or
+     *         null if the whole file should be sent
+     */
+    private static long[] parseRanges(String value, long length) {
+        ArrayList        list = new ArrayList();
+        StringTokenizer  parser;
+        String           str;
+        int              pos;
+        long             start;
+        long             end;
+        long[]           res;
+
+        if (value == null || !value.trim().startsWith("bytes=")) {
+            return null;
+        }
+        parser = new StringTokenizer(value.trim().substring(6), ",");
+        if (parser.countTokens() > MAX_RANGES) {
+            return null;
+        }
+        while (parser.hasMoreTokens()) {
+            str = parser.nextToken().trim();
+            pos = str.indexOf('-');
+            if (pos < 0) {
+                return null;
+            }
+            try {
+                if (pos == 0) {
+                    start = length - Long.parseLong(str.substring(1));
+                    end = length - 1;
+                    if (start < 0) {
+                        start = 0;
+                    }
+                } else if (pos == str.length() - 1) {
+                    start = Long.parseLong(str.substring(0, pos));
+                    end = length - 1;
+                } else {
+                    start = Long.parseLong(str.substring(0, pos));
+                    end = Long.parseLong(str.substring(pos + 1));
+                    if (end < start) {
+                        return null;
+                    } else if (end >= length) {
+                        end = length - 1;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < length && start <= end) {
+                list.add(new Long(start));
+                list.add(new Long(end));
+            }
+        }
+        res = new long[list.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = ((Long) list.get(i)).longValue();
+        }
+        return res;
+    }
+
+    /**
+     * Creates an HTTP content range header value.
+     *
+     * @param start          the first byte position
+     * @param end            the last byte position
+     * @param length         the total file length
+     *
+     * @return the content range header value
+     */
+    private static String createContentRange(long start,
+                                             long end,
+                                             long length) {
+
+        return "bytes " + start + "-" + end + "/" + length;
+    }
+
     /**
      * Sends the redirect response to the underlying HTTP response
      * object.
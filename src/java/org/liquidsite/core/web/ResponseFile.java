@@ -0,0 +1,264 @@
+/*
+ * ResponseFile.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.core.web;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A file used as a request response. This class contains the file
+ * meta-data used in the HTTP response headers, and optionally the
+ * complete file contents in a read-only buffer. Loaded response
+ * files may be shared between threads, but unloaded response files
+ * must only be used by a single thread at a time.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class ResponseFile {
+
+    /**
+     * The file.
+     */
+    private File file;
+
+    /**
+     * The file MIME type.
+     */
+    private String mimeType;
+
+    /**
+     * The file last modification time.
+     */
+    private long lastModified;
+
+    /**
+     * The file length.
+     */
+    private long length;
+
+    /**
+     * The file entity tag.
+     */
+    private String etag;
+
+    /**
+     * The file data buffer. This buffer is null unless the file
+     * has been loaded.
+     */
+    private ByteBuffer data = null;
+
+    /**
+     * The time of the last file validation.
+     */
+    private long validated;
+
+    /**
+     * The open file input. This is only used for unloaded files.
+     */
+    private RandomAccessFile input = null;
+
+    /**
+     * Creates a new response file. The file meta-data will be read
+     * by this constructor.
+     *
+     * @param file           the file
+     * @param mimeType       the file MIME type
+     */
+    public ResponseFile(File file, String mimeType) {
+        this.file = file;
+        this.mimeType = mimeType;
+        this.lastModified = file.lastModified();
+        this.length = file.length();
+        this.etag = createEntityTag();
+        this.validated = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the file MIME type.
+     *
+     * @return the file MIME type
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Returns the file last modification time.
+     *
+     * @return the file last modification time
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the file length.
+     *
+     * @return the file length
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the file entity tag. The entity tag is based on the
+     * file modification time and size.
+     *
+     * @return the quoted file entity tag
+     */
+    public String getEntityTag() {
+        return etag;
+    }
+
+    /**
+     * Checks if the file has been modified since the meta-data was
+     * read. This method will also update the validation time.
+     *
+     * @return true if the file has been modified, or
+     *         false otherwise
+     */
+    public boolean isModified() {
+        validated = System.currentTimeMillis();
+        return file.lastModified() != lastModified
+            || file.length() != length;
+    }
+
+    /**
+     * Returns the time of the last file validation.
+     *
+     * @return the time of the last file validation
+     */
+    public long getValidated() {
+        return validated;
+    }
+
+    /**
+     * Loads the file contents into a read-only buffer. The file
+     * length will be updated to the number of bytes actually read.
+     *
+     * @param direct         the direct buffer flag
+     *
+     * @throws IOException if the file couldn't be read
+     */
+    public void load(boolean direct) throws IOException {
+        FileInputStream  in = new FileInputStream(file);
+        FileChannel      channel = in.getChannel();
+        ByteBuffer       buffer;
+
+        try {
+            if (direct) {
+                buffer = ByteBuffer.allocateDirect((int) length);
+            } else {
+                buffer = ByteBuffer.allocate((int) length);
+            }
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // Continue reading
+            }
+            buffer.flip();
+            length = buffer.limit();
+            etag = createEntityTag();
+            data = buffer.asReadOnlyBuffer();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Opens the file for writing. This method must be called before
+     * the write() method, unless the file contents has been loaded.
+     *
+     * @throws IOException if the file couldn't be opened
+     */
+    public void open() throws IOException {
+        if (data == null && input == null) {
+            input = new RandomAccessFile(file, "r");
+        }
+    }
+
+    /**
+     * Closes the file if it has been opened.
+     *
+     * @throws IOException if the file couldn't be closed
+     */
+    public void close() throws IOException {
+        if (input != null) {
+            input.close();
+            input = null;
+        }
+    }
+
+    /**
+     * Writes a part of the file to an output stream.
+     *
+     * @param output         the output stream
+     * @param start          the first byte position to write
+     * @param count          the number of bytes to write
+     *
+     * @throws IOException if an IO error occured while writing
+     */
+    public void write(OutputStream output, long start, long count)
+        throws IOException {
+
+        byte[]      buffer = new byte[4096];
+        ByteBuffer  src;
+        int         len;
+
+        if (data != null) {
+            src = data.duplicate();
+            src.position((int) start);
+            src.limit((int) (start + count));
+            while (src.hasRemaining()) {
+                len = Math.min(buffer.length, src.remaining());
+                src.get(buffer, 0, len);
+                output.write(buffer, 0, len);
+            }
+        } else {
+            input.seek(start);
+            while (count > 0) {
+                len = (int) Math.min(buffer.length, count);
+                len = input.read(buffer, 0, len);
+                if (len <= 0) {
+                    break;
+                }
+                output.write(buffer, 0, len);
+                count -= len;
+            }
+        }
+    }
+
+    /**
+     * Creates an HTTP entity tag for the file. The entity tag is
+     * based on the file modification time and size.
+     *
+     * @return the quoted entity tag
+     */
+    private String createEntityTag() {
+        return "\"" + Long.toHexString(length) + "-" +
+               Long.toHexString(lastModified) + "\"";
+    }
+}
@@ -33,6 +33,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import org.liquidsite.util.log.Log;
+import org.liquidsite.util.stats.RequestTimer;
 
 /**
  * A database connection. This class encapsulates a JDBC database
@@ -283,6 +284,7 @@ public class DatabaseConnection {
         PreparedStatement  stmt;
         ResultSet          set = null;
         String             message;
+        long               start;
 
         // Find SQL
         if (!query.hasSql() && query.getName() == null) {
@@ -299,21 +301,22 @@ public class DatabaseConnection {
 
         // Execute SQL
         stmt = prepare(query);
+        start = RequestTimer.begin(RequestTimer.DATABASE);
         try {
-            LOG.trace("executing " + query + "...");
+            LOG.trace("executing {}...", query);
             if (query.hasResults()) {
                 set = stmt.executeQuery();
-                LOG.trace("extracting results from " + query + "...");
+                LOG.trace("extracting results from {}...", query);
                 res = new DatabaseResults(set);
             } else {
                 stmt.executeUpdate();
             }
-            LOG.trace("done executing " + query);
+            LOG.trace("done executing {}", query);
         } catch (SQLException e) {
             LOG.warning("failed to execute " + query, e);
             throw new DatabaseException("couldn't execute " + query, e);
         } finally {
-            LOG.trace("closing " + query + " resources...");
+            LOG.trace("closing {} resources...", query);
             try {
                 if (set != null) {
                     set.close();
@@ -322,7 +325,8 @@ public class DatabaseConnection {
             } catch (SQLException ignore) {
                 // Do nothing
             }
-            LOG.trace("done closing " + query + " resources");
+            LOG.trace("done closing {} resources", query);
+            RequestTimer.end(RequestTimer.DATABASE, start);
         }
 
         return res;
@@ -389,7 +393,7 @@ public class DatabaseConnection {
         PreparedStatement  stmt;
 
         try {
-            LOG.trace("preparing " + query + "...");
+            LOG.trace("preparing {}...", query);
             stmt = con.prepareStatement(query.getSql(),
                                         ResultSet.TYPE_FORWARD_ONLY,
                                         ResultSet.CONCUR_READ_ONLY,
@@ -156,7 +156,7 @@ public class DatabaseConnectionPool {
 
         DatabaseConnection  con;
 
-        LOG.trace("getting pooled connection for " + db + "...");
+        LOG.trace("getting pooled connection for {}...", db);
         try {
             con = checkOut();
             if (con == null) {
@@ -179,7 +179,7 @@ public class DatabaseConnectionPool {
      * @see #getConnection
      */
     public void returnConnection(DatabaseConnection con) {
-        LOG.trace("returning pooled connection for " + db + "...");
+        LOG.trace("returning pooled connection for {}...", db);
         checkIn(con);
         LOG.trace("returned pooled connection");
     }
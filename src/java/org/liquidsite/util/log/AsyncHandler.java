@@ -0,0 +1,422 @@
+/*
+ * AsyncHandler.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.log;
+
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * An asynchronous log handler. This handler stores the log records
+ * in a bounded ring buffer and writes them to a target handler from
+ * a background thread, so that the logging threads never wait for
+ * any I/O. The records are written in batches, with a single flush
+ * of the target handler after each batch. If the buffer is full,
+ * new log records are either dropped or the logging thread is
+ * blocked until space is available. Dropped records are counted
+ * and reported through the target handler.<p>
+ *
+ * When created by the log manager, this handler reads the following
+ * properties from the logging configuration:
+ *
+ * <ul>
+ *   <li>org.liquidsite.util.log.AsyncHandler.target -- the target
+ *       handler class name (defaults to ConsoleHandler)
+ *   <li>org.liquidsite.util.log.AsyncHandler.size -- the buffer
+ *       size in log records (defaults to 1024)
+ *   <li>org.liquidsite.util.log.AsyncHandler.block -- the block
+ *       when full flag (defaults to false)
+ *   <li>org.liquidsite.util.log.AsyncHandler.level -- the handler
+ *       log level (defaults to ALL)
+ * </ul>
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class AsyncHandler extends Handler {
+
+    /**
+     * The fully qualified class name.
+     */
+    private static final String CLASS_NAME = AsyncHandler.class.getName();
+
+    /**
+     * The default buffer size.
+     */
+    private static final int DEFAULT_SIZE = 1024;
+
+    /**
+     * The stop timeout in milliseconds.
+     */
+    private static final int STOP_TIMEOUT = 3000;
+
+    /**
+     * The target log handler.
+     */
+    private Handler target;
+
+    /**
+     * The log record ring buffer.
+     */
+    private LogRecord[] buffer;
+
+    /**
+     * The position of the first log record in the buffer.
+     */
+    private int first = 0;
+
+    /**
+     * The number of log records in the buffer.
+     */
+    private int count = 0;
+
+    /**
+     * The block when full flag. If this flag is set, logging threads
+     * will wait for buffer space instead of dropping records.
+     */
+    private boolean block;
+
+    /**
+     * The number of log records dropped and not yet reported.
+     */
+    private long dropped = 0;
+
+    /**
+     * The total number of log records dropped.
+     */
+    private long droppedTotal = 0;
+
+    /**
+     * The writing flag. This flag is set while the background
+     * thread is writing a batch of log records.
+     */
+    private boolean writing = false;
+
+    /**
+     * The alive flag. This flag is set to false when the handler is
+     * closed.
+     */
+    private boolean alive = true;
+
+    /**
+     * The background writer thread.
+     */
+    private Thread thread;
+
+    /**
+     * Creates a new asynchronous log handler. The handler
+     * configuration is read from the log manager properties.
+     */
+    public AsyncHandler() {
+        LogManager  manager = LogManager.getLogManager();
+        Handler     handler;
+        String      str;
+        int         size = DEFAULT_SIZE;
+
+        str = manager.getProperty(CLASS_NAME + ".target");
+        if (str == null) {
+            str = ConsoleHandler.class.getName();
+        }
+        try {
+            handler = (Handler) Class.forName(str.trim()).newInstance();
+        } catch (Exception e) {
+            reportError("couldn't create log handler " + str, e,
+                        ErrorManager.OPEN_FAILURE);
+            handler = new ConsoleHandler();
+        }
+        str = manager.getProperty(CLASS_NAME + ".size");
+        try {
+            if (str != null) {
+                size = Integer.parseInt(str.trim());
+            }
+        } catch (NumberFormatException e) {
+            reportError("invalid log buffer size " + str, e,
+                        ErrorManager.GENERIC_FAILURE);
+        }
+        str = manager.getProperty(CLASS_NAME + ".block");
+        initialize(handler, size, str != null && str.trim().equals("true"));
+        str = manager.getProperty(CLASS_NAME + ".level");
+        try {
+            if (str != null) {
+                setLevel(Level.parse(str.trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            reportError("invalid log level " + str, e,
+                        ErrorManager.GENERIC_FAILURE);
+        }
+    }
+
+    /**
+     * Creates a new asynchronous log handler.
+     *
+     * @param target         the target log handler
+     * @param size           the buffer size in log records
+     * @param block          the block when full flag
+     */
+    public AsyncHandler(Handler target, int size, boolean block) {
+        initialize(target, size, block);
+    }
+
+    /**
+     * Initializes this handler and starts the background writer
+     * thread.
+     *
+     * @param target         the target log handler
+     * @param size           the buffer size in log records
+     * @param block          the block when full flag
+     */
+    private void initialize(Handler target, int size, boolean block) {
+        this.target = target;
+        this.buffer = new LogRecord[Math.max(size, 1)];
+        this.block = block;
+        thread = new Thread(new Writer(this), "log-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the target log handler.
+     *
+     * @return the target log handler
+     */
+    public Handler getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns the total number of log records dropped due to a full
+     * buffer.
+     *
+     * @return the number of log records dropped
+     */
+    public synchronized long getDroppedCount() {
+        return droppedTotal;
+    }
+
+    /**
+     * Publishes a log record. The record is added to the buffer and
+     * will be written by the background thread. The caller class and
+     * method names are inferred before returning, as this cannot be
+     * done from the background thread.
+     *
+     * @param record         the log record to publish
+     */
+    public void publish(LogRecord record) {
+        if (!isLoggable(record)) {
+            return;
+        }
+        record.getSourceClassName();
+        synchronized (this) {
+            while (alive && block && count >= buffer.length) {
+                try {
+                    wait();
+                } catch (InterruptedException ignore) {
+                    // Do nothing
+                }
+            }
+            if (!alive) {
+                return;
+            } else if (count >= buffer.length) {
+                dropped++;
+                droppedTotal++;
+                return;
+            }
+            buffer[(first + count) % buffer.length] = record;
+            count++;
+            if (count == 1) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Flushes any buffered output. This method will not return until
+     * all the buffered log records have been written, or the handler
+     * has been closed.
+     */
+    public void flush() {
+        synchronized (this) {
+            while (alive && (count > 0 || writing)) {
+                try {
+                    wait();
+                } catch (InterruptedException ignore) {
+                    // Do nothing
+                }
+            }
+        }
+        flushTarget();
+    }
+
+    /**
+     * Closes the log handler and frees any resources. Any buffered
+     * log records will be written before closing the target handler,
+     * unless a timeout has passed.
+     */
+    public void close() {
+        synchronized (this) {
+            alive = false;
+            notifyAll();
+        }
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException ignore) {
+            // Do nothing
+        }
+        target.close();
+    }
+
+    /**
+     * Removes all the log records in the buffer. This method waits
+     * until the buffer isn't empty, unless the handler has been
+     * closed.
+     *
+     * @param batch          the array to store the log records in
+     *
+     * @return the number of log records removed, or
+     *         -1 if the handler was closed and the buffer is empty
+     */
+    private synchronized int take(LogRecord[] batch) {
+        int  size;
+
+        writing = false;
+        notifyAll();
+        while (alive && count == 0) {
+            try {
+                wait();
+            } catch (InterruptedException ignore) {
+                // Do nothing
+            }
+        }
+        if (count == 0) {
+            return -1;
+        }
+        size = count;
+        for (int i = 0; i < size; i++) {
+            batch[i] = buffer[(first + i) % buffer.length];
+            buffer[(first + i) % buffer.length] = null;
+        }
+        first = (first + size) % buffer.length;
+        count = 0;
+        writing = true;
+        notifyAll();
+        return size;
+    }
+
+    /**
+     * Returns and resets the number of unreported dropped records.
+     *
+     * @return the number of unreported dropped records
+     */
+    private synchronized long takeDropped() {
+        long  res = dropped;
+
+        dropped = 0;
+        return res;
+    }
+
+    /**
+     * Writes log records to the target handler until the handler
+     * is closed. This method is called from the background thread.
+     * Any errors in the target handler are reported to the error
+     * manager, without stopping the background thread.
+     */
+    private void write() {
+        LogRecord[]  batch = new LogRecord[buffer.length];
+        long         lost;
+        int          size;
+
+        while ((size = take(batch)) >= 0) {
+            for (int i = 0; i < size; i++) {
+                writeTarget(batch[i]);
+                batch[i] = null;
+            }
+            lost = takeDropped();
+            if (lost > 0) {
+                writeTarget(new LogRecord(Level.WARNING,
+                                          "dropped " + lost +
+                                          " log records"));
+            }
+            flushTarget();
+        }
+    }
+
+    /**
+     * Writes a log record to the target handler. Any error in the
+     * target handler is reported to the error manager.
+     *
+     * @param record         the log record to write
+     */
+    private void writeTarget(LogRecord record) {
+        try {
+            target.publish(record);
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * Flushes the target handler. Any error in the target handler is
+     * reported to the error manager.
+     */
+    private void flushTarget() {
+        try {
+            target.flush();
+        } catch (RuntimeException e) {
+            reportError(null, e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    /**
+     * A background writer thread. The writer writes the buffered log
+     * records to the target handler until the handler is closed.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Writer implements Runnable {
+
+        /**
+         * The asynchronous log handler.
+         */
+        private AsyncHandler handler;
+
+        /**
+         * Creates a new background writer.
+         *
+         * @param handler        the asynchronous log handler
+         */
+        public Writer(AsyncHandler handler) {
+            this.handler = handler;
+        }
+
+        /**
+         * Runs the writer. This method is not supposed to be called
+         * directly, but rather by the writer thread.
+         */
+        public void run() {
+            handler.write();
+        }
+    }
+}
@@ -31,7 +31,10 @@ import java.util.logging.Logger;
 /**
  * An error and debug log. This class encapsulates the standard
  * logging in JDK 1.4 to provide some convenience methods and define
- * the log levels more adequately for this application.
+ * the log levels more adequately for this application. Trace
+ * messages in frequently executed code should either be guarded by
+ * isTraceEnabled() or use the message pattern methods, so that the
+ * message strings are only created if the message is logged.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
@@ -43,6 +46,15 @@ public class Log {
      */
     private static final String CLASS_NAME = Log.class.getName();
 
+    /**
+     * The caller inference flag. If this flag is set, the caller
+     * class and method names are inferred for each logged message
+     * by creating a stack trace. Otherwise the log name is used as
+     * the class name. This flag is set from the
+     * "org.liquidsite.util.log.Log.caller" logging property.
+     */
+    private static boolean inferCaller = true;
+
     /**
      * The logger being used.
      */
@@ -58,11 +70,27 @@ public class Log {
     public static void initialize(File file) throws IOException {
         LogManager       manager;
         FileInputStream  input;
+        String           str;
 
         manager = LogManager.getLogManager();
         input = new FileInputStream(file);
         manager.readConfiguration(input);
         input.close();
+        str = manager.getProperty(CLASS_NAME + ".caller");
+        setCallerInference(str == null || !str.trim().equals("false"));
+    }
+
+    /**
+     * Sets the caller inference flag. If this flag is set, the
+     * caller class and method names are inferred for each logged
+     * message by creating a stack trace. This is relatively
+     * expensive, so it may be turned off when logging many
+     * messages. The log name will then be used as the class name.
+     *
+     * @param infer          the caller inference flag
+     */
+    public static void setCallerInference(boolean infer) {
+        inferCaller = infer;
     }
 
     /**
@@ -107,7 +135,7 @@ public class Log {
      * @param thrown         the throwable to log
      */
     public final void error(String message, Throwable thrown) {
-        error(message + ": " + thrown.getMessage());
+        log(Level.SEVERE, message, thrown);
     }
 
     /**
@@ -132,7 +160,7 @@ public class Log {
      * @param thrown         the throwable to log
      */
     public final void warning(String message, Throwable thrown) {
-        warning(message + ": " + thrown.getMessage());
+        log(Level.WARNING, message, thrown);
     }
 
     /**
@@ -159,7 +187,7 @@ public class Log {
      * @param thrown         the throwable to log
      */
     public final void info(String message, Throwable thrown) {
-        info(message + ": " + thrown.getMessage());
+        log(Level.INFO, message, thrown);
     }
 
     /**
@@ -182,24 +210,118 @@ public class Log {
      * @param thrown         the throwable to log
      */
     public final void trace(String message, Throwable thrown) {
-        trace(message + ": " + thrown.getMessage());
+        log(Level.FINER, message, thrown);
     }
 
     /**
-     * Logs a message on the specified log level. This method will
-     * search for the caller class and method names by creating a
-     * stack trace.
+     * Logs a trace message. A trace message is logged for debugging
+     * normal operation. The message is created from a pattern, where
+     * the "{}" placeholder is replaced by the string value of the
+     * argument. The message string is only created if trace
+     * messages are logged.
+     *
+     * @param pattern        the log message pattern
+     * @param arg            the message argument
+     */
+    public final void trace(String pattern, Object arg) {
+        Object[]  args;
+
+        if (logger.isLoggable(Level.FINER)) {
+            args = new Object[] { arg };
+            write(Level.FINER, format(pattern, args));
+        }
+    }
+
+    /**
+     * Logs a trace message. A trace message is logged for debugging
+     * normal operation. The message is created from a pattern, where
+     * each "{}" placeholder is replaced by the string value of the
+     * corresponding argument. The message string is only created if
+     * trace messages are logged.
+     *
+     * @param pattern        the log message pattern
+     * @param arg1           the first message argument
+     * @param arg2           the second message argument
+     */
+    public final void trace(String pattern, Object arg1, Object arg2) {
+        Object[]  args;
+
+        if (logger.isLoggable(Level.FINER)) {
+            args = new Object[] { arg1, arg2 };
+            write(Level.FINER, format(pattern, args));
+        }
+    }
+
+    /**
+     * Logs a trace message. A trace message is logged for debugging
+     * normal operation. The message is created from a pattern, where
+     * each "{}" placeholder is replaced by the string value of the
+     * corresponding argument. The message string is only created if
+     * trace messages are logged.
+     *
+     * @param pattern        the log message pattern
+     * @param args           the message arguments
+     */
+    public final void trace(String pattern, Object[] args) {
+        if (logger.isLoggable(Level.FINER)) {
+            write(Level.FINER, format(pattern, args));
+        }
+    }
+
+    /**
+     * Checks if trace messages are logged. This method can be used
+     * to avoid creating trace messages that would not be logged.
+     *
+     * @return true if trace messages are logged, or
+     *         false otherwise
+     */
+    public final boolean isTraceEnabled() {
+        return logger.isLoggable(Level.FINER);
+    }
+
+    /**
+     * Logs a message on the specified log level. Nothing is done if
+     * the log level isn't enabled.
      *
      * @param level          the log level to use
      * @param message        the log message
      */
     private final void log(Level level, String message) {
-        String               className = null;
+        if (logger.isLoggable(level)) {
+            write(level, message);
+        }
+    }
+
+    /**
+     * Logs a message and a throwable on the specified log level. The
+     * throwable message is appended to the log message. Nothing is
+     * done if the log level isn't enabled.
+     *
+     * @param level          the log level to use
+     * @param message        the log message
+     * @param thrown         the throwable to log
+     */
+    private final void log(Level level, String message, Throwable thrown) {
+        if (logger.isLoggable(level)) {
+            write(level, message + ": " + thrown.getMessage());
+        }
+    }
+
+    /**
+     * Writes a message on the specified log level. If caller
+     * inference is enabled, this method will search for the caller
+     * class and method names by creating a stack trace.
+     *
+     * @param level          the log level to use
+     * @param message        the log message
+     */
+    private final void write(Level level, String message) {
+        String               className = logger.getName();
         String               methodName = null;
         StackTraceElement[]  stackFrame;
         int                  i = 0;
 
-        if (logger.isLoggable(level)) {
+        if (inferCaller) {
             stackFrame = new Throwable().getStackTrace();
             while (stackFrame != null && i < stackFrame.length) {
                 if (!stackFrame[i].getClassName().equals(CLASS_NAME)) {
@@ -209,7 +331,36 @@ public class Log {
                 }
                 i++;
             }
-            logger.logp(level, className, methodName, message);
         }
+        logger.logp(level, className, methodName, message);
+    }
+
+    /**
+     * Formats a log message pattern. Each "{}" placeholder in the
+     * pattern is replaced by the string value of the corresponding
+     * argument. Any additional placeholders or arguments are left
+     * unmodified or ignored.
+     *
+     * @param pattern        the log message pattern
+     * @param args           the message arguments
+     *
+     * @return the formatted log message
+     */
+    private static String format(String pattern, Object[] args) {
+        StringBuffer  buffer = new StringBuffer();
+        int           pos = 0;
+        int           next;
+
+        for (int i = 0; i < args.length; i++) {
+            next = pattern.indexOf("{}", pos);
+            if (next < 0) {
+                break;
+            }
+            buffer.append(pattern.substring(pos, next));
+            buffer.append(args[i]);
+            pos = next + 2;
+        }
+        buffer.append(pattern.substring(pos));
+        return buffer.toString();
     }
 }
@@ -22,25 +22,42 @@
 package org.liquidsite.util.log;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.logging.ErrorManager;
 import java.util.logging.Handler;
 import java.util.logging.Level;
+import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
 /**
  * A UNIX syslog handler. This implementation is based on RFC 3164.
+ * By default each log record is sent immediately, blocking the
+ * logging thread until the datagram has been handed to the network
+ * stack. If a batch size is set, the log records are instead
+ * buffered and sent without blocking when the batch is full or the
+ * handler is flushed. Datagrams that couldn't be sent without
+ * blocking are dropped and counted. The batched mode is best used
+ * as the target of an AsyncHandler, which flushes after each batch.
+ * The handler properties are read from the logging configuration
+ * with the "org.liquidsite.util.log.SyslogHandler" prefix.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
  */
 public class SyslogHandler extends Handler {
 
+    /**
+     * The fully qualified class name.
+     */
+    private static final String CLASS_NAME = SyslogHandler.class.getName();
+
     /**
      * The emergency log severity. Used when the system is unusable.
      */
@@ -88,7 +105,7 @@ public class SyslogHandler extends Handler {
      * The date format to use.
      */
     private static final SimpleDateFormat DATE_FORMAT =
-        new SimpleDateFormat("MMM dd HH:MM:ss");
+        new SimpleDateFormat("MMM dd HH:mm:ss");
 
     /**
      * The maximum log message size.
@@ -96,9 +113,15 @@ public class SyslogHandler extends Handler {
     private static int MAX_SIZE = 1024;
 
     /**
-     * The datagram socket used for sending log messages.
+     * The datagram channel used for sending log messages.
+     */
+    private DatagramChannel channel = null;
+
+    /**
+     * The socket address of the syslog server, or null if not yet
+     * created.
      */
-    private DatagramSocket socket = null;
+    private SocketAddress destination = null;
 
     /**
      * The IP address of the syslog server.
@@ -126,16 +149,52 @@ public class SyslogHandler extends Handler {
     private String tag = "java";
 
     /**
-     * Creates a new syslog handler.
+     * The maximum number of buffered log messages, or zero (0) to
+     * send each message immediately.
+     */
+    private int batchSize = 0;
+
+    /**
+     * The buffered log messages. Each message is stored as a
+     * datagram payload byte array.
+     */
+    private ArrayList batch = new ArrayList();
+
+    /**
+     * The number of log messages dropped.
+     */
+    private long dropped = 0;
+
+    /**
+     * Creates a new syslog handler. The handler properties are read
+     * from the logging configuration.
      *
-     * @throws SocketException if an UDP socket couldn't be opened
-     * @throws UnknownHostException if the localhost IP address
-     *             couldn't be determined
+     * @throws IOException if an UDP socket couldn't be opened or if
+     *             the localhost IP address couldn't be determined
      */
-    public SyslogHandler() throws SocketException, UnknownHostException {
-        socket = new DatagramSocket();
+    public SyslogHandler() throws IOException {
+        LogManager  manager = LogManager.getLogManager();
+        String      str;
+
+        channel = DatagramChannel.open();
         address = InetAddress.getLocalHost();
-    }    
+        str = manager.getProperty(CLASS_NAME + ".level");
+        try {
+            if (str != null) {
+                setLevel(Level.parse(str.trim()));
+            }
+        } catch (IllegalArgumentException e) {
+            reportError("invalid log level " + str, e,
+                        ErrorManager.GENERIC_FAILURE);
+        }
+        str = manager.getProperty(CLASS_NAME + ".tag");
+        if (str != null) {
+            setTag(str.trim());
+        }
+        setPort(getIntProperty("port", port));
+        setFacility(getIntProperty("facility", facility));
+        setBatchSize(getIntProperty("batch", batchSize));
+    }
 
     /**
      * Returns the IP address of the syslog server. The default is
@@ -152,8 +211,9 @@ public class SyslogHandler extends Handler {
      *
      * @param address        the IP address of the syslog server
      */
-    public void setAddress(InetAddress address) {
+    public synchronized void setAddress(InetAddress address) {
         this.address = address;
+        this.destination = null;
     }
 
     /**
@@ -171,8 +231,9 @@ public class SyslogHandler extends Handler {
      *
      * @param port           the port number of the syslog server
      */
-    public void setPort(int port) {
+    public synchronized void setPort(int port) {
         this.port = port;
+        this.destination = null;
     }
 
     /**
@@ -230,19 +291,104 @@ public class SyslogHandler extends Handler {
     }
 
     /**
-     * Publishes a log record.
+     * Returns the log batch size.
+     *
+     * @return the maximum number of buffered log messages, or
+     *         zero (0) if messages are sent immediately
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the log batch size. If the batch size is positive, log
+     * messages are buffered and sent without blocking once the
+     * batch is full or the handler is flushed. Otherwise each log
+     * message is sent immediately.
+     *
+     * @param size           the maximum number of buffered log
+     *                       messages, or zero (0) for none
+     */
+    public synchronized void setBatchSize(int size) {
+        sendBatch();
+        batchSize = Math.max(size, 0);
+        try {
+            channel.configureBlocking(batchSize == 0);
+        } catch (IOException e) {
+            reportError("failed to configure syslog socket", e,
+                        ErrorManager.GENERIC_FAILURE);
+        }
+    }
+
+    /**
+     * Returns the number of log messages dropped. Messages are only
+     * dropped in batched mode, if the network stack couldn't accept
+     * them without blocking.
+     *
+     * @return the number of log messages dropped
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Publishes a log record. In batched mode the log record is
+     * only buffered, unless the batch becomes full.
      *
      * @param record         the log record to publish
      */
-    public void publish(LogRecord record) {
-        StringBuffer    buffer = new StringBuffer(256);
-        DatagramPacket  packet;
-        byte[]          payload;
-        int             size;
+    public synchronized void publish(LogRecord record) {
+        byte[]  payload;
+
+        if (!isLoggable(record)) {
+            return;
+        }
+        payload = format(record);
+        if (batchSize <= 0) {
+            send(payload);
+        } else {
+            batch.add(payload);
+            if (batch.size() >= batchSize) {
+                sendBatch();
+            }
+        }
+    }
+
+    /**
+     * Closes the log handler and frees any resources. Any buffered
+     * log messages are sent first.
+     */
+    public synchronized void close() {
+        sendBatch();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            reportError("failed to close syslog socket", e,
+                        ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * Flushes any buffered output. This will send all the buffered
+     * log messages in batched mode.
+     */
+    public synchronized void flush() {
+        sendBatch();
+    }
+
+    /**
+     * Formats a log record as a syslog datagram payload.
+     *
+     * @param record         the log record to format
+     *
+     * @return the datagram payload
+     */
+    private byte[] format(LogRecord record) {
+        StringBuffer  buffer = new StringBuffer(256);
 
         // Write the PRI part
         buffer.append("<");
-        buffer.append(facility << 3 + getSeverity(record));
+        buffer.append((facility << 3) + getSeverity(record));
         buffer.append(">");
 
         // Write the HEADER part
@@ -260,13 +406,40 @@ public class SyslogHandler extends Handler {
         buffer.append(record.getSourceMethodName());
         buffer.append("] ");
         buffer.append(record.getMessage());
+        return buffer.toString().getBytes();
+    }
+
+    /**
+     * Sends all the buffered log messages.
+     */
+    private void sendBatch() {
+        for (int i = 0; i < batch.size(); i++) {
+            send((byte[]) batch.get(i));
+        }
+        batch.clear();
+    }
 
-        // Send datagram packet
+    /**
+     * Sends a log message datagram. Payloads longer than the maximum
+     * log message size are truncated. If the socket is in
+     * non-blocking mode and the datagram couldn't be sent, it will
+     * be dropped.
+     *
+     * @param payload        the datagram payload
+     */
+    private void send(byte[] payload) {
+        ByteBuffer  data;
+        int         size;
+
+        size = (payload.length > MAX_SIZE) ? MAX_SIZE : payload.length;
+        data = ByteBuffer.wrap(payload, 0, size);
         try {
-            payload = buffer.toString().getBytes();
-            size = (payload.length > MAX_SIZE) ? MAX_SIZE : payload.length;
-            packet = new DatagramPacket(payload, size, address, port);
-            socket.send(packet);
+            if (destination == null) {
+                destination = new InetSocketAddress(address, port);
+            }
+            if (channel.send(data, destination) == 0) {
+                dropped++;
+            }
         } catch (IOException e) {
             System.err.println("failed to write to syslog: " +
                                e.getMessage());
@@ -274,17 +447,25 @@ public class SyslogHandler extends Handler {
     }
 
     /**
-     * Closes the log handler and frees any resources.
+     * Returns an integer property from the logging configuration.
+     *
+     * @param name           the property name (without prefix)
+     * @param defaultValue   the default value
+     *
+     * @return the property value, or
+     *         the default value if not set or invalid
      */
-    public void close() {
-        socket.close();
-    }
+    private int getIntProperty(String name, int defaultValue) {
+        LogManager  manager = LogManager.getLogManager();
+        String      str = manager.getProperty(CLASS_NAME + "." + name);
 
-    /**
-     * Flushes any buffered output.
-     */
-    public void flush() {
-        // Do nothing
+        try {
+            return (str == null) ? defaultValue : Integer.parseInt(str.trim());
+        } catch (NumberFormatException e) {
+            reportError("invalid syslog " + name + " " + str, e,
+                        ErrorManager.GENERIC_FAILURE);
+            return defaultValue;
+        }
     }
 
     /**
@@ -0,0 +1,173 @@
+/*
+ * MailConnection.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.mail;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+import org.liquidsite.util.log.Log;
+
+/**
+ * A reusable SMTP connection. The connection is opened on the first
+ * send and is then kept open for subsequent mails. If the connection
+ * is lost or a transport error occurs, it will be closed and
+ * reopened on the next send. This class is not thread-safe, so each
+ * connection should only be used by a single thread.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class MailConnection {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(MailConnection.class);
+
+    /**
+     * The mail session to use.
+     */
+    private Session session;
+
+    /**
+     * The SMTP transport, or null if not connected.
+     */
+    private Transport transport = null;
+
+    /**
+     * Creates a new SMTP connection. The connection will not be
+     * opened until the first mail is sent.
+     *
+     * @param session        the mail session to use
+     */
+    public MailConnection(Session session) {
+        this.session = session;
+    }
+
+    /**
+     * Checks if this connection is currently open.
+     *
+     * @return true if the connection is open, or
+     *         false otherwise
+     */
+    public boolean isOpen() {
+        return transport != null && transport.isConnected();
+    }
+
+    /**
+     * Sends a mail over this connection. The connection will be
+     * opened if needed.
+     *
+     * @param msg            the mail to send
+     *
+     * @throws MailTransportException if the SMTP connection couldn't
+     *             be opened, or if the mail couldn't be sent due to
+     *             a transport error
+     * @throws MailMessageException if the mail couldn't be sent due
+     *             to invalid recipient addresses
+     */
+    public void send(Message msg)
+        throws MailTransportException, MailMessageException {
+
+        Address[]  invalid;
+        String     error;
+
+        open();
+        try {
+            transport.sendMessage(msg, msg.getAllRecipients());
+        } catch (SendFailedException e) {
+            invalid = e.getInvalidAddresses();
+            if (invalid == null || invalid.length == 0) {
+                error = "failed to send mail message";
+                LOG.error(error, e);
+                throw new MailTransportException(error, e);
+            }
+            error = "invalid mail recipient address";
+            LOG.error(error, e);
+            throw new MailMessageException(error, e);
+        } catch (MessagingException e) {
+            close();
+            error = "unknown error while sending message";
+            LOG.error(error, e);
+            throw new MailTransportException(error, e);
+        }
+    }
+
+    /**
+     * Closes this connection. Any errors while closing the
+     * connection are ignored. The connection will be reopened on the
+     * next send.
+     */
+    public void close() {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException ignore) {
+                // Ignore this
+            }
+            transport = null;
+        }
+    }
+
+    /**
+     * Opens this connection. If the connection is already open,
+     * nothing is done.
+     *
+     * @throws MailTransportException if the SMTP connection couldn't
+     *             be opened
+     */
+    public void open() throws MailTransportException {
+        String  error;
+
+        if (isOpen()) {
+            return;
+        }
+        close();
+        try {
+            transport = session.getTransport();
+        } catch (NoSuchProviderException e) {
+            error = "failed to create SMTP transport";
+            LOG.error(error, e);
+            throw new MailTransportException(error, e);
+        }
+        try {
+            transport.connect();
+        } catch (AuthenticationFailedException e) {
+            transport = null;
+            error = "failed to authenticate to SMTP server";
+            LOG.error(error, e);
+            throw new MailTransportException(error, e);
+        } catch (MessagingException e) {
+            transport = null;
+            error = "failed to connect to SMTP server";
+            LOG.error(error, e);
+            throw new MailTransportException(error, e);
+        }
+        LOG.trace("opened SMTP connection");
+    }
+}
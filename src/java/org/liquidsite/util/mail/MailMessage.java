@@ -21,9 +21,12 @@
 
 package org.liquidsite.util.mail;
 
+import java.io.File;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Properties;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -38,9 +41,10 @@ import org.liquidsite.util.log.Log;
  * An email message. This is the base class for all types of email
  * messages in the outgoing mail queue. The queue will iterate over
  * all the message recipients one by one and send each one a single
- * unique message. Due to queueing considerations, it is possible
- * that other messages are delivered before all emails have been
- * generated for a message.
+ * unique message, or a batch of recipients a single shared message
+ * if supported by the message type. Due to queueing considerations,
+ * it is possible that other messages are delivered before all
+ * emails have been generated for a message.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
@@ -82,6 +86,23 @@ public abstract class MailMessage {
      */
     private HashMap attributes = new HashMap();
 
+    /**
+     * The mail spool file, or null if the message isn't spooled.
+     */
+    private File spoolFile = null;
+
+    /**
+     * The last Java mail MIME message created. The MIME message is
+     * reused for subsequent mails to other recipients, so that the
+     * message headers and body are only created once.
+     */
+    private MimeMessage mimeMessage = null;
+
+    /**
+     * The Java mail session used for the last MIME message created.
+     */
+    private Session mimeSession = null;
+
     /**
      * Checks if this message is valid. A message becomes valid once
      * it has at least one recipient and non-empty subject and text
@@ -277,6 +298,81 @@ public abstract class MailMessage {
         attributes.put(name, value);
     }
 
+    /**
+     * Returns the mail spool file for this message.
+     *
+     * @return the mail spool file, or
+     *         null if the message isn't spooled
+     */
+    File getSpoolFile() {
+        return spoolFile;
+    }
+
+    /**
+     * Sets the mail spool file for this message.
+     *
+     * @param file           the mail spool file, or null for none
+     */
+    void setSpoolFile(File file) {
+        this.spoolFile = file;
+    }
+
+    /**
+     * Writes the message state to a set of properties. The message
+     * state must include all data needed to recreate the message,
+     * including the progress in generating messages to the
+     * recipients. Subclasses overriding this method must also call
+     * the superclass implementation.
+     *
+     * @param props          the properties to write to
+     */
+    protected void writeState(Properties props) {
+        Iterator  iter;
+        String    name;
+
+        if (from != null) {
+            props.setProperty("from", from.toString());
+        }
+        if (replyTo != null) {
+            props.setProperty("replyTo", replyTo.toString());
+        }
+        props.setProperty("subject", subject);
+        props.setProperty("text", text);
+        iter = attributes.keySet().iterator();
+        while (iter.hasNext()) {
+            name = (String) iter.next();
+            props.setProperty("attribute." + name, getAttribute(name));
+        }
+    }
+
+    /**
+     * Reads the message state from a set of properties. The message
+     * state is read from properties previously created by the
+     * writeState() method. Subclasses overriding this method must
+     * also call the superclass implementation.
+     *
+     * @param props          the properties to read from
+     *
+     * @throws MailMessageException if the message state couldn't be
+     *             read correctly
+     */
+    protected void readState(Properties props) throws MailMessageException {
+        Iterator  iter;
+        String    name;
+
+        setFrom(props.getProperty("from"));
+        setReplyTo(props.getProperty("replyTo"));
+        setSubject(props.getProperty("subject", ""));
+        setText(props.getProperty("text", ""));
+        iter = props.keySet().iterator();
+        while (iter.hasNext()) {
+            name = (String) iter.next();
+            if (name.startsWith("attribute.")) {
+                setAttribute(name.substring(10), props.getProperty(name));
+            }
+        }
+    }
+
     /**
      * Checks if there remains any Java mail MIME messages to
      * generate.
@@ -288,7 +384,9 @@ public abstract class MailMessage {
 
     /**
      * Creates the next Java mail MIME message from this mail
-     * message.
+     * message. The returned MIME message may be reused for the
+     * following mails, so it must be sent before this method is
+     * called again.
      *
      * @param session        the Java mail session
      *
@@ -301,7 +399,16 @@ public abstract class MailMessage {
         throws MailMessageException;
 
     /**
-     * Creates a Java mail MIME message.
+     * Resets the progress to before the last Java mail MIME message
+     * created. The next call to getNextMessage() will create a
+     * message to the same recipients again. This method is called
+     * when the last message couldn't be sent due to a transport
+     * error.
+     */
+    protected abstract void resetLastMessage();
+
+    /**
+     * Creates a Java mail MIME message to a single recipient.
      *
      * @param session        the Java mail session
      * @param recipient      the mail recipient
@@ -315,30 +422,86 @@ public abstract class MailMessage {
                                         InternetAddress recipient)
         throws MailMessageException {
 
-        MimeMessage       msg = new MimeMessage(session);
+        InternetAddress[]  addresses = { recipient };
+
+        return createMessage(session, Message.RecipientType.TO, addresses);
+    }
+
+    /**
+     * Creates a Java mail MIME message to a batch of recipients. The
+     * recipients will be hidden (BCC) from each other, and the
+     * message will be addressed to undisclosed recipients.
+     *
+     * @param session        the Java mail session
+     * @param recipients     the mail recipients
+     *
+     * @return the Java MIME message created
+     *
+     * @throws MailMessageException if the message couldn't be
+     *             created correctly
+     */
+    protected MimeMessage createMessage(Session session,
+                                        InternetAddress[] recipients)
+        throws MailMessageException {
+
+        return createMessage(session, Message.RecipientType.BCC, recipients);
+    }
+
+    /**
+     * Creates a Java mail MIME message. The message headers and body
+     * are only created for the first message, as subsequent messages
+     * only modify the recipients and date of the previous message.
+     *
+     * @param session        the Java mail session
+     * @param type           the mail recipient type
+     * @param recipients     the mail recipients
+     *
+     * @return the Java MIME message created
+     *
+     * @throws MailMessageException if the message couldn't be
+     *             created correctly
+     */
+    private MimeMessage createMessage(Session session,
+                                      Message.RecipientType type,
+                                      InternetAddress[] recipients)
+        throws MailMessageException {
+
+        MimeMessage       msg = mimeMessage;
         InternetAddress[] addresses;
         String            error;
 
         try {
-            msg.setSentDate(new Date());
-            if (getFromAddress() == null) {
-                msg.setFrom();
-            } else {
-                msg.setFrom(getFromAddress());
+            if (msg == null || mimeSession != session) {
+                msg = new MimeMessage(session);
+                if (getFromAddress() == null) {
+                    msg.setFrom();
+                } else {
+                    msg.setFrom(getFromAddress());
+                }
+                if (getReplyToAddress() != null) {
+                    addresses = new InternetAddress[1];
+                    addresses[0] = getReplyToAddress();
+                    msg.setReplyTo(addresses);
+                }
+                msg.setSubject(getSubject(), CHARACTER_SET);
+                msg.setText(getText(), CHARACTER_SET);
+                mimeMessage = msg;
+                mimeSession = session;
             }
-            if (getReplyToAddress() != null) {
-                addresses = new InternetAddress[1];
-                addresses[0] = getReplyToAddress();
-                msg.setReplyTo(addresses);
+            msg.setSentDate(new Date());
+            msg.removeHeader("To");
+            msg.removeHeader("Bcc");
+            if (type == Message.RecipientType.BCC) {
+                msg.setHeader("To", "undisclosed-recipients:;");
             }
-            addresses = new InternetAddress[1];
-            addresses[0] = recipient;
-            msg.setRecipients(Message.RecipientType.TO, addresses);
-            msg.setSubject(getSubject(), CHARACTER_SET);
-            msg.setText(getText(), CHARACTER_SET);
+            msg.setRecipients(type, recipients);
             msg.saveChanges();
         } catch (MessagingException e) {
-            error = "failed to create mail message to '" + recipient + "'";
+            error = "failed to create mail message to '" + recipients[0] +
+                    "'";
+            if (recipients.length > 1) {
+                error += " and " + (recipients.length - 1) + " others";
+            }
             LOG.error(error, e);
             throw new MailMessageException(error, e);
         }
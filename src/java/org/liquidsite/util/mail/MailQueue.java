@@ -21,20 +21,17 @@
 
 package org.liquidsite.util.mail;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.mail.AuthenticationFailedException;
 import javax.mail.Message;
-import javax.mail.MessagingException;
-import javax.mail.NoSuchProviderException;
-import javax.mail.SendFailedException;
 import javax.mail.Session;
-import javax.mail.Transport;
 
 import org.liquidsite.util.log.Log;
 
@@ -43,8 +40,9 @@ import org.liquidsite.util.log.Log;
  * email messages for before being sent. Normally this queue should be
  * empty, as queueing is performed in the receiving SMTP server. This
  * queue is only used to reduce the reponse latency when processing
- * web requests. The actual sending of the mails should be performed
- * by a background thread.
+ * web requests. The actual sending of the mails is performed by a
+ * pool of background sender threads if started, or otherwise by
+ * periodic calls to the process() method.
  *
  * @author   Per Cederberg, <per at percederberg dot net>
  * @version  1.0
@@ -62,7 +60,8 @@ public class MailQueue {
     private static final int MAX_PROCESS_SIZE = 5;
 
     /**
-     * The maximum mail wait queue size.
+     * The maximum mail wait queue size. This limit only applies if
+     * no mail spool directory has been set.
      */
     private static final int MAX_WAIT_SIZE = 1000;
 
@@ -99,24 +98,56 @@ public class MailQueue {
     private static MailQueue instance = null;
 
     /**
-     * The mail processing queue. This queue is completely internal
-     * and is only modified when processing mails (and there is
-     * therefore no need for thread synchronization). The mail
-     * messages in this queue are processed in a round-robin fashion
-     * until all mails have been generated. At that point the mail
-     * message is removed from this queue. 
+     * The mail processing queue. This queue contains the messages
+     * being processed that are not currently held by a sender
+     * thread. All accesses to this queue must be synchronized. The
+     * mail messages in this queue are processed in a round-robin
+     * fashion until all mails have been generated. At that point the
+     * mail message is removed from processing.
      */
-    private ArrayList processQueue = new ArrayList(MAX_PROCESS_SIZE);
+    private LinkedList processQueue = new LinkedList();
+
+    /**
+     * The set of messages being processed. This includes both the
+     * messages in the process queue and the messages currently held
+     * by sender threads. It also contains the spool files currently
+     * being read by sender threads. All accesses to this set must be
+     * synchronized.
+     */
+    private HashSet processing = new HashSet();
 
     /**
      * The mail wait queue. New messages are added last to this queue
      * by any thread in the system. All accesses to this queue must
      * therefore be strictly synchronized to avoid race conditions.
      * The mail messages are moved from this queue to the process
-     * queue in FIFO order when a processing slot is available.
+     * queue in FIFO order when a processing slot is available. If a
+     * mail spool has been set, this queue only contains the spool
+     * files and the messages are read when moved to the process
+     * queue.
      */
     private LinkedList waitQueue = new LinkedList();
 
+    /**
+     * The mail spool, or null for no persistent storage.
+     */
+    private MailSpool spool = null;
+
+    /**
+     * The background mail sender, or null if not started.
+     */
+    private MailSender sender = null;
+
+    /**
+     * The number of messages sent since startup.
+     */
+    private long sentCount = 0;
+
+    /**
+     * The number of message send failures since startup.
+     */
+    private long failureCount = 0;
+
     /**
      * The mail session. This object contains the SMTP configuration
      * to use.
@@ -158,7 +189,8 @@ public class MailQueue {
     }
 
     /**
-     * Initializes this mail queue.
+     * Initializes this mail queue. The mail host may optionally
+     * contain a port number, such as "localhost:2525".
      *
      * @param host           the mail host, or null for "localhost"
      * @param user           the mail user, or null for none
@@ -172,6 +204,11 @@ public class MailQueue {
         if (host == null) {
             host = "localhost";
         }
+        if (host.indexOf(':') > 0) {
+            props.setProperty("mail.smtp.port",
+                              host.substring(host.indexOf(':') + 1));
+            host = host.substring(0, host.indexOf(':'));
+        }
         props.setProperty("mail.host", host);
         if (user != null) {
             props.setProperty("mail.user", user);
@@ -182,11 +219,113 @@ public class MailQueue {
             from = m.find() ? m.group() : "<" + from + ">";
             props.setProperty("mail.smtp.from", from);
         }
+        props.setProperty("mail.smtp.sendpartial", "true");
         props.setProperty("mail.smtp.connectiontimeout", "60000");
         props.setProperty("mail.smtp.timeout", "60000");
         session = Session.getInstance(props);
     }
 
+    /**
+     * Sets the mail spool directory. All messages in the queue will
+     * be stored in the spool directory until they have been sent,
+     * so that they can be restored after a restart. Any messages
+     * previously spooled in the directory will be added to the
+     * queue, replacing the messages currently waiting in the queue.
+     * Messages already being processed are kept, and their spool
+     * files will not be read again.
+     *
+     * @param dir            the mail spool directory
+     *
+     * @throws MailTransportException if the mail spool directory
+     *             couldn't be created or read
+     */
+    public void setSpoolDirectory(File dir) throws MailTransportException {
+        File[]    files;
+        HashSet   active = new HashSet();
+        Iterator  iter;
+        Object    obj;
+        String    error;
+        int       count = 0;
+
+        try {
+            spool = new MailSpool(dir);
+        } catch (IOException e) {
+            spool = null;
+            error = "couldn't initialize mail spool";
+            LOG.error(error, e);
+            throw new MailTransportException(error, e);
+        }
+        files = spool.list();
+        synchronized (this) {
+            iter = processing.iterator();
+            while (iter.hasNext()) {
+                obj = iter.next();
+                if (obj instanceof File) {
+                    active.add(obj);
+                } else {
+                    active.add(((MailMessage) obj).getSpoolFile());
+                }
+            }
+            waitQueue.clear();
+            for (int i = 0; i < files.length; i++) {
+                if (!active.contains(files[i])) {
+                    waitQueue.addLast(files[i]);
+                    count++;
+                }
+            }
+        }
+        if (count > 0) {
+            LOG.info("restored " + count + " mail messages from " + dir);
+        }
+    }
+
+    /**
+     * Checks if the mail queue is persistent. The queue is
+     * persistent if a mail spool directory has been set.
+     *
+     * @return true if the mail queue is persistent, or
+     *         false otherwise
+     */
+    public boolean isPersistent() {
+        return spool != null;
+    }
+
+    /**
+     * Returns the number of messages waiting to be processed.
+     *
+     * @return the number of messages waiting to be processed
+     */
+    public synchronized int getWaitSize() {
+        return waitQueue.size();
+    }
+
+    /**
+     * Returns the number of messages currently being processed.
+     *
+     * @return the number of messages being processed
+     */
+    public synchronized int getProcessSize() {
+        return processing.size();
+    }
+
+    /**
+     * Returns the number of mails sent since startup.
+     *
+     * @return the number of mails sent since startup
+     */
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * Returns the number of mail send failures since startup.
+     *
+     * @return the number of mail send failures since startup
+     */
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
     /**
      * Returns the current mail header.
      * 
@@ -236,8 +375,9 @@ public class MailQueue {
      *
      * @param message        the message to add
      *
-     * @throws MailMessageException if the message wasn't valid or if
-     *             the queue was full
+     * @throws MailMessageException if the message wasn't valid, if
+     *             the queue was full, or if the message couldn't be
+     *             written to the mail spool
      */
     public void add(MailMessage message) throws MailMessageException {
         String  error;
@@ -248,7 +388,7 @@ public class MailQueue {
             LOG.warning(error);
             throw new MailMessageException(error);
         }
-        if (waitQueue.size() >= MAX_WAIT_SIZE) {
+        if (spool == null && getWaitSize() >= MAX_WAIT_SIZE) {
             error = "mail queue full, message to '" +
                     message.getRecipient() + "' rejected";
             LOG.error(error);
@@ -261,8 +401,23 @@ public class MailQueue {
             throw new MailMessageException(error);
         }
         adjustMessageText(message);
-        enqueue(message);
+        if (spool == null) {
+            enqueue(message);
+        } else {
+            try {
+                spool.write(message);
+            } catch (IOException e) {
+                error = "couldn't spool message to '" +
+                        message.getRecipient() + "'";
+                LOG.error(error, e);
+                throw new MailMessageException(error, e);
+            }
+            enqueue(message.getSpoolFile());
+        }
         LOG.trace("queued mail message to '" + message.getRecipient() + "'");
+        if (sender != null) {
+            sender.wakeUp();
+        }
     }
 
     /**
@@ -291,40 +446,243 @@ public class MailQueue {
         message.setText(buffer.toString());
     }
 
+    /**
+     * Starts the background mail sender threads. Each sender thread
+     * keeps its own SMTP connection open while there are mails to
+     * send. Once started, the process() method does nothing. Any
+     * previously started sender threads will be stopped first.
+     *
+     * @param threads        the number of sender threads
+     * @param rate           the maximum number of mails per second,
+     *                       or zero (0) for unlimited
+     */
+    public void start(int threads, int rate) {
+        stop();
+        threads = Math.min(threads, MAX_PROCESS_SIZE);
+        sender = new MailSender(this, threads, rate);
+    }
+
+    /**
+     * Stops the background mail sender threads. This method will
+     * not return until all the sender threads have stopped. Any
+     * mail currently being sent will be completed first, but no
+     * further mails will be sent. Nothing is done if the sender
+     * threads haven't been started.
+     */
+    public void stop() {
+        if (sender != null) {
+            sender.stop();
+            sender = null;
+        }
+    }
+
     /**
      * Processes the mail messages in the queue. If the queue is
-     * empty, nothing is done. The messages are removed from the
-     * queue only if sent correctly or if they are invalid. On mail
-     * transport error, the mail messages will remain in the queue.
+     * empty or the background sender threads have been started,
+     * nothing is done. The messages are removed from the queue only
+     * if sent correctly or if they are invalid. On mail transport
+     * error, the mail messages will remain in the queue. A single
+     * SMTP connection is used for all the messages processed.
      *
      * @throws MailTransportException if the mail transport couldn't
      *             be initialized correctly
      */
     public void process() throws MailTransportException {
+        MailConnection  conn;
+
+        if (sender != null) {
+            return;
+        }
+        conn = createConnection();
+        try {
+            for (int i = 0; i < MAX_PROCESS_SIZE; i++) {
+                if (!processNext(conn)) {
+                    break;
+                }
+            }
+        } finally {
+            conn.close();
+        }
+    }
+
+    /**
+     * Creates a new SMTP connection. The connection will not be
+     * opened until the first mail is sent.
+     *
+     * @return the new SMTP connection
+     */
+    MailConnection createConnection() {
+        return new MailConnection(session);
+    }
+
+    /**
+     * Processes the next mail message in the queue. This will
+     * attempt to send a number of generated mails from the message,
+     * although not all. The message is returned to the end of the
+     * process queue if more mails remain to be sent. This method is
+     * thread-safe, as each message is only processed by a single
+     * thread at a time.
+     *
+     * @param conn           the SMTP connection to use
+     *
+     * @return true if a message was processed, or
+     *         false if the queue was empty
+     *
+     * @throws MailTransportException if the mail transport couldn't
+     *             be initialized correctly, or if a mail couldn't be
+     *             sent due to a transport error
+     */
+    boolean processNext(MailConnection conn)
+        throws MailTransportException {
+
+        MailMessage  message = nextMessage();
+
+        if (message == null) {
+            return false;
+        }
+        try {
+            processMessage(conn, message);
+        } catch (MailMessageException e) {
+            // Do nothing, message will skip to next address
+        } finally {
+            updateSpool(message);
+            releaseMessage(message);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the next message from the process queue. The process
+     * queue is first filled up from the wait queue if possible. Any
+     * spool files are read without holding the queue lock, so that
+     * new messages can be added meanwhile. This method is
+     * thread-safe.
+     *
+     * @return the next mail message to process, or
+     *         null if no message was available
+     */
+    private MailMessage nextMessage() {
         MailMessage  message;
+        File         file;
 
         // Fill up process queue
-        while (processQueue.size() < MAX_PROCESS_SIZE &&
-               waitQueue.size() > 0) {
+        while ((file = fillProcessQueue()) != null) {
+            try {
+                message = spool.read(file);
+            } catch (MailMessageException e) {
+                message = null;
+            }
+            startSpoolMessage(file, message);
+        }
 
-            message = dequeue();
-            processQueue.add(message);
+        // Return first message
+        return removeProcessQueue();
+    }
+
+    /**
+     * Moves messages from the wait queue to the process queue while
+     * processing slots are available. If a spool file is found in
+     * the wait queue, a processing slot is reserved for it and it is
+     * returned for reading. This method is thread-safe.
+     *
+     * @return the spool file to read, or
+     *         null if the process queue has been filled
+     */
+    private synchronized File fillProcessQueue() {
+        MailMessage  message;
+        Object       obj;
+
+        while (processing.size() < MAX_PROCESS_SIZE
+            && waitQueue.size() > 0) {
+
+            obj = waitQueue.removeFirst();
+            processing.add(obj);
+            if (obj instanceof File) {
+                return (File) obj;
+            }
+            message = (MailMessage) obj;
+            processQueue.addLast(message);
+            LOG.trace("starting processing of mail message to '" +
+                      message.getRecipient() + "'");
+        }
+        return null;
+    }
+
+    /**
+     * Adds a mail message read from a spool file to the process
+     * queue. The processing slot reserved for the spool file is
+     * released. This method is thread-safe.
+     *
+     * @param file           the spool file read
+     * @param message        the mail message read, or null if the
+     *                       spool file couldn't be read
+     */
+    private synchronized void startSpoolMessage(File file,
+                                                MailMessage message) {
+
+        processing.remove(file);
+        if (message != null) {
+            processQueue.addLast(message);
+            processing.add(message);
             LOG.trace("starting processing of mail message to '" +
                       message.getRecipient() + "'");
         }
+    }
 
-        // Loop through process queue once
-        for (int i = 0; i < processQueue.size(); i++) {
-            message = (MailMessage) processQueue.get(i);
+    /**
+     * Removes the first message from the process queue. This method
+     * is thread-safe.
+     *
+     * @return the first mail message in the process queue, or
+     *         null if the process queue was empty
+     */
+    private synchronized MailMessage removeProcessQueue() {
+        if (processQueue.isEmpty()) {
+            return null;
+        } else {
+            return (MailMessage) processQueue.removeFirst();
+        }
+    }
+
+    /**
+     * Returns a processed message to the process queue. If the
+     * message has no more mails to send, it is removed from
+     * processing instead. This method is thread-safe.
+     *
+     * @param message        the processed mail message
+     */
+    private synchronized void releaseMessage(MailMessage message) {
+        if (message.hasMoreMessages()) {
+            processQueue.addLast(message);
+        } else {
+            processing.remove(message);
+            LOG.trace("finished processing of mail message to '" +
+                      message.getRecipient() + "'");
+        }
+    }
+
+    /**
+     * Updates the mail spool with the message state after
+     * processing. Messages with remaining recipients will have their
+     * spool file rewritten with the current recipient progress,
+     * while finished messages will have their spool file removed. If
+     * the spool file couldn't be written, at most one processing
+     * round of mails may be resent after a restart.
+     *
+     * @param message        the processed mail message
+     */
+    private void updateSpool(MailMessage message) {
+        if (spool == null || message.getSpoolFile() == null) {
+            return;
+        }
+        if (!message.hasMoreMessages()) {
+            spool.remove(message);
+        } else {
             try {
-                processMessage(message);
-            } catch (MailMessageException e) {
-                // Do nothing, message will skip to next address
-            }
-            if (!message.hasMoreMessages()) {
-                processQueue.remove(i--);
-                LOG.trace("finished processing of mail message to '" +
-                          message.getRecipient() + "'");
+                spool.write(message);
+            } catch (IOException e) {
+                LOG.error("couldn't update mail spool for '" +
+                          message.getRecipient() + "'", e);
             }
         }
     }
@@ -332,93 +690,68 @@ public class MailQueue {
     /**
      * Processes the specified mail message. This will attempt to
      * send a number of generated mails from the message, although
-     * not all.
+     * not all. The mails are sent at the rate allowed by the
+     * background mail sender, if started. If the background mail
+     * sender is stopped, no further mails will be sent. If a mail
+     * couldn't be sent due to a transport error, the message
+     * progress is reset so that the mail will be sent again later.
      *
+     * @param conn           the SMTP connection to use
      * @param message        the mail message to send
      *
      * @throws MailTransportException if the mail transport couldn't
-     *             be initialized correctly
+     *             be initialized correctly, or if a mail couldn't be
+     *             sent due to a transport error
      * @throws MailMessageException if the mail message couldn't be
      *             sent due to an error in the message 
      */
-    private void processMessage(MailMessage message)
+    private void processMessage(MailConnection conn, MailMessage message)
         throws MailTransportException, MailMessageException {
 
-        Transport  transport;
-        Message    msg;
-        String     error;
-        int        count = 0;
-
-        // Connect to SMTP server
-        try {
-            transport = session.getTransport();
-        } catch (NoSuchProviderException e) {
-            error = "failed to create SMTP transport";
-            LOG.error(error, e);
-            throw new MailTransportException(error, e);
-        }
-        try {
-            transport.connect();
-        } catch (AuthenticationFailedException e) {
-            error = "failed to authenticate to SMTP server";
-            LOG.error(error, e);
-            throw new MailTransportException(error, e);
-        } catch (MessagingException e) {
-            error = "unknown error while sending message";
-            LOG.error(error, e);
-            throw new MailTransportException(error, e);
-        } catch (IllegalStateException e) {
-            error = "already connected to SMTP transport";
-            LOG.error(error, e);
-            throw new MailTransportException(error, e);
-        }
+        MailSender  throttle = sender;
+        Message     msg;
+        int         count = 0;
 
-        // Send a number of mail messages
+        conn.open();
         try {
             while (message.hasMoreMessages() && count < MAX_SEND_COUNT) {
+                if (throttle != null && !throttle.throttle()) {
+                    break;
+                }
                 msg = message.getNextMessage(session);
-                transport.sendMessage(msg, msg.getAllRecipients());
+                conn.send(msg);
                 count++;
             }
-        } catch (SendFailedException e) {
-            error = "failed to send mail message";
-            LOG.error(error, e);
-            throw new MailMessageException(error, e);
-        } catch (MessagingException e) {
-            error = "unknown error while sending message";
-            LOG.error(error, e);
-            throw new MailMessageException(error, e);
-        } finally {
-            try {
-                transport.close();
-            } catch (MessagingException ignore) {
-                // Ignore this
-            }
+        } catch (MailTransportException e) {
+            message.resetLastMessage();
+            addStatistics(count, 0);
+            throw e;
+        } catch (MailMessageException e) {
+            addStatistics(count, 1);
+            throw e;
         }
+        addStatistics(count, 0);
     }
 
     /**
-     * Adds a new message last in the wait queue. This method is
-     * thread-safe.
+     * Adds the results of a processing round to the statistics.
+     * This method is thread-safe.
      *
-     * @param message        the mail message to add
+     * @param sent           the number of mails sent
+     * @param failed         the number of mail send failures
      */
-    private synchronized void enqueue(MailMessage message) {
-        waitQueue.addLast(message);
+    private synchronized void addStatistics(int sent, int failed) {
+        sentCount += sent;
+        failureCount += failed;
     }
 
     /**
-     * Removes the first message in the wait queue and returns it.
-     * This method is thread-safe.
+     * Adds a new message last in the wait queue. This method is
+     * thread-safe.
      *
-     * @return the dequeued mail message, or
-     *         null if the queue was empty
+     * @param message        the mail message or spool file to add
      */
-    private synchronized MailMessage dequeue() {
-        if (waitQueue.isEmpty()) {
-            return null;
-        } else {
-            return (MailMessage) waitQueue.removeFirst();
-        }
+    private synchronized void enqueue(Object message) {
+        waitQueue.addLast(message);
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * MailSender.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.mail;
+
+import org.liquidsite.util.log.Log;
+
+/**
+ * A background mail sender. The sender runs a pool of worker
+ * threads, each processing messages from the mail queue over its
+ * own long-lived SMTP connection. Idle connections are closed after
+ * a timeout, and connections with transport errors are reopened
+ * after a delay. The total sending rate of all workers can be
+ * limited to a maximum number of mails per second.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class MailSender {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(MailSender.class);
+
+    /**
+     * The idle timeout in milliseconds. Open SMTP connections will
+     * be closed after this period without any mails to send.
+     */
+    private static final int IDLE_TIMEOUT = 30000;
+
+    /**
+     * The error delay in milliseconds. A worker will wait for this
+     * period of time after a mail transport error.
+     */
+    private static final int ERROR_DELAY = 60000;
+
+    /**
+     * The mail queue to process.
+     */
+    private MailQueue queue;
+
+    /**
+     * The worker threads.
+     */
+    private Thread[] workers;
+
+    /**
+     * The minimum interval in milliseconds between two mails, or
+     * zero (0) for no rate limit.
+     */
+    private double interval;
+
+    /**
+     * The earliest time in milliseconds when the next mail may be
+     * sent.
+     */
+    private double nextSend = 0;
+
+    /**
+     * The wake-up signal counter. This counter is increased every
+     * time new messages are added to the queue, so that the workers
+     * never miss a wake-up signal.
+     */
+    private long signal = 0;
+
+    /**
+     * The alive flag. This flag is set to false when the sender is
+     * stopped.
+     */
+    private boolean alive = true;
+
+    /**
+     * Creates and starts a new background mail sender.
+     *
+     * @param queue          the mail queue to process
+     * @param threads        the number of worker threads
+     * @param rate           the maximum number of mails per second,
+     *                       or zero (0) for unlimited
+     */
+    public MailSender(MailQueue queue, int threads, int rate) {
+        this.queue = queue;
+        this.workers = new Thread[Math.max(threads, 1)];
+        this.interval = (rate > 0) ? 1000.0 / rate : 0;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread(new Worker(this), "mail-sender-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        LOG.info("started " + workers.length + " mail sender threads");
+    }
+
+    /**
+     * Checks if this sender is alive.
+     *
+     * @return true if the sender is alive, or
+     *         false if it has been stopped
+     */
+    public synchronized boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Stops this sender. This method will not return until all the
+     * worker threads have stopped. Any mail being sent will be
+     * completed before the workers stop, but no further mails will
+     * be sent.
+     */
+    public void stop() {
+        synchronized (this) {
+            alive = false;
+            notifyAll();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException ignore) {
+                // Do nothing
+            }
+        }
+        LOG.info("stopped mail sender threads");
+    }
+
+    /**
+     * Wakes up all waiting worker threads. This method should be
+     * called whenever new messages are added to the queue.
+     */
+    public synchronized void wakeUp() {
+        signal++;
+        notifyAll();
+    }
+
+    /**
+     * Waits until a mail may be sent according to the rate limit.
+     * Each call to this method reserves a send slot, so concurrent
+     * workers will be spread out evenly. The wait is aborted if the
+     * sender is stopped.
+     *
+     * @return true if the mail may be sent, or
+     *         false if the sender has been stopped
+     */
+    public synchronized boolean throttle() {
+        long  delay;
+
+        if (interval > 0 && alive) {
+            nextSend = Math.max(nextSend, System.currentTimeMillis());
+            delay = (long) nextSend - System.currentTimeMillis();
+            nextSend += interval;
+            waitForDelay(delay);
+        }
+        return alive;
+    }
+
+    /**
+     * Returns the current wake-up signal counter.
+     *
+     * @return the current wake-up signal counter
+     */
+    private synchronized long getSignal() {
+        return signal;
+    }
+
+    /**
+     * Waits for a wake-up signal or a timeout. If the wake-up signal
+     * counter has already changed, this method returns immediately.
+     *
+     * @param last           the previous wake-up signal counter
+     * @param timeout        the maximum wait time in milliseconds
+     */
+    private synchronized void waitForSignal(long last, long timeout) {
+        if (alive && signal == last) {
+            try {
+                wait(timeout);
+            } catch (InterruptedException ignore) {
+                // Do nothing
+            }
+        }
+    }
+
+    /**
+     * Waits for the specified delay, or until the sender has been
+     * stopped. Any wake-up signals are ignored.
+     *
+     * @param delay          the delay in milliseconds
+     */
+    private synchronized void waitForDelay(long delay) {
+        long  end = System.currentTimeMillis() + delay;
+        long  time;
+
+        while (alive && (time = end - System.currentTimeMillis()) > 0) {
+            try {
+                wait(time);
+            } catch (InterruptedException ignore) {
+                // Do nothing
+            }
+        }
+    }
+
+
+    /**
+     * A mail sender thread worker. The worker processes messages
+     * from the mail queue until the sender is stopped.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Worker implements Runnable {
+
+        /**
+         * The mail sender.
+         */
+        private MailSender sender;
+
+        /**
+         * Creates a new mail sender thread worker.
+         *
+         * @param sender         the mail sender
+         */
+        public Worker(MailSender sender) {
+            this.sender = sender;
+        }
+
+        /**
+         * Runs the worker. This method is not supposed to be called
+         * directly, but rather by the mail sender thread.
+         */
+        public void run() {
+            MailConnection  conn = sender.queue.createConnection();
+            long            idle = System.currentTimeMillis();
+            long            last;
+            long            time;
+
+            while (sender.isAlive()) {
+                last = sender.getSignal();
+                try {
+                    if (sender.queue.processNext(conn)) {
+                        idle = System.currentTimeMillis();
+                    } else {
+                        time = System.currentTimeMillis() - idle;
+                        if (time >= IDLE_TIMEOUT) {
+                            conn.close();
+                        }
+                        sender.waitForSignal(last, IDLE_TIMEOUT);
+                    }
+                } catch (MailTransportException e) {
+                    conn.close();
+                    sender.waitForDelay(ERROR_DELAY);
+                } catch (RuntimeException e) {
+                    LOG.error("unexpected error while sending mail", e);
+                    conn.close();
+                    sender.waitForDelay(ERROR_DELAY);
+                }
+            }
+            conn.close();
+        }
+    }
+}
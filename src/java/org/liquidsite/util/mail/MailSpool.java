@@ -0,0 +1,277 @@
+/*
+ * MailSpool.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.mail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.liquidsite.util.log.Log;
+
+/**
+ * An outgoing email spool directory. This class stores the state of
+ * each queued mail message in a separate file, allowing the mail
+ * queue to be restored after a restart or crash. Each spool file is
+ * first written to a temporary file and then renamed, so that a
+ * spool file is never left partially written.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+class MailSpool {
+
+    /**
+     * The class logger.
+     */
+    private static final Log LOG = new Log(MailSpool.class);
+
+    /**
+     * The spool file name extension.
+     */
+    private static final String SPOOL_EXT = ".mail";
+
+    /**
+     * The temporary file name extension.
+     */
+    private static final String TEMP_EXT = ".tmp";
+
+    /**
+     * The broken file name extension.
+     */
+    private static final String ERROR_EXT = ".err";
+
+    /**
+     * The spool directory.
+     */
+    private File dir;
+
+    /**
+     * The next spool file number.
+     */
+    private long nextId = 1;
+
+    /**
+     * Creates a new mail spool. The spool directory will be created
+     * if it doesn't exist. Any temporary files remaining from an
+     * interrupted spool file update will also be recovered.
+     *
+     * @param dir            the spool directory
+     *
+     * @throws IOException if the spool directory couldn't be
+     *             created or read
+     */
+    public MailSpool(File dir) throws IOException {
+        this.dir = dir;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("couldn't create mail spool directory " +
+                                  dir);
+        }
+        recover();
+    }
+
+    /**
+     * Recovers any temporary files remaining from an interrupted
+     * spool file update. If the spool file is missing, the
+     * temporary file is renamed to replace it. Otherwise the
+     * temporary file is removed. This method also initializes the
+     * next spool file number.
+     */
+    private void recover() {
+        String[]  names = dir.list();
+        File      file;
+        String    name;
+        long      id;
+
+        for (int i = 0; names != null && i < names.length; i++) {
+            name = names[i];
+            if (name.endsWith(TEMP_EXT)) {
+                file = new File(dir, name);
+                name = name.substring(0, name.length() - TEMP_EXT.length());
+                if (new File(dir, name).exists()) {
+                    file.delete();
+                } else {
+                    file.renameTo(new File(dir, name));
+                    LOG.warning("recovered mail spool file " + name);
+                }
+            }
+            if (name.endsWith(SPOOL_EXT)) {
+                try {
+                    id = Long.parseLong(getName(name));
+                    nextId = Math.max(nextId, id + 1);
+                } catch (NumberFormatException ignore) {
+                    // Skip this file, do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns all the spool files. The files are returned in the
+     * order they were created.
+     *
+     * @return the array of spool files
+     */
+    public File[] list() {
+        String[]   names = dir.list();
+        ArrayList  list = new ArrayList();
+        File[]     res;
+
+        if (names != null) {
+            Arrays.sort(names);
+        }
+        for (int i = 0; names != null && i < names.length; i++) {
+            if (names[i].endsWith(SPOOL_EXT)) {
+                list.add(new File(dir, names[i]));
+            }
+        }
+        res = new File[list.size()];
+        list.toArray(res);
+        return res;
+    }
+
+    /**
+     * Reads a mail message from a spool file. If the spool file
+     * couldn't be read, it is renamed to avoid reading it again.
+     *
+     * @param file           the spool file
+     *
+     * @return the mail message read
+     *
+     * @throws MailMessageException if the spool file couldn't be
+     *             read correctly
+     */
+    public MailMessage read(File file) throws MailMessageException {
+        Properties       props = new Properties();
+        FileInputStream  input = null;
+        MailMessage      message;
+        String           name;
+        String           error;
+
+        try {
+            input = new FileInputStream(file);
+            props.load(input);
+            name = props.getProperty("class");
+            message = (MailMessage) Class.forName(name).newInstance();
+            message.readState(props);
+            message.setSpoolFile(file);
+            return message;
+        } catch (Exception e) {
+            error = "couldn't read mail spool file " + file;
+            LOG.error(error, e);
+            file.renameTo(new File(dir, file.getName() + ERROR_EXT));
+            throw new MailMessageException(error, e);
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignore) {
+                    // Do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a mail message to its spool file. If the message
+     * doesn't have a spool file, a new one will be assigned. The
+     * message state is first written to a temporary file that is
+     * synchronized to disk, and then renamed to the spool file.
+     *
+     * @param message        the mail message
+     *
+     * @throws IOException if the spool file couldn't be written
+     */
+    public void write(MailMessage message) throws IOException {
+        Properties        props = new Properties();
+        File              file = message.getSpoolFile();
+        File              temp;
+        FileOutputStream  output;
+
+        if (file == null) {
+            file = createFile();
+        }
+        temp = new File(dir, file.getName() + TEMP_EXT);
+        props.setProperty("class", message.getClass().getName());
+        message.writeState(props);
+        output = new FileOutputStream(temp);
+        try {
+            props.store(output, null);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("couldn't remove mail spool file " + file);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("couldn't rename mail spool file " + temp);
+        }
+        message.setSpoolFile(file);
+    }
+
+    /**
+     * Removes the spool file for a mail message.
+     *
+     * @param message        the mail message
+     */
+    public void remove(MailMessage message) {
+        File  file = message.getSpoolFile();
+
+        if (file != null) {
+            if (!file.delete()) {
+                LOG.error("couldn't remove mail spool file " + file);
+            }
+            message.setSpoolFile(null);
+        }
+    }
+
+    /**
+     * Creates a new unique spool file name.
+     *
+     * @return the new spool file
+     */
+    private synchronized File createFile() {
+        String  name = String.valueOf(nextId++);
+
+        while (name.length() < 12) {
+            name = "0" + name;
+        }
+        return new File(dir, name + SPOOL_EXT);
+    }
+
+    /**
+     * Returns a file name without the file extension.
+     *
+     * @param name           the file name
+     *
+     * @return the file name without extension
+     */
+    private String getName(String name) {
+        int  pos = name.lastIndexOf('.');
+
+        return (pos < 0) ? name : name.substring(0, pos);
+    }
+}
@@ -22,6 +22,8 @@
 package org.liquidsite.util.mail;
 
 import java.util.ArrayList;
+import java.util.Properties;
+
 import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
@@ -175,6 +177,41 @@ public class SimpleMailMessage extends MailMessage {
         }
     }
 
+    /**
+     * Writes the message state to a set of properties. The message
+     * state includes the recipients and the current recipient
+     * position.
+     *
+     * @param props          the properties to write to
+     */
+    protected void writeState(Properties props) {
+        super.writeState(props);
+        props.setProperty("recipients", getRecipients());
+        props.setProperty("position", String.valueOf(position));
+    }
+
+    /**
+     * Reads the message state from a set of properties.
+     *
+     * @param props          the properties to read from
+     *
+     * @throws MailMessageException if the message state couldn't be
+     *             read correctly
+     */
+    protected void readState(Properties props) throws MailMessageException {
+        String  error;
+
+        super.readState(props);
+        setRecipients(props.getProperty("recipients", ""));
+        try {
+            position = Integer.parseInt(props.getProperty("position", "0"));
+        } catch (NumberFormatException e) {
+            error = "invalid mail recipient position";
+            LOG.info(error, e);
+            throw new MailMessageException(error, e);
+        }
+    }
+
     /**
      * Checks if there remains any Java mail MIME messages to
      * generate.
@@ -205,4 +242,14 @@ public class SimpleMailMessage extends MailMessage {
         address = (InternetAddress) recipients.get(position++);
         return createMessage(session, address);
     }
+
+    /**
+     * Resets the progress to before the last Java mail MIME message
+     * created.
+     */
+    protected void resetLastMessage() {
+        if (position > 0) {
+            position--;
+        }
+    }
 }
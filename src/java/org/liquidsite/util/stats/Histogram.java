@@ -0,0 +1,223 @@
+/*
+ * Histogram.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.stats;
+
+/**
+ * A latency histogram. The histogram uses log-linear buckets, where
+ * small values are counted exactly and larger values are counted
+ * in eight buckets per power of two. This gives a relative error
+ * below 12.5% for all values, with a fixed and small memory
+ * footprint. All values recorded must be non-negative.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class Histogram {
+
+    /**
+     * The number of sub-buckets per power of two. Values smaller
+     * than twice this number are counted exactly.
+     */
+    private static final int SUB_BUCKETS = 8;
+
+    /**
+     * The number of histogram buckets. This is sufficient for values
+     * up to 2^40.
+     */
+    private static final int BUCKETS = 2 * SUB_BUCKETS + 37 * SUB_BUCKETS;
+
+    /**
+     * The bucket counts.
+     */
+    private long[] counts = new long[BUCKETS];
+
+    /**
+     * The total number of values recorded.
+     */
+    private long count = 0;
+
+    /**
+     * The sum of all values recorded.
+     */
+    private long sum = 0;
+
+    /**
+     * The maximum value recorded.
+     */
+    private long max = 0;
+
+    /**
+     * Returns the bucket index for a value.
+     *
+     * @param value          the value
+     *
+     * @return the bucket index
+     */
+    private static int getBucket(long value) {
+        int  exp = 0;
+
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) Math.max(value, 0);
+        }
+        while (value >= 2 * SUB_BUCKETS) {
+            value >>= 1;
+            exp++;
+        }
+        return Math.min(BUCKETS - 1,
+                        (exp + 1) * SUB_BUCKETS + (int) value - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the highest value counted in a bucket.
+     *
+     * @param bucket         the bucket index
+     *
+     * @return the highest value counted in the bucket
+     */
+    private static long getBucketLimit(int bucket) {
+        int  exp;
+        long base;
+
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        exp = bucket / SUB_BUCKETS - 1;
+        base = SUB_BUCKETS + bucket % SUB_BUCKETS;
+        return ((base + 1) << exp) - 1;
+    }
+
+    /**
+     * Creates a new empty histogram.
+     */
+    public Histogram() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Records a value in the histogram.
+     *
+     * @param value          the value to record
+     */
+    public synchronized void record(long value) {
+        counts[getBucket(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Returns the total number of values recorded.
+     *
+     * @return the total number of values recorded
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the sum of all values recorded.
+     *
+     * @return the sum of all values recorded
+     */
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the maximum value recorded.
+     *
+     * @return the maximum value recorded, or
+     *         zero (0) if no values were recorded
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the average value recorded.
+     *
+     * @return the average value recorded, or
+     *         zero (0) if no values were recorded
+     */
+    public synchronized double getAverage() {
+        return (count == 0) ? 0.0 : (double) sum / count;
+    }
+
+    /**
+     * Returns an approximate percentile value. The value returned is
+     * the highest value in the bucket containing the percentile, but
+     * never more than the maximum value recorded.
+     *
+     * @param percentile     the percentile, from 0.0 to 100.0
+     *
+     * @return the approximate percentile value, or
+     *         zero (0) if no values were recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        long  limit = (long) Math.ceil(count * percentile / 100.0);
+        long  total = 0;
+
+        if (count == 0) {
+            return 0;
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i];
+            if (total >= limit && total > 0) {
+                return Math.min(getBucketLimit(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Appends the cumulative bucket counts in a text format. Each
+     * bucket will be printed on a separate line, with the specified
+     * prefix and the bucket limit as a label. All buckets are always
+     * printed, including empty ones, so that the set of bucket
+     * limits is the same in every output. A final line for infinity
+     * will also be added.
+     *
+     * @param buffer         the buffer to append to
+     * @param prefix         the line prefix, ending with a label list
+     */
+    public synchronized void appendBuckets(StringBuffer buffer,
+                                           String prefix) {
+
+        long  total = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts[i];
+            buffer.append(prefix);
+            buffer.append("le=\"");
+            buffer.append(getBucketLimit(i));
+            buffer.append("\"} ");
+            buffer.append(total);
+            buffer.append("\n");
+        }
+        buffer.append(prefix);
+        buffer.append("le=\"+Inf\"} ");
+        buffer.append(count);
+        buffer.append("\n");
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * RequestProfiler.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A request profiler. This class records the time and the number of
+ * database queries spent in individual operations while processing
+ * a request, such as template lookups and content queries. The
+ * profiler is bound to the current thread when started, so that
+ * code in any layer can report samples without having access to the
+ * request object. Profiling is only intended for single requests
+ * started explicitly, and no samples are recorded otherwise.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class RequestProfiler {
+
+    /**
+     * The profiler bound to the current thread.
+     */
+    private static ThreadLocal current = new ThreadLocal();
+
+    /**
+     * The request start time.
+     */
+    private long startTime = System.currentTimeMillis();
+
+    /**
+     * The total request processing time.
+     */
+    private long totalTime = 0;
+
+    /**
+     * The map of profile entries. The entries are indexed by their
+     * category and name.
+     */
+    private HashMap entries = new HashMap();
+
+    /**
+     * Creates and starts a new request profiler. The profiler will
+     * be bound to the current thread until stopped.
+     *
+     * @return the new request profiler
+     */
+    public static RequestProfiler start() {
+        RequestProfiler  profiler = new RequestProfiler();
+
+        current.set(profiler);
+        return profiler;
+    }
+
+    /**
+     * Returns the request profiler bound to the current thread.
+     *
+     * @return the current request profiler, or
+     *         null if no profiler is active
+     */
+    public static RequestProfiler getCurrent() {
+        return (RequestProfiler) current.get();
+    }
+
+    /**
+     * Marks the beginning of a profiled operation. The value
+     * returned should be passed to the end() method when the
+     * operation is finished.
+     *
+     * @param category       the operation category
+     * @param name           the operation name
+     *
+     * @return the profile sample, or
+     *         null if no profiler is active
+     */
+    public static Object begin(String category, String name) {
+        if (current.get() == null) {
+            return null;
+        }
+        return new Sample(category, name);
+    }
+
+    /**
+     * Marks the end of a profiled operation.
+     *
+     * @param sample         the value returned by begin()
+     */
+    public static void end(Object sample) {
+        RequestProfiler  profiler = (RequestProfiler) current.get();
+
+        if (profiler != null && sample != null) {
+            profiler.add((Sample) sample);
+        }
+    }
+
+    /**
+     * Returns the number of database queries for the current thread.
+     *
+     * @return the number of database queries so far
+     */
+    private static int getQueryCount() {
+        RequestTimer  timer = RequestTimer.getCurrent();
+
+        return (timer == null) ? 0 : timer.getQueryCount();
+    }
+
+    /**
+     * Creates a new request profiler.
+     */
+    private RequestProfiler() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Stops this request profiler. The total time will be set and
+     * the profiler will be removed from the current thread.
+     */
+    public void stop() {
+        totalTime = System.currentTimeMillis() - startTime;
+        if (current.get() == this) {
+            current.set(null);
+        }
+    }
+
+    /**
+     * Returns the total request processing time. If the profiler
+     * hasn't been stopped, the time elapsed so far is returned.
+     *
+     * @return the total request processing time (in milliseconds)
+     */
+    public long getTotalTime() {
+        if (totalTime == 0) {
+            return System.currentTimeMillis() - startTime;
+        }
+        return totalTime;
+    }
+
+    /**
+     * Returns all the profile entries. The entries are sorted with
+     * the most time-consuming ones first.
+     *
+     * @return a list of profile entries
+     */
+    public ArrayList getEntries() {
+        ArrayList  list = new ArrayList(entries.values());
+
+        Collections.sort(list, new EntryComparator());
+        return list;
+    }
+
+    /**
+     * Adds a finished sample to the profile entries.
+     *
+     * @param sample         the finished sample
+     */
+    private void add(Sample sample) {
+        String  key = sample.category + ":" + sample.name;
+        Entry   entry = (Entry) entries.get(key);
+
+        if (entry == null) {
+            entry = new Entry(sample.category, sample.name);
+            entries.put(key, entry);
+        }
+        entry.count++;
+        entry.time += System.currentTimeMillis() - sample.start;
+        entry.queries += getQueryCount() - sample.queries;
+    }
+
+
+    /**
+     * A profile entry. Each entry contains the accumulated data for
+     * all operations with the same category and name.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    public static class Entry {
+
+        /**
+         * The operation category.
+         */
+        private String category;
+
+        /**
+         * The operation name.
+         */
+        private String name;
+
+        /**
+         * The number of operations.
+         */
+        private int count = 0;
+
+        /**
+         * The accumulated operation time (in milliseconds).
+         */
+        private long time = 0;
+
+        /**
+         * The accumulated number of database queries.
+         */
+        private int queries = 0;
+
+        /**
+         * Creates a new profile entry.
+         *
+         * @param category       the operation category
+         * @param name           the operation name
+         */
+        private Entry(String category, String name) {
+            this.category = category;
+            this.name = name;
+        }
+
+        /**
+         * Returns the operation category.
+         *
+         * @return the operation category
+         */
+        public String getCategory() {
+            return category;
+        }
+
+        /**
+         * Returns the operation name.
+         *
+         * @return the operation name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns the number of operations.
+         *
+         * @return the number of operations
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the accumulated operation time.
+         *
+         * @return the accumulated operation time (in milliseconds)
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * Returns the accumulated number of database queries.
+         *
+         * @return the accumulated number of database queries
+         */
+        public int getQueryCount() {
+            return queries;
+        }
+    }
+
+
+    /**
+     * A profile sample. A sample is created when an operation
+     * starts, and added to the profile entries when it ends.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class Sample {
+
+        /**
+         * The operation category.
+         */
+        public String category;
+
+        /**
+         * The operation name.
+         */
+        public String name;
+
+        /**
+         * The operation start time.
+         */
+        public long start = System.currentTimeMillis();
+
+        /**
+         * The number of database queries at the operation start.
+         */
+        public int queries = getQueryCount();
+
+        /**
+         * Creates a new profile sample.
+         *
+         * @param category       the operation category
+         * @param name           the operation name
+         */
+        public Sample(String category, String name) {
+            this.category = category;
+            this.name = (name == null) ? "" : name;
+        }
+    }
+
+
+    /**
+     * A profile entry comparator. This comparator orders entries by
+     * decreasing time, and then by decreasing number of queries.
+     *
+     * @author   Per Cederberg, <per at percederberg dot net>
+     * @version  1.0
+     */
+    private static class EntryComparator implements Comparator {
+
+        /**
+         * Compares two profile entries.
+         *
+         * @param o1             the first entry
+         * @param o2             the second entry
+         *
+         * @return a negative, zero or positive value depending on
+         *         the entry order
+         */
+        public int compare(Object o1, Object o2) {
+            Entry  e1 = (Entry) o1;
+            Entry  e2 = (Entry) o2;
+
+            if (e1.time != e2.time) {
+                return (e1.time > e2.time) ? -1 : 1;
+            } else {
+                return e2.queries - e1.queries;
+            }
+        }
+    }
+}
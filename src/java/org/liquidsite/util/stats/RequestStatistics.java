@@ -0,0 +1,248 @@
+/*
+ * RequestStatistics.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+/**
+ * The request statistics. This class aggregates the request timers
+ * into histograms per site and request phase. All requests are
+ * also aggregated under a special site name. This class is a
+ * singleton, as the statistics are shared by the whole application.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class RequestStatistics {
+
+    /**
+     * The site name used for aggregating all requests.
+     */
+    public static final String ALL_SITES = "*";
+
+    /**
+     * The one and only instance of this class.
+     */
+    private static RequestStatistics instance = new RequestStatistics();
+
+    /**
+     * The map with site histograms. The site names are mapped to
+     * arrays with one histogram per request phase, followed by a
+     * histogram for the database query count.
+     */
+    private HashMap sites = new HashMap();
+
+    /**
+     * Returns the request statistics instance.
+     *
+     * @return the request statistics instance
+     */
+    public static RequestStatistics getInstance() {
+        return instance;
+    }
+
+    /**
+     * Creates a new request statistics instance.
+     */
+    private RequestStatistics() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Returns a sorted array with the site names. The special site
+     * name for all requests will be the first name.
+     *
+     * @return a sorted array with the site names
+     */
+    public synchronized String[] getSites() {
+        ArrayList  list = new ArrayList(sites.keySet());
+
+        Collections.sort(list);
+        return (String[]) list.toArray(new String[list.size()]);
+    }
+
+    /**
+     * Returns the time histogram for a site and request phase.
+     *
+     * @param site           the site name
+     * @param phase          the request phase constant
+     *
+     * @return the time histogram (in milliseconds)
+     */
+    public Histogram getTimeHistogram(String site, int phase) {
+        return getHistograms(site)[phase];
+    }
+
+    /**
+     * Returns the database query count histogram for a site.
+     *
+     * @param site           the site name
+     *
+     * @return the database query count histogram
+     */
+    public Histogram getQueryHistogram(String site) {
+        return getHistograms(site)[RequestTimer.PHASES.length];
+    }
+
+    /**
+     * Records a completed request timer.
+     *
+     * @param site           the site name, or null for unknown
+     * @param timer          the stopped request timer
+     */
+    public void record(String site, RequestTimer timer) {
+        if (site == null) {
+            site = "-";
+        }
+        record(getHistograms(ALL_SITES), timer);
+        record(getHistograms(site), timer);
+    }
+
+    /**
+     * Records a completed request timer in a set of histograms.
+     *
+     * @param histograms     the site histograms
+     * @param timer          the stopped request timer
+     */
+    private void record(Histogram[] histograms, RequestTimer timer) {
+        for (int i = 0; i < RequestTimer.PHASES.length; i++) {
+            histograms[i].record(timer.getTime(i));
+        }
+        histograms[RequestTimer.PHASES.length].record(timer.getQueryCount());
+    }
+
+    /**
+     * Removes all recorded statistics.
+     */
+    public synchronized void reset() {
+        sites.clear();
+    }
+
+    /**
+     * Returns the statistics in a plain text exposition format. The
+     * format is compatible with the Prometheus text format, allowing
+     * the statistics to be scraped by standard monitoring tools.
+     *
+     * @return the statistics in plain text format
+     */
+    public String toText() {
+        StringBuffer  buffer = new StringBuffer();
+        String[]      names = getSites();
+        String        prefix;
+        Histogram     h;
+
+        buffer.append("# TYPE liquidsite_request_phase_ms histogram\n");
+        for (int i = 0; i < names.length; i++) {
+            for (int j = 0; j < RequestTimer.PHASES.length; j++) {
+                prefix = "liquidsite_request_phase_ms";
+                h = getTimeHistogram(names[i], j);
+                appendHistogram(buffer, prefix, names[i],
+                                RequestTimer.PHASES[j], h);
+            }
+        }
+        buffer.append("# TYPE liquidsite_request_queries histogram\n");
+        for (int i = 0; i < names.length; i++) {
+            prefix = "liquidsite_request_queries";
+            h = getQueryHistogram(names[i]);
+            appendHistogram(buffer, prefix, names[i], null, h);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Appends a histogram in plain text exposition format.
+     *
+     * @param buffer         the buffer to append to
+     * @param name           the metric name
+     * @param site           the site name
+     * @param phase          the phase name, or null for none
+     * @param h              the histogram
+     */
+    private void appendHistogram(StringBuffer buffer,
+                                 String name,
+                                 String site,
+                                 String phase,
+                                 Histogram h) {
+
+        StringBuffer  labels = new StringBuffer();
+
+        labels.append("site=\"");
+        labels.append(escape(site));
+        labels.append("\"");
+        if (phase != null) {
+            labels.append(",phase=\"");
+            labels.append(phase);
+            labels.append("\"");
+        }
+        h.appendBuckets(buffer, name + "_bucket{" + labels + ",");
+        buffer.append(name + "_sum{" + labels + "} " + h.getSum() + "\n");
+        buffer.append(name + "_count{" + labels + "} " + h.getCount() + "\n");
+    }
+
+    /**
+     * Returns the histograms for a site. If the site didn't have
+     * any histograms, new ones will be created.
+     *
+     * @param site           the site name
+     *
+     * @return the array of site histograms
+     */
+    private synchronized Histogram[] getHistograms(String site) {
+        Histogram[]  res = (Histogram[]) sites.get(site);
+
+        if (res == null) {
+            res = new Histogram[RequestTimer.PHASES.length + 1];
+            for (int i = 0; i < res.length; i++) {
+                res[i] = new Histogram();
+            }
+            sites.put(site, res);
+        }
+        return res;
+    }
+
+    /**
+     * Escapes a label value for the plain text exposition format.
+     *
+     * @param str            the label value
+     *
+     * @return the escaped label value
+     */
+    private String escape(String str) {
+        StringBuffer  buffer = new StringBuffer();
+        char          c;
+
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            if (c == '\\' || c == '"') {
+                buffer.append('\\');
+                buffer.append(c);
+            } else if (c == '\n') {
+                buffer.append("\\n");
+            } else {
+                buffer.append(c);
+            }
+        }
+        return buffer.toString();
+    }
+}
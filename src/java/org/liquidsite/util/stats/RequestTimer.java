@@ -0,0 +1,217 @@
+/*
+ * RequestTimer.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+package org.liquidsite.util.stats;
+
+/**
+ * A request phase timer. This class accumulates the time spent in
+ * the various phases of processing a request. The timer is bound
+ * to the current thread when started, so that code in any layer
+ * can report timings without having access to the request object.
+ * Note that the phases may overlap, as database and security time
+ * is also included in the other phases.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class RequestTimer {
+
+    /**
+     * The site lookup phase.
+     */
+    public static final int SITE = 0;
+
+    /**
+     * The request action processing phase.
+     */
+    public static final int ACTION = 1;
+
+    /**
+     * The request path resolution phase.
+     */
+    public static final int PATH = 2;
+
+    /**
+     * The security permission check phase.
+     */
+    public static final int SECURITY = 3;
+
+    /**
+     * The template lookup and compilation phase.
+     */
+    public static final int TEMPLATE = 4;
+
+    /**
+     * The template rendering phase.
+     */
+    public static final int RENDER = 5;
+
+    /**
+     * The database query phase.
+     */
+    public static final int DATABASE = 6;
+
+    /**
+     * The response commit phase.
+     */
+    public static final int COMMIT = 7;
+
+    /**
+     * The total request processing time.
+     */
+    public static final int TOTAL = 8;
+
+    /**
+     * The phase names. The names are indexed by the phase constants.
+     */
+    public static final String[] PHASES = {
+        "site", "action", "path", "security", "template", "render",
+        "database", "commit", "total"
+    };
+
+    /**
+     * The timer bound to the current thread.
+     */
+    private static ThreadLocal current = new ThreadLocal();
+
+    /**
+     * The request start time.
+     */
+    private long startTime = System.currentTimeMillis();
+
+    /**
+     * The accumulated phase times (in milliseconds).
+     */
+    private long[] times = new long[PHASES.length];
+
+    /**
+     * The number of database queries.
+     */
+    private int queries = 0;
+
+    /**
+     * The nesting depth of each phase. Time is only accumulated for
+     * the outermost call of each phase.
+     */
+    private int[] depth = new int[PHASES.length];
+
+    /**
+     * Creates and starts a new request timer. The timer will be
+     * bound to the current thread until stopped.
+     *
+     * @return the new request timer
+     */
+    public static RequestTimer start() {
+        RequestTimer  timer = new RequestTimer();
+
+        current.set(timer);
+        return timer;
+    }
+
+    /**
+     * Returns the request timer bound to the current thread.
+     *
+     * @return the current request timer, or
+     *         null if no timer is active
+     */
+    public static RequestTimer getCurrent() {
+        return (RequestTimer) current.get();
+    }
+
+    /**
+     * Marks the beginning of a request phase. The value returned
+     * should be passed to the end() method when the phase is
+     * finished. Nested calls for the same phase will only be timed
+     * once.
+     *
+     * @param phase          the phase constant
+     *
+     * @return the phase start time, or
+     *         -1 if the phase isn't timed
+     */
+    public static long begin(int phase) {
+        RequestTimer  timer = (RequestTimer) current.get();
+
+        if (timer == null || timer.depth[phase]++ > 0) {
+            return -1;
+        }
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Marks the end of a request phase.
+     *
+     * @param phase          the phase constant
+     * @param start          the value returned by begin()
+     */
+    public static void end(int phase, long start) {
+        RequestTimer  timer = (RequestTimer) current.get();
+
+        if (timer == null) {
+            return;
+        }
+        timer.depth[phase]--;
+        if (phase == DATABASE) {
+            timer.queries++;
+        }
+        if (start >= 0) {
+            timer.times[phase] += System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * Creates a new request timer.
+     */
+    private RequestTimer() {
+        // Nothing to initialize
+    }
+
+    /**
+     * Stops this request timer. The total time will be set and the
+     * timer will be removed from the current thread.
+     */
+    public void stop() {
+        times[TOTAL] = System.currentTimeMillis() - startTime;
+        if (current.get() == this) {
+            current.set(null);
+        }
+    }
+
+    /**
+     * Returns the accumulated time for a request phase.
+     *
+     * @param phase          the phase constant
+     *
+     * @return the accumulated phase time (in milliseconds)
+     */
+    public long getTime(int phase) {
+        return times[phase];
+    }
+
+    /**
+     * Returns the number of database queries.
+     *
+     * @return the number of database queries
+     */
+    public int getQueryCount() {
+        return queries;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * TaggedFormatterBenchmark.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+
+package org.liquidsite.core.text;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * A benchmark for the tagged text formatter. This class measures the
+ * throughput and memory allocation of the current and the reference
+ * formatter implementations. The benchmark document is created by
+ * repeating the corpus documents, excluding any malformed documents
+ * (named "malformed*.txt") that the reference formatter may not be
+ * able to process.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class TaggedFormatterBenchmark {
+
+    /**
+     * The minimum benchmark document size.
+     */
+    private static final int DOCUMENT_SIZE = 100 * 1024;
+
+    /**
+     * The number of warm-up iterations.
+     */
+    private static final int WARMUP = 20;
+
+    /**
+     * The formatting context used by the benchmark.
+     */
+    private static final FormattingContext CONTEXT =
+        new FormattingContext() {
+            public String linkTo(String link) {
+                return "/site/" + link;
+            }
+        };
+
+    /**
+     * The thread management bean, or null if not available.
+     */
+    private static Object threadBean = null;
+
+    /**
+     * The thread allocated bytes method, or null if not available.
+     */
+    private static Method allocatedBytes = null;
+
+    /**
+     * The thread allocated bytes method arguments, containing the
+     * identifier of the benchmark thread.
+     */
+    private static Object[] allocatedArgs = null;
+
+    /**
+     * Runs the benchmark. The optional arguments are the corpus
+     * directory and the number of iterations.
+     *
+     * @param args           the command-line arguments
+     *
+     * @throws Exception if the corpus couldn't be read
+     */
+    public static void main(String[] args) throws Exception {
+        String  dir = "src/test/org/liquidsite/core/text/corpus";
+        int     count = 100;
+        String  text;
+        String  clean;
+
+        if (args.length > 0) {
+            dir = args[0];
+        }
+        if (args.length > 1) {
+            count = Integer.parseInt(args[1]);
+        }
+        initAllocation();
+        text = createDocument(new File(dir));
+        clean = TaggedFormatter.clean(text);
+        System.out.println("Document size: " + text.length() / 1024 +
+                           " KB, " + count + " iterations");
+        for (int i = 0; i < 4; i++) {
+            run(i, text, WARMUP, false);
+        }
+        run(0, text, count, true);
+        run(1, text, count, true);
+        run(2, clean, count, true);
+        run(3, clean, count, true);
+    }
+
+    /**
+     * Creates the benchmark document from the corpus documents.
+     *
+     * @param dir            the corpus directory
+     *
+     * @return the benchmark document
+     *
+     * @throws Exception if a corpus document couldn't be read
+     */
+    private static String createDocument(File dir) throws Exception {
+        StringBuffer  buffer = new StringBuffer();
+        File[]        files = dir.listFiles();
+        int           start;
+
+        if (files == null) {
+            throw new Exception("no corpus documents found in " + dir);
+        }
+        Arrays.sort(files);
+        while (buffer.length() < DOCUMENT_SIZE) {
+            start = buffer.length();
+            for (int i = 0; i < files.length; i++) {
+                if (files[i].getName().endsWith(".txt")
+                 && !files[i].getName().startsWith("malformed")) {
+
+                    buffer.append(TaggedFormatterCheck.readFile(files[i]));
+                    buffer.append("\n\n");
+                }
+            }
+            if (buffer.length() == start) {
+                throw new Exception("no corpus documents found in " + dir);
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Runs a single benchmark and optionally prints the result.
+     *
+     * @param test           the test number (0-3)
+     * @param text           the tagged text
+     * @param count          the number of iterations
+     * @param print          the print result flag
+     */
+    private static void run(int test, String text, int count, boolean print) {
+        String[]  names = { "clean()      reference",
+                            "clean()      current  ",
+                            "formatHtml() reference",
+                            "formatHtml() current  " };
+        long      time;
+        long      bytes;
+        double    kb = text.length() * (double) count / 1024;
+
+        System.gc();
+        bytes = getAllocation();
+        time = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            switch (test) {
+            case 0:
+                ReferenceTaggedFormatter.clean(text);
+                break;
+            case 1:
+                TaggedFormatter.clean(text);
+                break;
+            case 2:
+                ReferenceTaggedFormatter.formatHtml(text, CONTEXT);
+                break;
+            default:
+                TaggedFormatter.formatHtml(text, CONTEXT);
+            }
+        }
+        time = Math.max(System.currentTimeMillis() - time, 1);
+        bytes = getAllocation() - bytes;
+        if (print) {
+            System.out.print(names[test] + ": ");
+            System.out.print(Math.round(kb * 1000 / time) + " KB/s, ");
+            if (bytes < 0) {
+                System.out.println("n/a bytes/KB allocated");
+            } else {
+                System.out.println(Math.round(bytes / kb) +
+                                   " bytes/KB allocated");
+            }
+        }
+    }
+
+    /**
+     * Initializes the memory allocation measurement. The thread
+     * allocation counter is only available on some Java platforms,
+     * so it is accessed through reflection. This method must be
+     * called from the benchmark thread.
+     */
+    private static void initAllocation() {
+        Class   cls;
+        Method  method;
+
+        try {
+            cls = Class.forName("java.lang.management.ManagementFactory");
+            method = cls.getMethod("getThreadMXBean", new Class[0]);
+            threadBean = method.invoke(null, new Object[0]);
+            method = Thread.class.getMethod("getId", new Class[0]);
+            allocatedArgs = new Object[] {
+                method.invoke(Thread.currentThread(), new Object[0])
+            };
+            cls = Class.forName("com.sun.management.ThreadMXBean");
+            allocatedBytes = cls.getMethod("getThreadAllocatedBytes",
+                                           new Class[] { Long.TYPE });
+        } catch (Exception e) {
+            threadBean = null;
+            allocatedBytes = null;
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread.
+     *
+     * @return the number of bytes allocated, or
+     *         -1 if not available
+     */
+    private static long getAllocation() {
+        Object  bytes;
+
+        if (threadBean == null || allocatedBytes == null) {
+            return -1;
+        }
+        try {
+            bytes = allocatedBytes.invoke(threadBean, allocatedArgs);
+            return ((Long) bytes).longValue();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,432 @@
+/*
+ * TaggedFormatterCheck.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+
+package org.liquidsite.core.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * A differential check for the tagged text formatter. This class
+ * compares the output of the current and the reference formatter
+ * implementations for all documents in a corpus directory and for a
+ * number of random tagged texts. It also checks that a number of
+ * malformed tagged texts, that previously caused the formatter to
+ * loop forever, are processed without delay. The exit code is
+ * non-zero if any check fails.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class TaggedFormatterCheck {
+
+    /**
+     * The maximum number of milliseconds to wait for the current
+     * formatter.
+     */
+    private static final long TIMEOUT = 2000;
+
+    /**
+     * The maximum number of milliseconds to wait for the reference
+     * formatter. The texts are small, so a longer processing time
+     * means that the reference formatter doesn't terminate.
+     */
+    private static final long REFERENCE_TIMEOUT = 100;
+
+    /**
+     * The malformed tagged texts that must not cause a loop, and the
+     * corresponding cleaned texts. The reference implementation
+     * never terminates for these.
+     */
+    private static final String[][] REGRESSION = {
+        { "</box>", "" },
+        { "</h1>", "" },
+        { "</list>", "" },
+        { "text</box>more text", "text\n\nmore text" },
+        { "<item>", "" },
+        { "</item>", "" },
+        { "<list><item>text</item></list></item></list>",
+          "<list>\n<item>text</item>\n</list>" },
+        { "<tem>nk url=\"x\"><list<link<i></i><box layout=",
+          "<tem>nk url=\"x\"><list<link<i></i><box layout=" }
+    };
+
+    /**
+     * The inline start tags used for creating random tagged texts.
+     */
+    private static final String[] INLINE_TAGS = {
+        "<b>", "<i>", "<code>", "<link url=\"x.html\">",
+        "<link url=y window=\"new\">"
+    };
+
+    /**
+     * The block start tags used for creating random tagged texts.
+     */
+    private static final String[] BLOCK_TAGS = {
+        "<h1>", "<h3>", "<p>", "<pre>", "<box>",
+        "<box layout=\"right\">", "<list>", "<list type=\"1\">"
+    };
+
+    /**
+     * The text fragments used for creating random tagged texts.
+     */
+    private static final String[] TEXTS = {
+        "text", " ", "\n", "\n\n", "\r\n", "---", "&", "@",
+        "<image url=\"z.png\">", "<image layout=\"left\">"
+    };
+
+    /**
+     * The malformed fragments used for creating random tagged texts.
+     */
+    private static final String[] MALFORMED = {
+        "<", ">", "=", "\"", "</b>", "</link>", "</pre>", "</box>",
+        "</list>", "</item>", "<link", "<list", "<item", "<b", "<box"
+    };
+
+    /**
+     * The formatting context used by all checks.
+     */
+    private static final FormattingContext CONTEXT =
+        new FormattingContext() {
+            public String linkTo(String link) {
+                return "/site/" + link;
+            }
+        };
+
+    /**
+     * The number of failed checks.
+     */
+    private static int failures = 0;
+
+    /**
+     * The number of compared inputs.
+     */
+    private static int compared = 0;
+
+    /**
+     * The number of inputs where the reference implementation
+     * didn't terminate.
+     */
+    private static int skipped = 0;
+
+    /**
+     * Runs the check. The optional arguments are the corpus
+     * directory, the random seed and the number of random texts.
+     *
+     * @param args           the command-line arguments
+     *
+     * @throws Exception if the corpus couldn't be read
+     */
+    public static void main(String[] args) throws Exception {
+        String  dir = "src/test/org/liquidsite/core/text/corpus";
+        long    seed = 4711;
+        int     count = 2000;
+        Random  random;
+
+        if (args.length > 0) {
+            dir = args[0];
+        }
+        if (args.length > 1) {
+            seed = Long.parseLong(args[1]);
+        }
+        if (args.length > 2) {
+            count = Integer.parseInt(args[2]);
+        }
+        for (int i = 0; i < REGRESSION.length; i++) {
+            checkRegression(REGRESSION[i][0], REGRESSION[i][1]);
+        }
+        checkCorpus(new File(dir));
+        random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            compare("random #" + i, createText(random));
+        }
+        System.out.println("Compared " + compared + " texts, skipped " +
+                           skipped + " non-terminating, " + failures +
+                           " failure(s)");
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /**
+     * Compares the formatter output for all corpus documents.
+     *
+     * @param dir            the corpus directory
+     *
+     * @throws IOException if a corpus document couldn't be read
+     */
+    private static void checkCorpus(File dir) throws IOException {
+        File[]  files = dir.listFiles();
+        String  text;
+
+        if (files == null || files.length == 0) {
+            fail("no corpus documents found in " + dir);
+            return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].getName().endsWith(".txt")) {
+                text = readFile(files[i]);
+                compare(files[i].getName(), text);
+                compare(files[i].getName() + " (cleaned)",
+                        TaggedFormatter.clean(text));
+            }
+        }
+    }
+
+    /**
+     * Checks that the current formatter terminates for a malformed
+     * text, and that the cleaned text is the expected one.
+     *
+     * @param text           the tagged text
+     * @param expected       the expected cleaned text
+     */
+    private static void checkRegression(String text, String expected) {
+        String  actual = run(false, false, text);
+
+        if (actual == null) {
+            fail("clean() doesn't terminate for " + quote(text));
+        } else if (!expected.equals(actual)) {
+            fail("clean() differs for " + quote(text) +
+                 "\n  expected: " + quote(expected) +
+                 "\n  actual:   " + quote(actual));
+        }
+        if (run(false, true, text) == null) {
+            fail("formatHtml() doesn't terminate for " + quote(text));
+        }
+    }
+
+    /**
+     * Compares the output of the current and reference formatters
+     * for a text. If the reference formatter doesn't terminate, the
+     * text is skipped.
+     *
+     * @param name           the text name
+     * @param text           the tagged text
+     */
+    private static void compare(String name, String text) {
+        compare(name, text, false);
+        compare(name, text, true);
+    }
+
+    /**
+     * Compares the output of the current and reference formatters
+     * for a text. If the reference formatter doesn't terminate, the
+     * text is skipped.
+     *
+     * @param name           the text name
+     * @param text           the tagged text
+     * @param html           the HTML formatting flag
+     */
+    private static void compare(String name, String text, boolean html) {
+        String  method = html ? "formatHtml()" : "clean()";
+        String  expected;
+        String  actual;
+
+        expected = run(true, html, text);
+        actual = run(false, html, text);
+        if (actual == null) {
+            fail(method + " doesn't terminate for " + name + ": " +
+                 quote(text));
+        } else if (expected == null) {
+            skipped++;
+        } else if (!expected.equals(actual)) {
+            fail(method + " differs for " + name + ": " + quote(text) +
+                 "\n  expected: " + quote(expected) +
+                 "\n  actual:   " + quote(actual));
+        } else {
+            compared++;
+        }
+    }
+
+    /**
+     * Runs a formatter in a separate thread. If the formatter
+     * doesn't finish within the timeout, the thread is stopped.
+     *
+     * @param reference      the reference implementation flag
+     * @param html           the HTML formatting flag
+     * @param text           the tagged text
+     *
+     * @return the formatted text, or
+     *         null if the formatter didn't terminate
+     */
+    private static String run(final boolean reference,
+                              final boolean html,
+                              final String text) {
+
+        final String[]  result = new String[1];
+        Thread          thread;
+
+        thread = new Thread() {
+            public void run() {
+                if (reference && html) {
+                    result[0] = ReferenceTaggedFormatter.formatHtml(text,
+                                                                    CONTEXT);
+                } else if (reference) {
+                    result[0] = ReferenceTaggedFormatter.clean(text);
+                } else if (html) {
+                    result[0] = TaggedFormatter.formatHtml(text, CONTEXT);
+                } else {
+                    result[0] = TaggedFormatter.clean(text);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            thread.join(reference ? REFERENCE_TIMEOUT : TIMEOUT);
+        } catch (InterruptedException ignore) {
+            // Handled below
+        }
+        if (thread.isAlive()) {
+            // The formatters never check for interrupts, so the
+            // looping thread must be stopped forcibly
+            thread.stop();
+            return null;
+        }
+        return result[0];
+    }
+
+    /**
+     * Creates a random tagged text. The text will mostly consist of
+     * properly nested tags, but will occasionally contain malformed
+     * fragments or unterminated tags.
+     *
+     * @param random         the random number generator
+     *
+     * @return the random tagged text
+     */
+    private static String createText(Random random) {
+        StringBuffer  buffer = new StringBuffer();
+        LinkedList    open = new LinkedList();
+        int           length = random.nextInt(24) + 1;
+        int           choice;
+        String        tag;
+
+        for (int i = 0; i < length; i++) {
+            choice = random.nextInt(20);
+            if (choice < 8) {
+                buffer.append(TEXTS[random.nextInt(TEXTS.length)]);
+            } else if (choice < 11) {
+                tag = INLINE_TAGS[random.nextInt(INLINE_TAGS.length)];
+                buffer.append(tag);
+                open.addFirst(getEndTag(tag));
+            } else if (choice < 13 && open.size() == 0) {
+                tag = BLOCK_TAGS[random.nextInt(BLOCK_TAGS.length)];
+                buffer.append(tag);
+                open.addFirst(getEndTag(tag));
+            } else if (choice < 13 && open.getFirst().equals("</list>")) {
+                buffer.append("<item>");
+                open.addFirst("</item>");
+            } else if (choice < 19 && open.size() > 0) {
+                buffer.append(open.removeFirst());
+            } else if (choice == 19) {
+                buffer.append(MALFORMED[random.nextInt(MALFORMED.length)]);
+            }
+        }
+        while (open.size() > 0 && random.nextInt(4) > 0) {
+            buffer.append(open.removeFirst());
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the end tag corresponding to a start tag.
+     *
+     * @param tag            the start tag
+     *
+     * @return the end tag
+     */
+    private static String getEndTag(String tag) {
+        int  pos = tag.indexOf(' ');
+
+        if (pos < 0) {
+            pos = tag.length() - 1;
+        }
+        return "</" + tag.substring(1, pos) + ">";
+    }
+
+    /**
+     * Reads a corpus document. The documents are UTF-8 encoded.
+     *
+     * @param file           the file to read
+     *
+     * @return the file contents
+     *
+     * @throws IOException if the file couldn't be read
+     */
+    static String readFile(File file) throws IOException {
+        ByteArrayOutputStream  buffer = new ByteArrayOutputStream();
+        InputStream            input = new FileInputStream(file);
+        byte[]                 data = new byte[4096];
+        int                    length;
+
+        try {
+            while ((length = input.read(data)) > 0) {
+                buffer.write(data, 0, length);
+            }
+        } finally {
+            input.close();
+        }
+        return buffer.toString("UTF-8");
+    }
+
+    /**
+     * Quotes a text for printing. Any line breaks will be escaped.
+     *
+     * @param text           the text to quote
+     *
+     * @return the quoted text
+     */
+    private static String quote(String text) {
+        StringBuffer  buffer = new StringBuffer();
+        char          c;
+
+        buffer.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            c = text.charAt(i);
+            if (c == '\n') {
+                buffer.append("\\n");
+            } else if (c == '\r') {
+                buffer.append("\\r");
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+        return buffer.toString();
+    }
+
+    /**
+     * Reports a failed check.
+     *
+     * @param message        the failure message
+     */
+    private static void fail(String message) {
+        failures++;
+        System.out.println("FAILED: " + message);
+    }
+}
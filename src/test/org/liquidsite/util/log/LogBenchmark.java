@@ -0,0 +1,130 @@
+/*
+ * LogBenchmark.java
+ *
+ * This work is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published
+ * by the Free Software Foundation; either version 2 of the License,
+ * or (at your option) any later version.
+ *
+ * This work is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ * USA
+ *
+ * Copyright (c) 2009 Per Cederberg. All rights reserved.
+ */
+
+
+package org.liquidsite.util.log;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A micro-benchmark for the trace logging. This class measures the
+ * cost of disabled trace calls with string concatenation, message
+ * patterns and isTraceEnabled() guards, as well as the cost of
+ * enabled trace calls with and without caller inference. The
+ * enabled messages are written to a handler that discards them.
+ *
+ * @author   Per Cederberg, <per at percederberg dot net>
+ * @version  1.0
+ */
+public class LogBenchmark {
+
+    /**
+     * The benchmark log.
+     */
+    private static final Log LOG = new Log(LogBenchmark.class);
+
+    /**
+     * The number of published log records. Used to verify that the
+     * enabled messages are actually logged.
+     */
+    private static int published = 0;
+
+    /**
+     * Runs the benchmark. The optional argument is the number of
+     * iterations for the disabled trace calls. The enabled trace
+     * calls use 1/100 of that number.
+     *
+     * @param args           the command-line arguments
+     */
+    public static void main(String[] args) {
+        Logger  logger = Logger.getLogger(LogBenchmark.class.getName());
+        int     count = 10000000;
+
+        if (args.length > 0) {
+            count = Integer.parseInt(args[0]);
+        }
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler() {
+            public void publish(LogRecord record) {
+                published++;
+            }
+            public void flush() {
+                // Nothing to flush
+            }
+            public void close() {
+                // Nothing to close
+            }
+        });
+        logger.setLevel(Level.INFO);
+        for (int i = 0; i < 3; i++) {
+            run(i, count / 10, null);
+        }
+        run(0, count, "disabled, concatenation");
+        run(1, count, "disabled, pattern");
+        run(2, count, "disabled, guarded");
+        logger.setLevel(Level.FINER);
+        Log.setCallerInference(true);
+        run(1, count / 100, null);
+        run(1, count / 100, "enabled, caller inference");
+        Log.setCallerInference(false);
+        run(1, count / 100, null);
+        run(1, count / 100, "enabled, no caller inference");
+        System.out.println("Published " + published + " log records");
+    }
+
+    /**
+     * Runs a single benchmark and optionally prints the result.
+     *
+     * @param test           the test number (0-2)
+     * @param count          the number of iterations
+     * @param title          the result title, or null for no output
+     */
+    private static void run(int test, int count, String title) {
+        Integer  key = new Integer(4711);
+        long     time;
+
+        time = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            switch (test) {
+            case 0:
+                LOG.trace("cached content object " + i + " in " + key);
+                break;
+            case 1:
+                LOG.trace("cached content object {} in {}",
+                          new Integer(i),
+                          key);
+                break;
+            default:
+                if (LOG.isTraceEnabled()) {
+                    LOG.trace("cached content object " + i + " in " + key);
+                }
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        if (title != null) {
+            System.out.println(title + ": " + (time * 1000000.0 / count) +
+                               " ns/call");
+        }
+    }
+}
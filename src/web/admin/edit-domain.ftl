@@ -99,6 +99,20 @@
             "<code>Name &lt;email@domain&gt;</code>".</p>
           </td>
         </tr>
+        <tr>
+          <th>
+            Mail&nbsp;Batch&nbsp;Size:
+          </th>
+          <td class="field">
+            <input type="text" tabindex="4" size="10"
+                   name="mailbatch" value="${mailbatch?html}" />
+            <p>The maximum number of recipients in each email sent to
+            a group. Larger batches send group emails faster, but the
+            recipients are hidden (BCC) and the email is not addressed
+            to each member personally. Use zero (0) to send an
+            individual email to each group member.</p>
+          </td>
+        </tr>
         <tr>
           <th>
             Host&nbsp;Names:
@@ -16,6 +16,11 @@
         utilGetElement("action").value = "restore";
         return true;
     }
+
+    function doResetStatistics() {
+        utilGetElement("action").value = "resetstatistics";
+        return true;
+    }
     </script>
 
     <form method="post" accept-charset="UTF-8">
@@ -69,7 +74,105 @@
             exist.
           </td>
         </tr>
+        <tr>
+          <th>
+            <button type="submit" onclick="return doResetStatistics();">
+              <img src="images/icons/24x24/delete.png" />
+              Reset
+            </button>
+          </th>
+          <td>
+            <strong>Resetting</strong> the request statistics clears all the
+            timing data shown below. The statistics show the time spent (in
+            milliseconds) in each phase of processing requests, per site.
+            Note that the database, security and template time is also
+            included in the other phases. The statistics can be
+            <a href="system.html?action=statistics">exported</a> in a plain
+            text format suitable for monitoring tools.
+          </td>
+        </tr>
       </table>
     </form>
 
+<#if compiler.status?exists>
+    <h2>Template Compilation</h2>
+
+    <p>The templates are compiled in the background on startup, and
+    the affected pages are recompiled when a page or template is
+    published. The compilation is currently ${compiler.status}, with
+    ${compiler.compiled} of ${compiler.total} templates compiled
+    in ${compiler.time} ms. ${compiler.skipped} templates were skipped
+    and ${compiler.failed} failed.</p>
+  <#if compiler.errors?size gt 0>
+
+    <table class="border">
+      <tr>
+        <th>Recent Compilation Errors</th>
+      </tr>
+    <#list compiler.errors as error>
+      <tr>
+        <td>${error?html}</td>
+      </tr>
+    </#list>
+    </table>
+  </#if>
+</#if>
+
+    <h2>Mail Queue</h2>
+
+    <p>The mail queue currently has ${mail.waiting} messages waiting
+    and ${mail.processing} messages being processed. Since startup
+    ${mail.sent} mails have been sent and ${mail.failed} have failed.
+  <#if mail.persistent>
+    Queued messages are stored on disk and will be resumed after a
+    restart.</p>
+  <#else>
+    Queued messages are kept in memory only and will be lost on a
+    restart.</p>
+  </#if>
+<#if filecache.count?exists>
+
+    <h2>File Cache</h2>
+
+    <p>Small static and content files are kept in memory by the file
+    response cache. The cache currently holds ${filecache.count} files
+    using ${filecache.size} kB, with ${filecache.hits} cache hits and
+    ${filecache.misses} cache misses since startup. The cache is
+    cleared when a domain backup is restored.</p>
+</#if>
+
+    <h2>Failed Logins</h2>
+
+    <p>Since startup ${login.failed} login attempts have failed and
+    ${login.blocked} attempts have been blocked due to too many
+    previous failures. The failures are currently tracked for
+    ${login.tracked} client addresses and user accounts.</p>
+
+<#list statistics as site>
+    <h2>${site.name?html}</h2>
+
+    <table class="border">
+      <tr>
+        <th>Phase</th>
+        <th>Count</th>
+        <th>Average</th>
+        <th>50%</th>
+        <th>90%</th>
+        <th>99%</th>
+        <th>Max</th>
+      </tr>
+  <#list site.phases as phase>
+      <tr>
+        <td>${phase.name}</td>
+        <td>${phase.count}</td>
+        <td>${phase.average}</td>
+        <td>${phase.p50}</td>
+        <td>${phase.p90}</td>
+        <td>${phase.p99}</td>
+        <td>${phase.max}</td>
+      </tr>
+  </#list>
+    </table>
+</#list>
+
 <#include "footer.ftl">